@@ -0,0 +1,161 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.ENQUEUE_JOB;
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.READ_STREAM_STATS;
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.REMOVE_QUEUED_JOB;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+
+// stands in for Valkey by running the queue scripts used by the producer on in-memory streams,
+// so the benchmarks measure the application side of each call without any network round trip
+class InMemoryRedisTemplate extends RedisTemplate<String, String> {
+    private static final long JOB_NOT_QUEUED = 0;
+    private static final long JOB_REMOVED = 1;
+
+    private final Map<String, NavigableMap<Long, ByteRecord>> streams = new HashMap<>();
+    private final Map<String, String> index = new HashMap<>();
+    private final Map<String, Long> statuses = new HashMap<>();
+    private final RedisConnection connection = createConnection();
+    private long sequence;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, RedisSerializer<?> argsSerializer, RedisSerializer<T> resultSerializer, List<String> keys, Object... args) {
+        if (script != ENQUEUE_JOB) {
+            throw new UnsupportedOperationException("script not supported by the in-memory stand-in");
+        }
+        return (T) enqueueJob(keys.getFirst(), keys.get(4), args);
+    }
+
+    @Override
+    public Boolean delete(String key) {
+        return statuses.remove(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        if (script == READ_STREAM_STATS) {
+            return (T) readStreamStats(keys.subList(0, keys.size() - 1));
+        }
+        if (script != REMOVE_QUEUED_JOB) {
+            throw new UnsupportedOperationException("script not supported by the in-memory stand-in");
+        }
+        return (T) removeQueuedJob((String) args[0]);
+    }
+
+    // the changes of the queued job ids cache have no other instance to reach
+    @Override
+    public Long convertAndSend(String channel, Object message) {
+        return 0L;
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action) {
+        return action.doInRedis(connection);
+    }
+
+    // same layout as enqueue_job.lua: status time to live, job id, due time, delay, then the record fields
+    private String enqueueJob(String streamKey, String statusKey, Object[] args) {
+        String jobId = new String((byte[]) args[1], UTF_8);
+        if (index.containsKey(jobId)) {
+            return null;
+        }
+        // only the queued time is kept as the status, since the benchmarks never read it
+        statuses.put(statusKey, System.currentTimeMillis());
+
+        Map<byte[], byte[]> fields = new LinkedHashMap<>();
+        for (int i = 4; i + 1 < args.length; i += 2) {
+            fields.put((byte[]) args[i], (byte[]) args[i + 1]);
+        }
+
+        long recordSequence = ++sequence;
+        ByteRecord jobRecord = StreamRecords.newRecord()
+                .in(streamKey.getBytes(UTF_8))
+                .withId(RecordId.of(1, recordSequence))
+                .ofBytes(fields);
+        streams.computeIfAbsent(streamKey, key -> new TreeMap<>()).put(recordSequence, jobRecord);
+        index.put(jobId, streamKey + "|" + recordSequence);
+        return jobRecord.getId().getValue();
+    }
+
+    private Long removeQueuedJob(String jobId) {
+        String location = index.remove(jobId);
+        if (isNull(location)) {
+            return JOB_NOT_QUEUED;
+        }
+
+        int separator = location.lastIndexOf('|');
+        streams.get(location.substring(0, separator)).remove(Long.parseLong(location.substring(separator + 1)));
+        return JOB_REMOVED;
+    }
+
+    // same layout as read_stream_stats.lua, the stand-in having no checkpoint
+    private List<Object> readStreamStats(List<String> streamKeys) {
+        List<Object> stats = new ArrayList<>();
+        for (String streamKey : streamKeys) {
+            NavigableMap<Long, ByteRecord> stream = streams.getOrDefault(streamKey, new TreeMap<>());
+            stats.add((long) stream.size());
+            stats.add(stream.isEmpty() ? "" : stream.firstEntry().getValue().getId().getValue());
+        }
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ByteRecord> xRange(byte[] key, Range<String> range, Limit limit) {
+        NavigableMap<Long, ByteRecord> stream = streams.get(new String(key, UTF_8));
+        if (isNull(stream)) {
+            return List.of();
+        }
+
+        NavigableMap<Long, ByteRecord> records = range.getLowerBound()
+                .getValue()
+                .map(recordId -> stream.tailMap(RecordId.of(recordId).getSequence(), range.getLowerBound().isInclusive()))
+                .orElse(stream);
+        int count = limit.isUnlimited() ? records.size() : Math.min(limit.getCount(), records.size());
+
+        List<ByteRecord> jobRecords = new ArrayList<>(count);
+        for (ByteRecord jobRecord : records.values()) {
+            if (jobRecords.size() >= count) {
+                break;
+            }
+            jobRecords.add(jobRecord);
+        }
+        return jobRecords;
+    }
+
+    private RedisConnection createConnection() {
+        RedisStreamCommands streamCommands = (RedisStreamCommands) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RedisStreamCommands.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "xRange" -> xRange((byte[]) args[0], (Range<String>) args[1], args.length > 2 ? (Limit) args[2] : Limit.unlimited());
+                    default -> throw new UnsupportedOperationException(method.getName() + " is not supported by the in-memory stand-in");
+                });
+
+        return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RedisConnection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "streamCommands" -> streamCommands;
+                    default -> throw new UnsupportedOperationException(method.getName() + " is not supported by the in-memory stand-in");
+                });
+    }
+}
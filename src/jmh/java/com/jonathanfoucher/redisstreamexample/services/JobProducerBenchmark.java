@@ -0,0 +1,135 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.jonathanfoucher.redisstreamexample.common.codecs.BinaryJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.common.codecs.HashJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobProducerBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1", "1000", "100000"})
+    private int queueDepth;
+    // redis runs the Valkey backend against the in-memory stand-in of its scripts
+    @Param({"redis", "memory"})
+    private String backend;
+    // cache serves the reads of the queued jobs from the queued job ids cache, synced once filled
+    @Param({"false", "true"})
+    private boolean cache;
+
+    private JobProducer jobProducer;
+    private JobDto queuedJob;
+    private long nextJobId;
+
+    @Setup
+    public void setup() {
+        // one log line per job would cost more than the code being measured
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        InMemoryRedisTemplate redisTemplate = new InMemoryRedisTemplate();
+        JobStreams jobStreams = new JobStreams();
+        ReflectionTestUtils.setField(jobStreams, "streamKey", "job_queue");
+        ReflectionTestUtils.setField(jobStreams, "partitions", 1);
+
+        JobRecordMapper jobRecordMapper = new JobRecordMapper(List.of(new BinaryJobRecordCodec(), new HashJobRecordCodec()));
+        ReflectionTestUtils.setField(jobRecordMapper, "recordCodec", "binary");
+        jobRecordMapper.initWriteCodec();
+
+        JobRetries jobRetries = new JobRetries(jobRecordMapper);
+        JobStatuses jobStatuses = new JobStatuses();
+        ReflectionTestUtils.setField(jobStatuses, "keyPrefix", "job_status:");
+        ReflectionTestUtils.setField(jobStatuses, "ttl", Duration.ofDays(1));
+        JobQueueBackend jobQueueBackend;
+        if (backend.equals("memory")) {
+            jobQueueBackend = new InMemoryJobQueueBackend(jobStreams, jobRecordMapper, jobRetries, jobStatuses);
+        } else {
+            jobQueueBackend = new RedisJobQueueBackend(redisTemplate, jobStreams, jobRecordMapper, jobRetries, jobStatuses, null);
+            ReflectionTestUtils.setField(jobQueueBackend, "indexKey", "job_queue_index");
+            ReflectionTestUtils.setField(jobQueueBackend, "delayedKey", "job_queue_delayed");
+            ReflectionTestUtils.setField(jobQueueBackend, "delayedJobsKey", "job_queue_delayed_jobs");
+            ReflectionTestUtils.setField(jobQueueBackend, "attemptsKey", "job_queue_attempts");
+            ReflectionTestUtils.setField(jobQueueBackend, "runningKey", "job_queue_running");
+        }
+
+        QueuedJobIdsCache queuedJobIdsCache = new QueuedJobIdsCache(jobQueueBackend, jobStreams);
+        ReflectionTestUtils.setField(queuedJobIdsCache, "enabled", cache);
+        ReflectionTestUtils.setField(queuedJobIdsCache, "channel", "job_queue_changes");
+        ReflectionTestUtils.setField(queuedJobIdsCache, "maxSize", 100000);
+        ReflectionTestUtils.setField(queuedJobIdsCache, "readBatchSize", 1000);
+        ReflectionTestUtils.setField(queuedJobIdsCache, "resyncInterval", Duration.ofMinutes(1));
+
+        jobProducer = new JobProducer(jobQueueBackend, jobStreams, jobRecordMapper, new JobMetrics(new SimpleMeterRegistry(), jobQueueBackend, jobStreams),
+                queuedJobIdsCache, new JobCancellations(jobQueueBackend));
+        ReflectionTestUtils.setField(jobProducer, "queuedJobsPageSize", 500);
+
+        for (long jobId = 1; jobId <= queueDepth; jobId++) {
+            jobProducer.produce(initJobDto(jobId));
+        }
+        queuedJobIdsCache.refresh();
+        queuedJob = initJobDto(queueDepth / 2 + 1);
+        nextJobId = queueDepth + 1;
+    }
+
+    @Benchmark
+    public Object produceAlreadyQueuedJob() {
+        try {
+            return jobProducer.produce(queuedJob);
+        } catch (JobAlreadyQueuedException e) {
+            return e;
+        }
+    }
+
+    // the job is removed right away, so the queue depth stays the same across iterations
+    @Benchmark
+    public String produceAndRemoveJob() {
+        long jobId = nextJobId++;
+        String recordId = jobProducer.produce(initJobDto(jobId));
+        jobProducer.removeJobFromQueue(jobId);
+        return recordId;
+    }
+
+    @Benchmark
+    public QueuedJobIdsPage getQueuedJobsIdsPage() {
+        return jobProducer.getQueuedJobsIds(null, PAGE_SIZE);
+    }
+
+    // the whole queue is listed in a single range, or copied from the cache, so its cost grows with the queue depth
+    @Benchmark
+    public List<Long> getQueuedJobsIds() {
+        return jobProducer.getQueuedJobsIds();
+    }
+
+    private JobDto initJobDto(long jobId) {
+        JobDto job = new JobDto();
+        job.setId(jobId);
+        job.setName("some job name");
+        return job;
+    }
+}
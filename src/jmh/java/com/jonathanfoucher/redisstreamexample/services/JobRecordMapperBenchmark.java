@@ -0,0 +1,67 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.codecs.BinaryJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.common.codecs.HashJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobRecordMapperBenchmark {
+    @Param({"binary", "hash"})
+    private String recordCodec;
+
+    private JobRecordMapper jobRecordMapper;
+    private JobDto job;
+    private Map<byte[], byte[]> jobFields;
+
+    @Setup
+    public void setup() {
+        jobRecordMapper = new JobRecordMapper(List.of(new BinaryJobRecordCodec(), new HashJobRecordCodec()));
+        ReflectionTestUtils.setField(jobRecordMapper, "recordCodec", recordCodec);
+        jobRecordMapper.initWriteCodec();
+
+        job = new JobDto();
+        job.setId(123456789L);
+        job.setName("some job name");
+        job.setPartitionKey("some partition key");
+        job.setPriority(JobPriority.HIGH);
+        jobFields = jobRecordMapper.toHash(job);
+    }
+
+    @Benchmark
+    public Map<byte[], byte[]> toHash() {
+        return jobRecordMapper.toHash(job);
+    }
+
+    // decoding is what the consumers do for every record they read
+    @Benchmark
+    public JobDto fromHash() {
+        return jobRecordMapper.fromHash(jobFields);
+    }
+
+    @Benchmark
+    public List<byte[]> toEnqueueArgs() {
+        return jobRecordMapper.toEnqueueArgs(job);
+    }
+}
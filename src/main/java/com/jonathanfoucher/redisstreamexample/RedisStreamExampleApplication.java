@@ -2,8 +2,10 @@ package com.jonathanfoucher.redisstreamexample;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class RedisStreamExampleApplication {
     static void main(String[] args) {
         SpringApplication.run(RedisStreamExampleApplication.class, args);
@@ -0,0 +1,149 @@
+package com.jonathanfoucher.redisstreamexample.common.codecs;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+// single field records: version, presence flags, zigzag varint id, length prefixed utf-8 name and partition key, then priority ordinal
+@Component
+public class BinaryJobRecordCodec implements JobRecordCodec {
+    private static final byte[] JOB_FIELD = "job".getBytes(UTF_8);
+    private static final byte VERSION = 1;
+    private static final int HAS_ID = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_PARTITION_KEY = 1 << 2;
+    private static final int HAS_PRIORITY = 1 << 3;
+    private static final JobPriority[] PRIORITIES = JobPriority.values();
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public Map<byte[], byte[]> encode(JobDto job) {
+        byte[] name = isNull(job.getName()) ? null : job.getName().getBytes(UTF_8);
+        byte[] partitionKey = isNull(job.getPartitionKey()) ? null : job.getPartitionKey().getBytes(UTF_8);
+        long id = isNull(job.getId()) ? 0 : zigzag(job.getId());
+
+        int flags = (nonNull(job.getId()) ? HAS_ID : 0) | (nonNull(name) ? HAS_NAME : 0) | (nonNull(partitionKey) ? HAS_PARTITION_KEY : 0)
+                | (nonNull(job.getPriority()) ? HAS_PRIORITY : 0);
+        int size = 2 + (nonNull(job.getId()) ? varLongSize(id) : 0) + bytesSize(name) + bytesSize(partitionKey) + (nonNull(job.getPriority()) ? 1 : 0);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION);
+        buffer.put((byte) flags);
+        if (nonNull(job.getId())) {
+            putVarLong(buffer, id);
+        }
+        putBytes(buffer, name);
+        putBytes(buffer, partitionKey);
+        if (nonNull(job.getPriority())) {
+            buffer.put((byte) job.getPriority().ordinal());
+        }
+        return Map.of(JOB_FIELD, buffer.array());
+    }
+
+    @Override
+    public boolean canDecode(Map<byte[], byte[]> fields) {
+        return nonNull(getJobField(fields));
+    }
+
+    @Override
+    public JobDto decode(Map<byte[], byte[]> fields) {
+        byte[] value = getJobField(fields);
+        if (isNull(value) || value.length < 2 || value[0] != VERSION) {
+            throw new IllegalArgumentException("unsupported binary job record");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value, 1, value.length - 1);
+        int flags = buffer.get();
+
+        JobDto job = new JobDto();
+        if ((flags & HAS_ID) != 0) {
+            job.setId(unzigzag(getVarLong(buffer)));
+        }
+        if ((flags & HAS_NAME) != 0) {
+            job.setName(getString(buffer));
+        }
+        if ((flags & HAS_PARTITION_KEY) != 0) {
+            job.setPartitionKey(getString(buffer));
+        }
+        if ((flags & HAS_PRIORITY) != 0) {
+            job.setPriority(PRIORITIES[buffer.get()]);
+        }
+        return job;
+    }
+
+    private byte[] getJobField(Map<byte[], byte[]> fields) {
+        for (Map.Entry<byte[], byte[]> field : fields.entrySet()) {
+            if (Arrays.equals(field.getKey(), JOB_FIELD)) {
+                return field.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int bytesSize(byte[] bytes) {
+        return isNull(bytes) ? 0 : varLongSize(bytes.length) + bytes.length;
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (nonNull(bytes)) {
+            putVarLong(buffer, bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed binary job record");
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = (int) getVarLong(buffer);
+        String value = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
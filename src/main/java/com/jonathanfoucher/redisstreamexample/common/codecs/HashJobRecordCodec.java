@@ -0,0 +1,35 @@
+package com.jonathanfoucher.redisstreamexample.common.codecs;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import org.springframework.data.redis.hash.ObjectHashMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@Component
+public class HashJobRecordCodec implements JobRecordCodec {
+    private static final byte[] TYPE_FIELD = "_class".getBytes(UTF_8);
+
+    @Override
+    public String getName() {
+        return "hash";
+    }
+
+    @Override
+    public Map<byte[], byte[]> encode(JobDto job) {
+        return ObjectHashMapper.getSharedInstance().toHash(job);
+    }
+
+    @Override
+    public boolean canDecode(Map<byte[], byte[]> fields) {
+        return fields.keySet().stream().anyMatch(field -> Arrays.equals(field, TYPE_FIELD));
+    }
+
+    @Override
+    public JobDto decode(Map<byte[], byte[]> fields) {
+        return (JobDto) ObjectHashMapper.getSharedInstance().fromHash(fields);
+    }
+}
@@ -0,0 +1,15 @@
+package com.jonathanfoucher.redisstreamexample.common.codecs;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+
+import java.util.Map;
+
+public interface JobRecordCodec {
+    String getName();
+
+    Map<byte[], byte[]> encode(JobDto job);
+
+    boolean canDecode(Map<byte[], byte[]> fields);
+
+    JobDto decode(Map<byte[], byte[]> fields);
+}
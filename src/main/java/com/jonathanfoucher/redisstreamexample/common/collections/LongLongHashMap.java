@@ -0,0 +1,160 @@
+package com.jonathanfoucher.redisstreamexample.common.collections;
+
+import java.util.Arrays;
+
+// open addressing with linear probing, so entries cost two longs and no object, keys and values being any long
+public class LongLongHashMap {
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int MIN_CAPACITY = 16;
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+    // the free key marks empty slots, so its entry is kept aside
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public LongLongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(getCapacity(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        return keys[findSlot(key)] != FREE_KEY;
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+        int slot = findSlot(key);
+        return keys[slot] != FREE_KEY ? values[slot] : defaultValue;
+    }
+
+    public void put(long key, long value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+
+        int slot = findSlot(key);
+        if (keys[slot] == FREE_KEY) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size > keys.length * LOAD_FACTOR) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    public boolean remove(long key) {
+        if (key == FREE_KEY) {
+            boolean removed = hasFreeKey;
+            hasFreeKey = false;
+            size -= removed ? 1 : 0;
+            return removed;
+        }
+
+        int slot = findSlot(key);
+        if (keys[slot] == FREE_KEY) {
+            return false;
+        }
+        keys[slot] = FREE_KEY;
+        size--;
+        shiftBack(slot);
+        return true;
+    }
+
+    // the table shrinks back as well, so a drained map does not keep the memory of its peak
+    public void clear() {
+        size = 0;
+        hasFreeKey = false;
+        if (keys.length > MIN_CAPACITY * 4) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(keys, FREE_KEY);
+        }
+    }
+
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // moves back the following entries of the probe sequence, so lookups never need tombstones
+    private void shiftBack(int freedSlot) {
+        int slot = freedSlot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == FREE_KEY) {
+                return;
+            }
+
+            int idealSlot = hash(key) & mask;
+            boolean movable = freedSlot <= slot
+                    ? idealSlot <= freedSlot || idealSlot > slot
+                    : idealSlot <= freedSlot && idealSlot > slot;
+            if (movable) {
+                keys[freedSlot] = key;
+                values[freedSlot] = values[slot];
+                keys[slot] = FREE_KEY;
+                freedSlot = slot;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int getCapacity(int expectedSize) {
+        long capacity = Math.max(MIN_CAPACITY, (long) Math.ceil(expectedSize / LOAD_FACTOR));
+        return (int) Math.min(1L << 30, Long.highestOneBit(capacity - 1) << 1);
+    }
+
+    // job ids are mostly sequential, so their bits are spread before masking
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,118 @@
+package com.jonathanfoucher.redisstreamexample.common.executors;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.nonNull;
+
+// runs the tasks of different keys in parallel on a bounded pool, while the tasks of a same key run one at a time in submission order:
+// each key is hashed to a stripe, a lock-free queue drained by a single thread at a time
+@Slf4j
+public class KeyedSerialExecutor {
+    private final Stripe[] stripes;
+    private final ExecutorService pool;
+    private final int maxPendingTasks;
+    private final Semaphore pendingTasks;
+    private volatile boolean closed;
+
+    public KeyedSerialExecutor(int parallelism, int stripeCount, int maxPendingTasks, ThreadFactory threadFactory) {
+        this.stripes = new Stripe[Math.max(stripeCount, 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.pool = Executors.newFixedThreadPool(Math.max(parallelism, 1), threadFactory);
+        this.maxPendingTasks = Math.max(maxPendingTasks, 1);
+        this.pendingTasks = new Semaphore(this.maxPendingTasks);
+    }
+
+    // blocks while the pending tasks reach their limit, so the caller doesn't read further ahead than the pool catches up,
+    // returns false when the executor is closed, the task being then never run
+    public boolean execute(Object key, Runnable task) throws InterruptedException {
+        pendingTasks.acquire();
+        if (closed) {
+            pendingTasks.release();
+            return false;
+        }
+
+        Stripe stripe = stripes[Math.floorMod(spread(key.hashCode()), stripes.length)];
+        stripe.tasks.offer(task);
+        if (stripe.scheduled.compareAndSet(false, true)) {
+            schedule(stripe);
+        }
+        return true;
+    }
+
+    // the tasks not started yet are dropped, while the running ones get the timeout to complete
+    public void close(Duration timeout) {
+        closed = true;
+        pool.shutdown();
+        // callers waiting for room are released and see the executor closed
+        pendingTasks.release(maxPendingTasks);
+        try {
+            if (!pool.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                log.warn("tasks still running after {}, interrupting them", timeout);
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // a single task is run before the stripe is scheduled again, so a busy stripe doesn't hold a thread while other stripes wait
+    private void drain(Stripe stripe) {
+        if (closed) {
+            stripe.tasks.clear();
+            return;
+        }
+
+        Runnable task = stripe.tasks.poll();
+        if (nonNull(task)) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("keyed task failed", e);
+            } finally {
+                pendingTasks.release();
+            }
+        }
+
+        if (stripe.tasks.isEmpty()) {
+            stripe.scheduled.set(false);
+            // a task offered after the check but before the flag was cleared was not scheduled by its caller
+            if (stripe.tasks.isEmpty() || !stripe.scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+        schedule(stripe);
+    }
+
+    private void schedule(Stripe stripe) {
+        try {
+            pool.execute(() -> drain(stripe));
+        } catch (RejectedExecutionException e) {
+            // only once closed, the tasks left are dropped with the stripe
+            stripe.tasks.clear();
+        }
+    }
+
+    // hash codes only differing in their high bits still land on different stripes
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Stripe {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+}
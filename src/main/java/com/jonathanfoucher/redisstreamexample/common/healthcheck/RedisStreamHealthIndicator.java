@@ -1,18 +1,38 @@
 package com.jonathanfoucher.redisstreamexample.common.healthcheck;
 
-import com.jonathanfoucher.redisstreamexample.configs.RedisConfig;
+import com.jonathanfoucher.redisstreamexample.configs.JobSubscriptions;
+import com.jonathanfoucher.redisstreamexample.services.JobMetrics;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 @Component
 @RequiredArgsConstructor
 public class RedisStreamHealthIndicator implements HealthIndicator {
-    private final RedisConfig redisConfig;
+    private final JobSubscriptions jobSubscriptions;
+    private final JobMetrics jobMetrics;
+
+    @Value("${redis-stream-example.health.max-stall:5m}")
+    private Duration maxStall;
+    @Value("${redis-stream-example.health.max-lag:10m}")
+    private Duration maxLag;
 
+    // a stopped subscription is resubscribed on its own, so it is only reported down once stalled for too long,
+    // while a lagging queue stays up since restarting the app would not make it catch up faster
     @Override
     public Health health() {
-        return (redisConfig.isSubscriptionActive() ? Health.up() : Health.down()).build();
+        Duration stall = jobSubscriptions.getLongestStall();
+        Duration lag = jobMetrics.getQueueLag();
+        return (stall.compareTo(maxStall) > 0 ? Health.down() : Health.up())
+                .withDetail("active", jobSubscriptions.isSubscriptionActive())
+                .withDetail("stall", stall.toString())
+                .withDetail("lag", lag.toString())
+                .withDetail("lagging", lag.compareTo(maxLag) > 0)
+                .withDetail("resubscriptions", jobSubscriptions.getResubscriptions())
+                .build();
     }
 }
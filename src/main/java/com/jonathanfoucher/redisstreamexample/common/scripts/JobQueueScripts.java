@@ -0,0 +1,43 @@
+package com.jonathanfoucher.redisstreamexample.common.scripts;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class JobQueueScripts {
+    public static final RedisScript<String> ENQUEUE_JOB = RedisScript.of(new ClassPathResource("scripts/enqueue_job.lua"), String.class);
+    public static final RedisScript<String> ENQUEUE_JOBS = RedisScript.of(new ClassPathResource("scripts/enqueue_jobs.lua"), String.class);
+    public static final RedisScript<Long> DELETE_JOB = RedisScript.of(new ClassPathResource("scripts/delete_job.lua"), Long.class);
+    public static final RedisScript<Long> START_JOB = RedisScript.of(new ClassPathResource("scripts/start_job.lua"), Long.class);
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> CLAIM_JOBS = RedisScript.of(new ClassPathResource("scripts/claim_jobs.lua"), List.class);
+    public static final RedisScript<Long> REMOVE_QUEUED_JOB = RedisScript.of(new ClassPathResource("scripts/remove_queued_job.lua"), Long.class);
+    public static final RedisScript<Long> CLEAR_JOB_QUEUE = RedisScript.of(new ClassPathResource("scripts/clear_job_queue.lua"), Long.class);
+    public static final RedisScript<Long> DELETE_CLEARED_JOBS = RedisScript.of(new ClassPathResource("scripts/delete_cleared_jobs.lua"), Long.class);
+    public static final RedisScript<Long> RETRY_JOB = RedisScript.of(new ClassPathResource("scripts/retry_job.lua"), Long.class);
+    public static final RedisScript<Long> PROMOTE_DELAYED_JOBS = RedisScript.of(new ClassPathResource("scripts/promote_delayed_jobs.lua"), Long.class);
+    public static final RedisScript<Long> INDEX_JOBS = RedisScript.of(new ClassPathResource("scripts/index_jobs.lua"), Long.class);
+    public static final RedisScript<Long> SAVE_JOB_STATUSES = RedisScript.of(new ClassPathResource("scripts/save_job_statuses.lua"), Long.class);
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> READ_STREAM_STATS = RedisScript.of(new ClassPathResource("scripts/read_stream_stats.lua"), List.class);
+
+    // enqueue scripts take binary record fields, so their arguments are passed as raw bytes
+    public static final RedisSerializer<byte[]> RECORD_ARGS_SERIALIZER = RedisSerializer.byteArray();
+    public static final RedisSerializer<Long> ATTEMPTS_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    // the batch enqueue script joins its results by commas, an empty one meaning the job was already queued
+    public static List<String> toRecordIds(String results) {
+        List<String> recordIds = new ArrayList<>();
+        for (String recordId : results.split(",", -1)) {
+            recordIds.add(recordId.isEmpty() ? null : recordId);
+        }
+        return recordIds;
+    }
+}
@@ -0,0 +1,342 @@
+package com.jonathanfoucher.redisstreamexample.common.streams;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.hash.HashMapper;
+import org.springframework.data.redis.stream.StreamListener;
+import org.springframework.data.redis.stream.Subscription;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.CLAIM_JOBS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+@Slf4j
+public class AdaptiveStreamPoller<V> implements Subscription, Runnable {
+    private static final ReadOffset PENDING_OFFSET = ReadOffset.from("0-0");
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final HashMapper<V, byte[], byte[]> hashMapper;
+    private final List<Lane> lanes;
+    private final ReadOffset[] offsets;
+    private final ReadOffset[] pendingOffsets;
+    private final long[] credits;
+    private final int maxWeight;
+    private final Consumer consumer;
+    private final StreamListener<String, ObjectRecord<String, V>> listener;
+    private final PollingOptions pollingOptions;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile boolean active;
+    private volatile boolean cancelled;
+    private volatile boolean stopped;
+    private volatile boolean polled;
+    private volatile boolean consuming;
+    private volatile long lastProgress = System.nanoTime();
+
+    public AdaptiveStreamPoller(RedisTemplate<String, String> redisTemplate, HashMapper<V, byte[], byte[]> hashMapper, List<Lane> lanes, Consumer consumer,
+                                StreamListener<String, ObjectRecord<String, V>> listener, PollingOptions pollingOptions) {
+        this.redisTemplate = redisTemplate;
+        this.hashMapper = hashMapper;
+        this.lanes = List.copyOf(lanes);
+        this.offsets = lanes.stream().map(lane -> lane.streamOffset().getOffset()).toArray(ReadOffset[]::new);
+        this.pendingOffsets = lanes.stream().map(lane -> PENDING_OFFSET).toArray(ReadOffset[]::new);
+        this.credits = new long[lanes.size()];
+        this.maxWeight = lanes.stream().mapToInt(Lane::weight).max().orElse(1);
+        this.consumer = consumer;
+        this.listener = listener;
+        this.pollingOptions = pollingOptions;
+    }
+
+    @Override
+    public void run() {
+        int batchSize = 1;
+        Duration pollTimeout = pollingOptions.minPollTimeout();
+        // records delivered to this consumer before a restart are read again first
+        boolean pendingRecords = nonNull(consumer);
+        boolean idle = false;
+        long nextClaim = System.nanoTime();
+
+        active = !cancelled;
+        started.countDown();
+        try {
+            while (active && !Thread.currentThread().isInterrupted()) {
+                if (isClaimEnabled() && System.nanoTime() - nextClaim >= 0) {
+                    claimIdleRecords(batchSize);
+                    nextClaim = System.nanoTime() + pollingOptions.claimInterval().toNanos();
+                }
+
+                // the pending list is walked once, each read starting after the last record handed over,
+                // since the records still in flight stay pending until acknowledged
+                if (pendingRecords) {
+                    pendingRecords = process(readLanes(pendingOffsets, batchSize, null)) > 0;
+                    continue;
+                }
+
+                int fetched;
+                boolean full;
+                if (idle) {
+                    // a single blocking read on every lane returns as soon as a record is added to one of them
+                    fetched = process(readLanes(offsets, batchSize, pollTimeout));
+                    full = fetched >= batchSize;
+                } else {
+                    fetched = 0;
+                    full = false;
+                    for (int lane = 0; lane < lanes.size() && active; lane++) {
+                        int count = earnCredits(lane, batchSize);
+                        if (count == 0) {
+                            continue;
+                        }
+                        int laneFetched = process(readLane(lane, count));
+                        spendCredits(lane, count, laneFetched);
+                        fetched += laneFetched;
+                        full |= laneFetched >= count;
+                    }
+                }
+
+                idle = fetched == 0;
+                batchSize = nextBatchSize(batchSize, full, fetched);
+                pollTimeout = nextPollTimeout(pollTimeout, fetched);
+            }
+        } catch (RuntimeException e) {
+            if (active) {
+                log.error("polling streams {} failed, stopping subscription", getStreamKeys(), e);
+            }
+        } finally {
+            active = false;
+            stopped = true;
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public boolean await(Duration timeout) throws InterruptedException {
+        return started.await(timeout.toNanos(), TimeUnit.NANOSECONDS) && active;
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        active = false;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public boolean hasPolled() {
+        return polled;
+    }
+
+    public List<String> getStreamKeys() {
+        return lanes.stream().map(lane -> lane.streamOffset().getKey()).toList();
+    }
+
+    // time since the last read returned or the last record was handed over, which grows while stuck on a read,
+    // a job in flight not counting since it may well run for longer than any read
+    public Duration getStalledFor() {
+        return consuming ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - lastProgress);
+    }
+
+    // a new poller for the same streams, resuming after the last records handed over by this one,
+    // while records read by a consumer but not handed over are read again from its pending list
+    public AdaptiveStreamPoller<V> resubscribe() {
+        List<Lane> resumedLanes = new ArrayList<>();
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            resumedLanes.add(new Lane(StreamOffset.create(getStreamKey(lane), offsets[lane]), lanes.get(lane).weight()));
+        }
+
+        AdaptiveStreamPoller<V> poller = new AdaptiveStreamPoller<>(redisTemplate, hashMapper, resumedLanes, consumer, listener, pollingOptions);
+        System.arraycopy(pendingOffsets, 0, poller.pendingOffsets, 0, pendingOffsets.length);
+        poller.lastProgress = lastProgress;
+        return poller;
+    }
+
+    // a record turned down by the listener stops the poller before its offset moves past it, so it is read again on resubscribe
+    private int process(List<ObjectRecord<String, V>> records) {
+        return process(records, false);
+    }
+
+    // claimed records may sit before records of the pending list not read yet, so they never move its offset
+    private int process(List<ObjectRecord<String, V>> records, boolean claimed) {
+        polled = true;
+        lastProgress = System.nanoTime();
+        for (ObjectRecord<String, V> jobRecord : records) {
+            boolean handedOff;
+            consuming = true;
+            try {
+                handedOff = handOff(jobRecord);
+            } finally {
+                consuming = false;
+                lastProgress = System.nanoTime();
+            }
+            if (!handedOff) {
+                log.info("record {} of stream {} was not handed over, stopping subscription", jobRecord.getId(), jobRecord.getStream());
+                active = false;
+                return records.size();
+            }
+
+            int lane = getLaneIndex(jobRecord.getStream());
+            if (isNull(consumer)) {
+                offsets[lane] = ReadOffset.from(jobRecord.getId());
+            } else if (!claimed && isAfter(jobRecord.getId(), pendingOffsets[lane])) {
+                pendingOffsets[lane] = ReadOffset.from(jobRecord.getId());
+            }
+        }
+        return records.size();
+    }
+
+    private boolean handOff(ObjectRecord<String, V> jobRecord) {
+        if (listener instanceof HandOffStreamListener<String, ObjectRecord<String, V>> handOffListener) {
+            return handOffListener.handOff(jobRecord);
+        }
+        listener.onMessage(jobRecord);
+        return true;
+    }
+
+    private List<ObjectRecord<String, V>> readLane(int lane, int count) {
+        return read(StreamReadOptions.empty().count(count), List.of(StreamOffset.create(getStreamKey(lane), offsets[lane])));
+    }
+
+    // a single read on every lane, each one starting from its own offset
+    private List<ObjectRecord<String, V>> readLanes(ReadOffset[] laneOffsets, int count, Duration pollTimeout) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        List<StreamOffset<String>> streamOffsets = new ArrayList<>();
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            streamOffsets.add(StreamOffset.create(getStreamKey(lane), laneOffsets[lane]));
+        }
+        return read(nonNull(pollTimeout) ? options.block(pollTimeout) : options, streamOffsets);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ObjectRecord<String, V>> read(StreamReadOptions options, List<StreamOffset<String>> streamOffsets) {
+        StreamOffset<byte[]>[] rawStreamOffsets = streamOffsets.stream()
+                .map(streamOffset -> StreamOffset.create(streamOffset.getKey().getBytes(UTF_8), streamOffset.getOffset()))
+                .toArray(StreamOffset[]::new);
+
+        // records are read as raw bytes and decoded by the hash mapper, without going through the template serializers
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> nonNull(consumer)
+                ? connection.streamCommands().xReadGroup(consumer, options, rawStreamOffsets)
+                : connection.streamCommands().xRead(options, rawStreamOffsets));
+        if (isNull(records)) {
+            return List.of();
+        }
+
+        return toObjectRecords(records);
+    }
+
+    private List<ObjectRecord<String, V>> toObjectRecords(List<ByteRecord> records) {
+        return records.stream()
+                .map(jobRecord -> StreamRecords.newRecord()
+                        .in(new String(jobRecord.getStream(), UTF_8))
+                        .withId(jobRecord.getId())
+                        .ofObject(hashMapper.fromHash(jobRecord.getValue())))
+                .toList();
+    }
+
+    private String getStreamKey(int lane) {
+        return lanes.get(lane).streamOffset().getKey();
+    }
+
+    private static boolean isAfter(RecordId recordId, ReadOffset offset) {
+        RecordId offsetId = RecordId.of(offset.getOffset());
+        return recordId.getTimestamp() > offsetId.getTimestamp()
+                || recordId.getTimestamp().equals(offsetId.getTimestamp()) && recordId.getSequence() > offsetId.getSequence();
+    }
+
+    private int getLaneIndex(String streamKey) {
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            if (getStreamKey(lane).equals(streamKey)) {
+                return lane;
+            }
+        }
+        throw new IllegalArgumentException("unknown stream " + streamKey);
+    }
+
+    // while every lane has a backlog, each one gets a share of the records proportional to its weight, so higher priorities
+    // are served first without ever starving the lower ones: a lane earns credits by its weight on every round and reads
+    // a record for each max weight worth of them, which keeps the ratio across rounds even one record at a time
+    private int earnCredits(int lane, int batchSize) {
+        credits[lane] += (long) batchSize * lanes.get(lane).weight();
+        return (int) (credits[lane] / maxWeight);
+    }
+
+    // a lane left without backlog drops its credits, so it can't take more than its share once records are added to it
+    private void spendCredits(int lane, int count, int fetched) {
+        credits[lane] = fetched < count ? 0 : credits[lane] - (long) fetched * maxWeight;
+    }
+
+    private boolean isClaimEnabled() {
+        return nonNull(consumer) && pollingOptions.claimInterval().isPositive();
+    }
+
+    // records left pending by a consumer that stopped are handed over to this one once idle long enough,
+    // being processed right away since they may sit anywhere in its pending list
+    private void claimIdleRecords(int count) {
+        for (String streamKey : getStreamKeys()) {
+            List<?> claimedIds = redisTemplate.execute(CLAIM_JOBS, List.of(streamKey), consumer.getGroup(), consumer.getName(),
+                    String.valueOf(pollingOptions.claimMinIdle().toMillis()), String.valueOf(count));
+            if (isNull(claimedIds) || claimedIds.isEmpty()) {
+                continue;
+            }
+
+            log.info("claimed {} idle records of stream {} for consumer {}", claimedIds.size(), streamKey, consumer);
+            for (Object claimedId : claimedIds) {
+                if (!active) {
+                    return;
+                }
+                process(readRecord(streamKey, claimedId.toString()), true);
+            }
+        }
+    }
+
+    private List<ObjectRecord<String, V>> readRecord(String streamKey, String recordId) {
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands()
+                .xRange(streamKey.getBytes(UTF_8), Range.closed(recordId, recordId), Limit.limit().count(1)));
+        return isNull(records) ? List.of() : toObjectRecords(records);
+    }
+
+    // a full batch means the backlog is deep, so the next read fetches more records in a single round trip
+    private int nextBatchSize(int batchSize, boolean full, int fetched) {
+        if (full) {
+            return Math.min(batchSize * 2, Math.max(pollingOptions.maxBatchSize(), 1));
+        }
+        return Math.clamp(fetched, 1, batchSize);
+    }
+
+    // blocking reads return as soon as a record is added, so idle queues can wait longer between polls
+    private Duration nextPollTimeout(Duration pollTimeout, int fetched) {
+        if (fetched > 0) {
+            return pollingOptions.minPollTimeout();
+        }
+        Duration doubled = pollTimeout.multipliedBy(2);
+        return doubled.compareTo(pollingOptions.maxPollTimeout()) > 0 ? pollingOptions.maxPollTimeout() : doubled;
+    }
+
+    public record Lane(StreamOffset<String> streamOffset, int weight) {
+    }
+
+    public record PollingOptions(int maxBatchSize, Duration minPollTimeout, Duration maxPollTimeout,
+                                 Duration claimInterval, Duration claimMinIdle) {
+    }
+}
@@ -0,0 +1,41 @@
+package com.jonathanfoucher.redisstreamexample.common.streams;
+
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// records of a stream are dispatched in order but completed in any order,
+// the watermark being the newest dispatched record with every older one completed
+public class CompletionWatermark {
+    // dispatched records not behind the watermark yet, in dispatch order, mapped to whether they are completed
+    private final Map<RecordId, Boolean> records = new LinkedHashMap<>();
+
+    public synchronized void dispatch(RecordId recordId) {
+        records.put(recordId, false);
+    }
+
+    // a record that won't run stops being tracked rather than being completed, so the watermark never moves past it
+    // unless a newer record completes
+    public synchronized void discard(RecordId recordId) {
+        records.remove(recordId);
+    }
+
+    // returns the new watermark, or null when it didn't move since an older record is still running
+    public synchronized RecordId complete(RecordId recordId) {
+        records.replace(recordId, true);
+
+        RecordId watermark = null;
+        Iterator<Map.Entry<RecordId, Boolean>> iterator = records.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<RecordId, Boolean> record = iterator.next();
+            if (!record.getValue()) {
+                break;
+            }
+            watermark = record.getKey();
+            iterator.remove();
+        }
+        return watermark;
+    }
+}
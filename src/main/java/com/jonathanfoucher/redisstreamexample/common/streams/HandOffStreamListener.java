@@ -0,0 +1,15 @@
+package com.jonathanfoucher.redisstreamexample.common.streams;
+
+import org.springframework.data.redis.connection.stream.Record;
+import org.springframework.data.redis.stream.StreamListener;
+
+// a listener that may turn a record down, e.g. while shutting down, in which case the poller stops before moving past it,
+// so the record is delivered again instead of being skipped
+public interface HandOffStreamListener<K, V extends Record<K, ?>> extends StreamListener<K, V> {
+    boolean handOff(V message);
+
+    @Override
+    default void onMessage(V message) {
+        handOff(message);
+    }
+}
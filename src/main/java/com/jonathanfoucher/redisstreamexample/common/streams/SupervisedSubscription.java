@@ -0,0 +1,92 @@
+package com.jonathanfoucher.redisstreamexample.common.streams;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.stream.Subscription;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+@Slf4j
+public class SupervisedSubscription<V> implements Subscription {
+    private final Executor executor;
+    private final Runnable beforeResubscribe;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private volatile AdaptiveStreamPoller<V> poller;
+    private volatile boolean cancelled;
+    private volatile long resubscriptions;
+    private int failures;
+    private long nextAttempt;
+
+    public SupervisedSubscription(AdaptiveStreamPoller<V> poller, Executor executor, Runnable beforeResubscribe, Duration minBackoff, Duration maxBackoff) {
+        this.poller = poller;
+        this.executor = executor;
+        this.beforeResubscribe = beforeResubscribe;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void start() {
+        executor.execute(poller);
+    }
+
+    // a poller stops when a read fails, e.g. when the connection to Valkey is lost, so it is replaced by a new one
+    // resuming from the same offsets, waiting twice as long after each attempt that did not manage to poll
+    public synchronized void supervise() {
+        AdaptiveStreamPoller<V> current = poller;
+        if (cancelled || !current.isStopped()) {
+            if (current.hasPolled()) {
+                failures = 0;
+            }
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (failures > 0 && now - nextAttempt < 0) {
+            return;
+        }
+
+        failures++;
+        nextAttempt = now + getBackoff(failures).toNanos();
+        log.warn("subscription to streams {} stopped, resubscribing (attempt {})", current.getStreamKeys(), failures);
+        try {
+            beforeResubscribe.run();
+        } catch (RuntimeException e) {
+            log.warn("resubscribing to streams {} failed: {}", current.getStreamKeys(), e.getMessage());
+            return;
+        }
+
+        resubscriptions++;
+        poller = current.resubscribe();
+        executor.execute(poller);
+    }
+
+    @Override
+    public boolean isActive() {
+        return poller.isActive();
+    }
+
+    @Override
+    public boolean await(Duration timeout) throws InterruptedException {
+        return poller.await(timeout);
+    }
+
+    @Override
+    public synchronized void cancel() {
+        cancelled = true;
+        poller.cancel();
+    }
+
+    public Duration getStalledFor() {
+        return poller.getStalledFor();
+    }
+
+    public long getResubscriptions() {
+        return resubscriptions;
+    }
+
+    private Duration getBackoff(int attempt) {
+        Duration backoff = minBackoff.multipliedBy(1L << Math.min(attempt - 1, 20));
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+}
@@ -0,0 +1,11 @@
+package com.jonathanfoucher.redisstreamexample.configs;
+
+import java.time.Duration;
+
+public interface JobSubscriptions {
+    boolean isSubscriptionActive();
+
+    Duration getLongestStall();
+
+    long getResubscriptions();
+}
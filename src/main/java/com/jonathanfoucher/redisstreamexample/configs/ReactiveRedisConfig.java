@@ -0,0 +1,167 @@
+package com.jonathanfoucher.redisstreamexample.configs;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.services.JobRecordMapper;
+import com.jonathanfoucher.redisstreamexample.services.JobStreams;
+import com.jonathanfoucher.redisstreamexample.services.ReactiveJobConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.stream.StreamReceiver;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.nonNull;
+
+@Configuration
+@Profile("reactive")
+@Slf4j
+public class ReactiveRedisConfig implements JobSubscriptions {
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.consumer-group.enabled:false}")
+    private boolean consumerGroupEnabled;
+    @Value("${redis-stream-example.consumer-group.name:job-consumers}")
+    private String consumerGroupName;
+    @Value("${redis-stream-example.supervisor.min-backoff:1s}")
+    private Duration minBackoff;
+    @Value("${redis-stream-example.supervisor.max-backoff:1m}")
+    private Duration maxBackoff;
+    private final List<Disposable> subscriptions = new ArrayList<>();
+    private final Map<String, AtomicLong> stalledSince = new ConcurrentHashMap<>();
+    private final AtomicLong resubscriptions = new AtomicLong();
+
+    @Bean
+    public List<Disposable> subscriptions(ReactiveRedisConnectionFactory connectionFactory, ReactiveRedisTemplate<String, String> reactiveRedisTemplate,
+                                          JobStreams jobStreams, JobRecordMapper jobRecordMapper, ReactiveJobConsumer reactiveJobConsumer) {
+        StreamReceiver.StreamReceiverOptions<String, ObjectRecord<String, JobDto>> options = StreamReceiver
+                .StreamReceiverOptions
+                .builder()
+                .pollTimeout(Duration.ofMillis(100))
+                .hashKeySerializer(RedisSerializationContext.SerializationPair.byteArray())
+                .hashValueSerializer(RedisSerializationContext.SerializationPair.byteArray())
+                .objectMapper(jobRecordMapper)
+                .targetType(JobDto.class)
+                .batchSize(1)
+                .build();
+
+        // the shared connections are opened before the receivers start: the blocking template used by the scheduled and dead letter jobs
+        // would otherwise open its own while holding the factory lock, which the event loops that complete it also wait for between polls
+        if (connectionFactory instanceof LettuceConnectionFactory lettuceConnectionFactory) {
+            lettuceConnectionFactory.initConnection();
+        }
+
+        StreamReceiver<String, ObjectRecord<String, JobDto>> receiver = StreamReceiver.create(connectionFactory, options);
+
+        for (String streamKey : jobStreams.getStreamKeys()) {
+            Flux<ObjectRecord<String, JobDto>> jobRecords;
+            if (consumerGroupEnabled) {
+                Consumer consumer = Consumer.from(consumerGroupName, jobStreams.getConsumerName());
+                log.info("subscribing to stream {} as consumer {}", streamKey, consumer);
+
+                jobRecords = createConsumerGroup(reactiveRedisTemplate, streamKey)
+                        .doOnSuccess(ignored -> markPolled(streamKey))
+                        .thenMany(receiver.receive(consumer, StreamOffset.create(streamKey, ReadOffset.lastConsumed())));
+            } else {
+                jobRecords = readCheckpoint(reactiveRedisTemplate, streamKey)
+                        .doOnSuccess(ignored -> markPolled(streamKey))
+                        .flatMapMany(offset -> receiver.receive(StreamOffset.create(streamKey, offset)));
+            }
+
+            subscribe(streamKey, jobRecords, reactiveJobConsumer);
+        }
+
+        return subscriptions;
+    }
+
+    void subscribe(String streamKey, Flux<ObjectRecord<String, JobDto>> jobRecords, ReactiveJobConsumer reactiveJobConsumer) {
+        // set from the first failed read in a row until the stream is read again, 0 otherwise
+        AtomicLong streamStalledSince = stalledSince.computeIfAbsent(streamKey, ignored -> new AtomicLong());
+
+        // records are only requested once the previous job is completed
+        subscriptions.add(jobRecords
+                .doOnNext(ignored -> streamStalledSince.set(0))
+                .concatMap(reactiveJobConsumer::onMessage, 0)
+                // a failed read, e.g. when the connection to Valkey is lost, subscribes again to the stream from its checkpoint
+                // or consumer group, waiting twice as long after each attempt until a record is received
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+                        .maxBackoff(maxBackoff)
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> {
+                            streamStalledSince.compareAndSet(0, System.nanoTime());
+                            resubscriptions.incrementAndGet();
+                            log.warn("subscription to stream {} stopped, resubscribing (attempt {}): {}", streamKey, signal.totalRetriesInARow() + 1, signal.failure().getMessage());
+                        }))
+                .subscribe(
+                        ignored -> {
+                        },
+                        e -> log.error("subscription to stream {} stopped", streamKey, e)
+                ));
+    }
+
+    @Override
+    public boolean isSubscriptionActive() {
+        return !subscriptions.isEmpty() && subscriptions.stream().noneMatch(Disposable::isDisposed);
+    }
+
+    // receivers don't report the reads that returned nothing, so a stream only counts as stalled from a failed read
+    // until a record is received or its checkpoint or consumer group is read again, a job in flight never being a stall
+    @Override
+    public Duration getLongestStall() {
+        long now = System.nanoTime();
+        return stalledSince.values().stream()
+                .mapToLong(AtomicLong::get)
+                .filter(streamStalledSince -> streamStalledSince != 0)
+                .mapToObj(streamStalledSince -> Duration.ofNanos(now - streamStalledSince))
+                .max(Duration::compareTo)
+                .orElse(Duration.ZERO);
+    }
+
+    @Override
+    public long getResubscriptions() {
+        return resubscriptions.get();
+    }
+
+    private void markPolled(String streamKey) {
+        AtomicLong streamStalledSince = stalledSince.get(streamKey);
+        if (nonNull(streamStalledSince)) {
+            streamStalledSince.set(0);
+        }
+    }
+
+    private Mono<ReadOffset> readCheckpoint(ReactiveRedisTemplate<String, String> reactiveRedisTemplate, String streamKey) {
+        return reactiveRedisTemplate.<String, String>opsForHash()
+                .get(checkpointKey, streamKey)
+                .map(ReadOffset::from)
+                .defaultIfEmpty(ReadOffset.from("0-0"));
+    }
+
+    private Mono<Void> createConsumerGroup(ReactiveRedisTemplate<String, String> reactiveRedisTemplate, String streamKey) {
+        return reactiveRedisTemplate.opsForStream()
+                .createGroup(streamKey, ReadOffset.from("0"), consumerGroupName)
+                .onErrorResume(e -> String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")
+                        ? Mono.empty()
+                        : Mono.error(e))
+                .then();
+    }
+}
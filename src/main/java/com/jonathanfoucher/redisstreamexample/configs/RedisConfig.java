@@ -1,47 +1,19 @@
 package com.jonathanfoucher.redisstreamexample.configs;
 
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
-import org.springframework.beans.factory.annotation.Value;
+import com.jonathanfoucher.redisstreamexample.services.JobQueueBackend;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.redis.connection.stream.ObjectRecord;
-import org.springframework.data.redis.connection.stream.StreamOffset;
 import org.springframework.data.redis.stream.StreamListener;
-import org.springframework.data.redis.stream.StreamMessageListenerContainer;
-import org.springframework.data.redis.stream.Subscription;
-
-import java.time.Duration;
 
 @Configuration
+@Profile("!reactive")
 public class RedisConfig {
-    @Value("${redis-stream-example.stream-key}")
-    private String streamKey;
-    private Subscription subscription;
-
+    // the subscriptions are run by the queue backend, Valkey streams polling or the in-memory streams
     @Bean
-    public Subscription subscription(RedisConnectionFactory connectionFactory, StreamListener<String, ObjectRecord<String, JobDto>> streamListener) {
-        StreamMessageListenerContainer.StreamMessageListenerContainerOptions<String, ObjectRecord<String, JobDto>> options = StreamMessageListenerContainer
-                .StreamMessageListenerContainerOptions
-                .builder()
-                .pollTimeout(Duration.ofMillis(100))
-                .targetType(JobDto.class)
-                .batchSize(1)
-                .build();
-
-        StreamMessageListenerContainer<String, ObjectRecord<String, JobDto>> container = StreamMessageListenerContainer
-                .create(connectionFactory, options);
-
-        subscription = container.receive(
-                StreamOffset.fromStart(streamKey),
-                streamListener
-        );
-
-        container.start();
-        return subscription;
-    }
-
-    public boolean isSubscriptionActive() {
-        return subscription != null && subscription.isActive();
+    public JobSubscriptions jobSubscriptions(JobQueueBackend jobQueueBackend, StreamListener<String, ObjectRecord<String, JobDto>> streamListener) {
+        return jobQueueBackend.subscribe(streamListener);
     }
 }
@@ -1,26 +1,105 @@
 package com.jonathanfoucher.redisstreamexample.controllers;
 
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.services.JobAdmission;
+import com.jonathanfoucher.redisstreamexample.services.JobDeadLetters;
+import com.jonathanfoucher.redisstreamexample.services.JobEventBroadcaster;
 import com.jonathanfoucher.redisstreamexample.services.JobProducer;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static org.springframework.util.StringUtils.hasText;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
+
 @RestController
 @RequestMapping("/v1/jobs")
+@Profile("!reactive")
 @RequiredArgsConstructor
 public class JobController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+
     private final JobProducer jobProducer;
+    private final JobDeadLetters jobDeadLetters;
+    private final JobEventBroadcaster jobEventBroadcaster;
+    private final JobAdmission jobAdmission;
 
     @PostMapping("/start")
-    public String startJob(@RequestBody JobDto job) {
+    public String startJob(@RequestBody JobDto job, @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId,
+                           HttpServletRequest request) {
+        jobAdmission.admit(getClientId(clientId, request), 1);
         return jobProducer.produce(job);
     }
 
+    @PostMapping("/start/batch")
+    public List<JobEnqueueResult> startJobs(@RequestBody List<JobDto> jobs, @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId,
+                                            HttpServletRequest request) {
+        jobAdmission.admit(getClientId(clientId, request), jobs.size());
+        return jobProducer.produceAll(jobs);
+    }
+
+    @GetMapping(value = "/events", produces = TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamJobEvents(@RequestParam(value = "job_id", required = false) Long jobId) {
+        return jobEventBroadcaster.subscribe(jobId);
+    }
+
+    @GetMapping("/{job_id}")
+    public JobState getJobState(@PathVariable("job_id") Long jobId) {
+        return jobProducer.getJobState(jobId);
+    }
+
     @GetMapping("/queued")
-    public List<Long> getQueuedJobIds() {
-        return jobProducer.getQueuedJobsIds();
+    public ResponseEntity<List<Long>> getQueuedJobIds(@RequestParam(value = "limit", required = false) Integer limit,
+                                                      @RequestParam(value = "after", required = false) String after) {
+        if (isNull(limit)) {
+            return ResponseEntity.ok(jobProducer.getQueuedJobsIds());
+        }
+
+        QueuedJobIdsPage page = jobProducer.getQueuedJobsIds(after, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (nonNull(page.nextCursor())) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.jobIds());
+    }
+
+    @GetMapping(value = "/queued/stream", produces = APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamQueuedJobIds() {
+        return outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+            jobProducer.forEachQueuedJobIdsPage(jobIds -> {
+                try {
+                    for (Long jobId : jobIds) {
+                        writer.write(jobId + "\n");
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
     }
 
     @DeleteMapping("/{job_id}/queued")
@@ -28,8 +107,31 @@ public class JobController {
         jobProducer.removeJobFromQueue(jobId);
     }
 
+    // every instance listens to the cancellations, so the request is only accepted, the job status telling whether it was cancelled
+    @DeleteMapping("/{job_id}/running")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void cancelRunningJob(@PathVariable("job_id") Long jobId) {
+        jobProducer.cancelRunningJob(jobId);
+    }
+
     @DeleteMapping("/queued")
     public void clearJobQueue() {
         jobProducer.clearJobQueue();
     }
+
+    @GetMapping("/dead-letters")
+    public List<DeadLetterJob> getDeadLetters(@RequestParam(value = "limit", required = false, defaultValue = "100") int limit,
+                                              @RequestParam(value = "after", required = false) String after) {
+        return jobDeadLetters.getDeadLetters(after, limit);
+    }
+
+    @PostMapping("/dead-letters/replay")
+    public List<JobEnqueueResult> replayDeadLetters() {
+        return jobDeadLetters.replayDeadLetters();
+    }
+
+    // clients are told apart by the id they send, or by their address when they send none
+    private String getClientId(String clientId, HttpServletRequest request) {
+        return hasText(clientId) ? clientId : request.getRemoteAddr();
+    }
 }
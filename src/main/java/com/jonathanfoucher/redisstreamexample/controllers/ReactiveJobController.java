@@ -0,0 +1,118 @@
+package com.jonathanfoucher.redisstreamexample.controllers;
+
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.services.JobAdmission;
+import com.jonathanfoucher.redisstreamexample.services.JobDeadLetters;
+import com.jonathanfoucher.redisstreamexample.services.ReactiveJobEventBroadcaster;
+import com.jonathanfoucher.redisstreamexample.services.ReactiveJobProducer;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static org.springframework.util.StringUtils.hasText;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
+
+@RestController
+@RequestMapping("/v1/jobs")
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveJobController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    private final ReactiveJobProducer reactiveJobProducer;
+    private final JobDeadLetters jobDeadLetters;
+    private final ReactiveJobEventBroadcaster jobEventBroadcaster;
+    private final JobAdmission jobAdmission;
+
+    @PostMapping("/start")
+    public Mono<String> startJob(@RequestBody JobDto job, @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId,
+                                 HttpServletRequest request) {
+        jobAdmission.admit(getClientId(clientId, request), 1);
+        return reactiveJobProducer.produce(job);
+    }
+
+    @PostMapping("/start/batch")
+    public Mono<List<JobEnqueueResult>> startJobs(@RequestBody List<JobDto> jobs, @RequestHeader(value = CLIENT_ID_HEADER, required = false) String clientId,
+                                                  HttpServletRequest request) {
+        jobAdmission.admit(getClientId(clientId, request), jobs.size());
+        return reactiveJobProducer.produceAll(jobs);
+    }
+
+    @GetMapping(value = "/events", produces = TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamJobEvents(@RequestParam(value = "job_id", required = false) Long jobId) {
+        return jobEventBroadcaster.subscribe(jobId);
+    }
+
+    @GetMapping("/{job_id}")
+    public Mono<JobState> getJobState(@PathVariable("job_id") Long jobId) {
+        return reactiveJobProducer.getJobState(jobId);
+    }
+
+    @GetMapping("/queued")
+    public Mono<ResponseEntity<List<Long>>> getQueuedJobIds(@RequestParam(value = "limit", required = false) Integer limit,
+                                                            @RequestParam(value = "after", required = false) String after) {
+        if (isNull(limit)) {
+            return reactiveJobProducer.streamQueuedJobsIds()
+                    .collectList()
+                    .map(ResponseEntity::ok);
+        }
+
+        return reactiveJobProducer.getQueuedJobsIds(after, limit)
+                .map(page -> {
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                    if (nonNull(page.nextCursor())) {
+                        response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+                    }
+                    return response.body(page.jobIds());
+                });
+    }
+
+    @GetMapping(value = "/queued/stream", produces = APPLICATION_NDJSON_VALUE)
+    public Flux<Long> streamQueuedJobIds() {
+        return reactiveJobProducer.streamQueuedJobsIds();
+    }
+
+    @DeleteMapping("/{job_id}/queued")
+    public Mono<Void> removeJobFromQueue(@PathVariable("job_id") Long jobId) {
+        return reactiveJobProducer.removeJobFromQueue(jobId);
+    }
+
+    @DeleteMapping("/queued")
+    public Mono<Void> clearJobQueue() {
+        return reactiveJobProducer.clearJobQueue();
+    }
+
+    // dead letters are an operator tool, so the blocking service is shared and kept off the event loop
+    @GetMapping("/dead-letters")
+    public Mono<List<DeadLetterJob>> getDeadLetters(@RequestParam(value = "limit", required = false, defaultValue = "100") int limit,
+                                                    @RequestParam(value = "after", required = false) String after) {
+        return Mono.fromCallable(() -> jobDeadLetters.getDeadLetters(after, limit))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @PostMapping("/dead-letters/replay")
+    public Mono<List<JobEnqueueResult>> replayDeadLetters() {
+        return Mono.fromCallable(jobDeadLetters::replayDeadLetters)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // clients are told apart by the id they send, or by their address when they send none
+    private String getClientId(String clientId, HttpServletRequest request) {
+        return hasText(clientId) ? clientId : request.getRemoteAddr();
+    }
+}
@@ -1,7 +1,13 @@
 package com.jonathanfoucher.redisstreamexample.controllers.advices;
 
+import com.jonathanfoucher.redisstreamexample.errors.InvalidCursorException;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidJobScheduleException;
 import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotRunningException;
 import com.jonathanfoucher.redisstreamexample.errors.RemovingRunningJobException;
+import com.jonathanfoucher.redisstreamexample.errors.TooManyJobsException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -9,9 +15,28 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 
 @ControllerAdvice
 public class GlobalControllerExceptionHandler {
-    @ExceptionHandler({JobAlreadyQueuedException.class, RemovingRunningJobException.class, JobAlreadyQueuedException.class})
+    @ExceptionHandler({JobAlreadyQueuedException.class, RemovingRunningJobException.class, JobNotRunningException.class})
     public ResponseEntity<String> handleConflict(Exception exception) {
         return ResponseEntity.status(HttpStatus.CONFLICT)
                 .body(exception.getMessage());
     }
+
+    @ExceptionHandler(JobNotFoundException.class)
+    public ResponseEntity<String> handleNotFound(Exception exception) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(exception.getMessage());
+    }
+
+    @ExceptionHandler(TooManyJobsException.class)
+    public ResponseEntity<String> handleTooManyRequests(TooManyJobsException exception) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()))
+                .body(exception.getMessage());
+    }
+
+    @ExceptionHandler({InvalidCursorException.class, InvalidJobScheduleException.class})
+    public ResponseEntity<String> handleBadRequest(Exception exception) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(exception.getMessage());
+    }
 }
@@ -0,0 +1,4 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+public record DeadLetterJob(String recordId, String stream, JobDto job, Long attempts, String error) {
+}
@@ -2,12 +2,23 @@ package com.jonathanfoucher.redisstreamexample.data;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.springframework.data.annotation.Transient;
+
+import java.time.Duration;
+import java.time.Instant;
 
 @Getter
 @Setter
 public class JobDto {
     private Long id;
     private String name;
+    private String partitionKey;
+    private JobPriority priority;
+    // submission options only, they are not stored in the job record
+    @Transient
+    private Instant runAt;
+    @Transient
+    private Duration delay;
 
     @Override
     public String toString() {
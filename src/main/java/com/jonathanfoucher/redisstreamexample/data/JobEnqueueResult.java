@@ -0,0 +1,4 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+public record JobEnqueueResult(Long jobId, String recordId, JobEnqueueStatus status) {
+}
@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+public enum JobEnqueueStatus {
+    QUEUED,
+    DELAYED,
+    ALREADY_QUEUED
+}
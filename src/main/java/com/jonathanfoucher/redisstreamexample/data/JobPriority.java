@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+public enum JobPriority {
+    HIGH,
+    NORMAL,
+    LOW
+}
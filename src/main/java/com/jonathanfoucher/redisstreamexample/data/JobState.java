@@ -0,0 +1,31 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+import java.time.Instant;
+
+// a state only holds what changed, it is merged into the previous one unless it has a queued time, i.e. the job was submitted again
+public record JobState(Long jobId, JobStatus status, Instant queuedAt, Instant startedAt, Instant finishedAt, Long failedAttempts, String error) {
+    public static JobState queued(Long jobId) {
+        return new JobState(jobId, JobStatus.QUEUED, Instant.now(), null, null, null, null);
+    }
+
+    public static JobState running(Long jobId) {
+        return new JobState(jobId, JobStatus.RUNNING, null, Instant.now(), null, null, null);
+    }
+
+    public static JobState succeeded(Long jobId) {
+        return new JobState(jobId, JobStatus.SUCCEEDED, null, null, Instant.now(), null, null);
+    }
+
+    // a job failing before its last attempt is queued again for a retry
+    public static JobState retried(Long jobId, long failedAttempts, String error) {
+        return new JobState(jobId, JobStatus.QUEUED, null, null, null, failedAttempts, error);
+    }
+
+    public static JobState failed(Long jobId, String error) {
+        return new JobState(jobId, JobStatus.FAILED, null, null, Instant.now(), null, error);
+    }
+
+    public static JobState cancelled(Long jobId) {
+        return new JobState(jobId, JobStatus.CANCELLED, null, null, Instant.now(), null, null);
+    }
+}
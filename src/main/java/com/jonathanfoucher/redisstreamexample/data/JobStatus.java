@@ -0,0 +1,9 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED,
+    CANCELLED
+}
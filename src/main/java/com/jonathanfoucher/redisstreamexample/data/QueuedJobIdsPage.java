@@ -0,0 +1,6 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+import java.util.List;
+
+public record QueuedJobIdsPage(List<Long> jobIds, String nextCursor) {
+}
@@ -0,0 +1,47 @@
+package com.jonathanfoucher.redisstreamexample.data;
+
+import com.jonathanfoucher.redisstreamexample.errors.InvalidCursorException;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+public record QueuedJobsCursor(int streamIndex, String recordId) {
+    private static final String SEPARATOR = ":";
+
+    public static QueuedJobsCursor parse(String cursor, int streamCount) {
+        int separatorIndex = cursor.indexOf(SEPARATOR);
+        if (separatorIndex < 0) {
+            throw new InvalidCursorException(cursor);
+        }
+
+        int streamIndex;
+        try {
+            streamIndex = Integer.parseInt(cursor.substring(0, separatorIndex));
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        if (streamIndex < 0 || streamIndex >= streamCount) {
+            throw new InvalidCursorException(cursor);
+        }
+
+        String recordId = cursor.substring(separatorIndex + 1);
+        if (!isRecordId(recordId)) {
+            throw new InvalidCursorException(cursor);
+        }
+
+        return new QueuedJobsCursor(streamIndex, recordId);
+    }
+
+    // RecordId.of only looks for the separator, its timestamp and sequence being parsed on access
+    public static boolean isRecordId(String recordId) {
+        try {
+            RecordId parsedRecordId = RecordId.of(recordId);
+            return !parsedRecordId.shouldBeAutoGenerated() && parsedRecordId.getTimestamp() >= 0 && parsedRecordId.getSequence() >= 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return streamIndex + SEPARATOR + recordId;
+    }
+}
@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.errors;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String cursor) {
+        super("cursor " + cursor + " is not valid");
+    }
+}
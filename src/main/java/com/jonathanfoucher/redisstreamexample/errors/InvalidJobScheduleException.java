@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.errors;
+
+public class InvalidJobScheduleException extends RuntimeException {
+    public InvalidJobScheduleException(Long jobId) {
+        super("job with id " + jobId + " must have either a run_at or a non negative delay");
+    }
+}
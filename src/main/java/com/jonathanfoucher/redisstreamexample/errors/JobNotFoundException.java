@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.errors;
+
+public class JobNotFoundException extends RuntimeException {
+    public JobNotFoundException(Long jobId) {
+        super("job with id " + jobId + " is not known or its status expired");
+    }
+}
@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.errors;
+
+public class JobNotRunningException extends RuntimeException {
+    public JobNotRunningException(Long jobId) {
+        super("job with id " + jobId + " is not running and can't be cancelled");
+    }
+}
@@ -0,0 +1,7 @@
+package com.jonathanfoucher.redisstreamexample.errors;
+
+public class JobProcessingException extends RuntimeException {
+    public JobProcessingException(Long jobId, Throwable cause) {
+        super("job with id " + jobId + " failed: " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,20 @@
+package com.jonathanfoucher.redisstreamexample.errors;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class TooManyJobsException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    // Retry-After only holds whole seconds, rounded up so clients never retry too early
+    public TooManyJobsException(String reason, Duration retryAfter) {
+        this(reason, Math.max((retryAfter.toMillis() + 999) / 1000, 1));
+    }
+
+    private TooManyJobsException(String reason, long retryAfterSeconds) {
+        super(reason + ", retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,50 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.PROMOTE_DELAYED_JOBS;
+import static java.util.Objects.nonNull;
+
+@Service
+@Profile("!memory")
+@RequiredArgsConstructor
+@Slf4j
+public class DelayedJobs {
+    private final RedisTemplate<String, String> redisTemplate;
+    private final JobStreams jobStreams;
+
+    @Value("${redis-stream-example.index-key}")
+    private String indexKey;
+    @Value("${redis-stream-example.delayed.key:job_queue_delayed}")
+    private String delayedKey;
+    @Value("${redis-stream-example.delayed.jobs-key:job_queue_delayed_jobs}")
+    private String delayedJobsKey;
+    @Value("${redis-stream-example.delayed.promote-batch-size:100}")
+    private int promoteBatchSize;
+
+    // delayed jobs are sorted by due time, so each run only reads the ones that are due
+    // and adds them at the end of their stream, where they never hold back the jobs already queued
+    @Scheduled(fixedDelayString = "${redis-stream-example.delayed.promote-interval:1s}")
+    public void promoteDueJobs() {
+        List<String> keys = new ArrayList<>(List.of(delayedKey, delayedJobsKey, indexKey, jobStreams.getStreamKey(JobPriority.NORMAL, 0)));
+        keys.addAll(jobStreams.getStreamKeys());
+
+        Long promoted;
+        do {
+            promoted = redisTemplate.execute(PROMOTE_DELAYED_JOBS, keys, String.valueOf(promoteBatchSize));
+            if (nonNull(promoted) && promoted > 0) {
+                log.info("{} delayed jobs were added to the queue", promoted);
+            }
+        } while (nonNull(promoted) && promoted >= promoteBatchSize);
+    }
+}
@@ -0,0 +1,538 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.streams.HandOffStreamListener;
+import com.jonathanfoucher.redisstreamexample.configs.JobSubscriptions;
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidCursorException;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.stream.StreamListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+// keeps the queue in the JVM, for single node deployments and test runs without Valkey:
+// each stream is a lock-free ordered log and every job goes through the same dedup index as with Valkey,
+// while a record being processed is claimed by its consumer, so it can't be removed until it is done
+@Service
+@Profile("memory")
+@RequiredArgsConstructor
+@Slf4j
+public class InMemoryJobQueueBackend implements JobQueueBackend {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int REMOVED = 2;
+
+    private final JobStreams jobStreams;
+    private final JobRecordMapper jobRecordMapper;
+    private final JobRetries jobRetries;
+    private final JobStatuses jobStatuses;
+
+    @Value("${redis-stream-example.executor.virtual-threads:false}")
+    private boolean virtualThreads;
+    @Value("${redis-stream-example.polling.max-poll-timeout:5s}")
+    private Duration maxPollTimeout;
+
+    // a single sequence orders the records of every stream, the record ids being built from it
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, ConcurrentNavigableMap<Long, Entry>> streams = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> delayed = new ConcurrentSkipListSet<>(Comparator.comparingLong(Entry::getDueAt).thenComparingLong(Entry::getSequence));
+    private final Map<Long, Entry> index = new ConcurrentHashMap<>();
+    private final Map<Long, Long> attempts = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, DeadLetterJob> deadLetters = new ConcurrentSkipListMap<>();
+    private final Map<String, Semaphore> wakeUps = new ConcurrentHashMap<>();
+    private final List<StreamPoller> pollers = new CopyOnWriteArrayList<>();
+    private final Map<Long, ExpiringState> statuses = new ConcurrentHashMap<>();
+    private final AtomicLong nextStatusesPurge = new AtomicLong();
+    private final Map<String, List<Consumer<String>>> eventListeners = new ConcurrentHashMap<>();
+
+    @Override
+    public String append(String streamKey, JobDto job) {
+        jobRecordMapper.checkSchedule(job);
+        if (jobRecordMapper.isDelayed(job)) {
+            long dueAt = nonNull(job.getRunAt()) ? job.getRunAt().toEpochMilli() : System.currentTimeMillis() + job.getDelay().toMillis();
+            Entry entry = new Entry(streamKey, sequence.incrementAndGet(), dueAt, ObjectRecord.create(streamKey, copyOf(job)));
+            if (nonNull(index.putIfAbsent(job.getId(), entry))) {
+                return null;
+            }
+            saveStatuses(List.of(JobState.queued(job.getId())));
+            addDelayed(entry);
+            return String.valueOf(dueAt);
+        }
+
+        Entry entry = newEntry(streamKey, copyOf(job));
+        if (nonNull(index.putIfAbsent(job.getId(), entry))) {
+            return null;
+        }
+        // the queued status is saved before the job is visible to its poller, which may start it right away
+        saveStatuses(List.of(JobState.queued(job.getId())));
+        addToStream(entry);
+        return entry.getJobRecord().getId().getValue();
+    }
+
+    @Override
+    public List<String> appendAll(String streamKey, List<JobDto> jobs) {
+        List<String> recordIds = new ArrayList<>(jobs.size());
+        for (JobDto job : jobs) {
+            recordIds.add(append(streamKey, job));
+        }
+        return recordIds;
+    }
+
+    @Override
+    public List<ObjectRecord<String, JobDto>> range(String streamKey, String afterRecordId, Limit limit) {
+        ConcurrentNavigableMap<Long, Entry> stream = streams.get(streamKey);
+        if (isNull(stream)) {
+            return List.of();
+        }
+
+        ConcurrentNavigableMap<Long, Entry> entries = isNull(afterRecordId) ? stream : stream.tailMap(getSequence(afterRecordId), false);
+        List<ObjectRecord<String, JobDto>> jobRecords = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!limit.isUnlimited() && jobRecords.size() >= limit.getCount()) {
+                break;
+            }
+            if (entry.getState().get() != REMOVED) {
+                jobRecords.add(entry.getJobRecord());
+            }
+        }
+        return jobRecords;
+    }
+
+    @Override
+    public long remove(Long jobId) {
+        while (true) {
+            Entry entry = index.get(jobId);
+            if (isNull(entry)) {
+                return JOB_NOT_QUEUED;
+            }
+            if (entry.getState().compareAndSet(QUEUED, REMOVED)) {
+                unlink(entry);
+                return JOB_REMOVED;
+            }
+            if (entry.getState().get() == RUNNING) {
+                return JOB_RUNNING;
+            }
+            // the entry is being replaced, e.g. by a delayed job becoming due
+            Thread.onSpinWait();
+        }
+    }
+
+    // records are already claimed by their poller when delivered, so a dispatched job can't be removed until it is done
+    @Override
+    public boolean start(ObjectRecord<String, JobDto> jobRecord) {
+        return true;
+    }
+
+    @Override
+    public void delete(ObjectRecord<String, JobDto> jobRecord, RecordId checkpoint) {
+        Entry entry = removeFromStream(jobRecord);
+        if (nonNull(entry) && index.remove(jobRecord.getValue().getId(), entry)) {
+            attempts.remove(jobRecord.getValue().getId());
+        }
+    }
+
+    @Override
+    public long retry(ObjectRecord<String, JobDto> jobRecord, Throwable error, RecordId checkpoint) {
+        Long jobId = jobRecord.getValue().getId();
+        Entry entry = removeFromStream(jobRecord);
+        if (isNull(entry) || index.get(jobId) != entry) {
+            return JOB_NOT_QUEUED;
+        }
+
+        long failures = attempts.merge(jobId, 1L, Long::sum);
+        if (failures >= jobRetries.getMaxAttempts()) {
+            index.remove(jobId, entry);
+            attempts.remove(jobId);
+            addDeadLetter(entry.getStreamKey(), jobRecord.getValue(), failures, jobRetries.getError(error));
+            return JobRetries.JOB_DEAD_LETTERED;
+        }
+
+        // the job leaves its stream while waiting, so it doesn't hold back the jobs behind it
+        long dueAt = System.currentTimeMillis() + jobRetries.getDelay(failures).toMillis();
+        Entry retried = new Entry(entry.getStreamKey(), sequence.incrementAndGet(), dueAt, ObjectRecord.create(entry.getStreamKey(), jobRecord.getValue()));
+        if (!index.replace(jobId, entry, retried)) {
+            return JOB_NOT_QUEUED;
+        }
+        addDelayed(retried);
+        return failures;
+    }
+
+    // running jobs are kept like with Valkey, only the queued ones being dropped along with their status
+    @Override
+    public long trim() {
+        long trimmed = 0;
+        for (Entry entry : index.values()) {
+            if (entry.getState().compareAndSet(QUEUED, REMOVED)) {
+                unlink(entry);
+                Long jobId = entry.getJobRecord().getValue().getId();
+                // the job may have been queued again meanwhile, along with a new status
+                if (!index.containsKey(jobId)) {
+                    statuses.remove(jobId);
+                }
+                trimmed++;
+            }
+        }
+        return trimmed;
+    }
+
+    @Override
+    public List<DeadLetterJob> rangeDeadLetters(String afterRecordId, Limit limit) {
+        ConcurrentNavigableMap<Long, DeadLetterJob> entries = isNull(afterRecordId) ? deadLetters : deadLetters.tailMap(getSequence(afterRecordId), false);
+        return entries.values().stream()
+                .limit(limit.isUnlimited() ? Long.MAX_VALUE : limit.getCount())
+                .toList();
+    }
+
+    @Override
+    public void deleteDeadLetters(List<String> recordIds) {
+        recordIds.forEach(recordId -> deadLetters.remove(getSequence(recordId)));
+    }
+
+    @Override
+    public List<StreamStats> getStreamStats(List<String> streamKeys) {
+        List<StreamStats> streamStats = new ArrayList<>();
+        for (String streamKey : streamKeys) {
+            ConcurrentNavigableMap<Long, Entry> stream = streams.getOrDefault(streamKey, new ConcurrentSkipListMap<>());
+            Map.Entry<Long, Entry> oldest = stream.firstEntry();
+            streamStats.add(new StreamStats(streamKey, stream.size(), isNull(oldest) ? null : oldest.getValue().getJobRecord().getId()));
+        }
+        return streamStats;
+    }
+
+    @Override
+    public void saveStatuses(List<JobState> jobStates) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + jobStatuses.getTtl().toMillis();
+        for (JobState jobState : jobStates) {
+            statuses.compute(jobState.jobId(), (jobId, previous) -> {
+                JobState mergedState = jobStatuses.merge(isNull(previous) || previous.expiresAt() <= now ? null : previous.jobState(), jobState);
+                return isNull(mergedState) ? null : new ExpiringState(mergedState, expiresAt);
+            });
+        }
+
+        // expired statuses are dropped by the lookups, and by a sweep at most once per time to live for the ones never looked up
+        long nextPurge = nextStatusesPurge.get();
+        if (now >= nextPurge && nextStatusesPurge.compareAndSet(nextPurge, expiresAt)) {
+            statuses.values().removeIf(expiringState -> expiringState.expiresAt() <= now);
+        }
+    }
+
+    @Override
+    public JobState getStatus(Long jobId) {
+        ExpiringState expiringState = statuses.get(jobId);
+        if (isNull(expiringState)) {
+            return null;
+        }
+        if (expiringState.expiresAt() <= System.currentTimeMillis()) {
+            statuses.remove(jobId, expiringState);
+            return null;
+        }
+        return expiringState.jobState();
+    }
+
+    @Override
+    public void deleteStatus(Long jobId) {
+        statuses.remove(jobId);
+    }
+
+    @Override
+    public void publishEvent(String channel, String event) {
+        eventListeners.getOrDefault(channel, List.of()).forEach(listener -> listener.accept(event));
+    }
+
+    @Override
+    public void subscribeEvents(String channel, Consumer<String> listener) {
+        eventListeners.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    // a single poller per partition runs the jobs in order, like a subscription without consumer group
+    @Override
+    public JobSubscriptions subscribe(StreamListener<String, ObjectRecord<String, JobDto>> listener) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("memory-stream-");
+        executor.setVirtualThreads(virtualThreads);
+
+        for (int partition = 0; partition < jobStreams.getPartitions(); partition++) {
+            List<String> streamKeys = new ArrayList<>();
+            List<Integer> weights = new ArrayList<>();
+            for (JobPriority priority : JobPriority.values()) {
+                streamKeys.add(jobStreams.getStreamKey(priority, partition));
+                weights.add(jobStreams.getWeight(priority));
+            }
+
+            StreamPoller poller = new StreamPoller(streamKeys, weights, listener);
+            streamKeys.forEach(streamKey -> wakeUps.put(streamKey, poller.wakeUp));
+            pollers.add(poller);
+            log.info("subscribing to in-memory streams {}", streamKeys);
+            executor.execute(poller);
+        }
+
+        return new JobSubscriptions() {
+            @Override
+            public boolean isSubscriptionActive() {
+                return !pollers.isEmpty() && pollers.stream().allMatch(poller -> poller.active);
+            }
+
+            @Override
+            public Duration getLongestStall() {
+                // like with Valkey, a job in flight is not a stall
+                return pollers.stream()
+                        .map(poller -> poller.consuming ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - poller.lastProgress))
+                        .max(Duration::compareTo)
+                        .orElse(Duration.ZERO);
+            }
+
+            @Override
+            public long getResubscriptions() {
+                return 0;
+            }
+        };
+    }
+
+    @PreDestroy
+    void cancelSubscriptions() {
+        pollers.forEach(StreamPoller::cancel);
+    }
+
+    // unlike the approximate MAXLEN of Valkey, the oldest dead letters are dropped as soon as the max length is exceeded
+    private void addDeadLetter(String streamKey, JobDto job, long failures, String error) {
+        long deadLetterSequence = sequence.incrementAndGet();
+        String recordId = RecordId.of(System.currentTimeMillis(), deadLetterSequence).getValue();
+        deadLetters.put(deadLetterSequence, new DeadLetterJob(recordId, streamKey, job, failures, error));
+
+        long maxLength = jobRetries.getDeadLetterMaxLength();
+        while (maxLength > 0 && deadLetters.size() > maxLength) {
+            deadLetters.pollFirstEntry();
+        }
+    }
+
+    private Entry newEntry(String streamKey, JobDto job) {
+        long recordSequence = sequence.incrementAndGet();
+        ObjectRecord<String, JobDto> jobRecord = StreamRecords.newRecord()
+                .in(streamKey)
+                .withId(RecordId.of(System.currentTimeMillis(), recordSequence))
+                .ofObject(job);
+        return new Entry(streamKey, recordSequence, 0, jobRecord);
+    }
+
+    // an entry can be removed from the index before it is linked, in which case it is unlinked right away
+    private void addToStream(Entry entry) {
+        streams.computeIfAbsent(entry.getStreamKey(), streamKey -> new ConcurrentSkipListMap<>()).put(entry.getSequence(), entry);
+        if (entry.getState().get() == REMOVED) {
+            unlink(entry);
+            return;
+        }
+
+        Semaphore wakeUp = wakeUps.get(entry.getStreamKey());
+        if (nonNull(wakeUp) && wakeUp.availablePermits() == 0) {
+            wakeUp.release();
+        }
+    }
+
+    private void addDelayed(Entry entry) {
+        delayed.add(entry);
+        if (entry.getState().get() == REMOVED) {
+            unlink(entry);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.isDelayed()) {
+            delayed.remove(entry);
+        } else {
+            ConcurrentNavigableMap<Long, Entry> stream = streams.get(entry.getStreamKey());
+            if (nonNull(stream)) {
+                stream.remove(entry.getSequence(), entry);
+            }
+        }
+
+        Long jobId = entry.getJobRecord().getValue().getId();
+        if (index.remove(jobId, entry)) {
+            attempts.remove(jobId);
+        }
+    }
+
+    private Entry removeFromStream(ObjectRecord<String, JobDto> jobRecord) {
+        ConcurrentNavigableMap<Long, Entry> stream = streams.get(jobRecord.getStream());
+        return isNull(stream) ? null : stream.remove(jobRecord.getId().getSequence());
+    }
+
+    // the due jobs are moved at the end of their stream, each one by a single poller
+    private void promoteDueJobs() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : delayed) {
+            if (entry.getDueAt() > now) {
+                return;
+            }
+            if (!delayed.remove(entry) || !entry.getState().compareAndSet(QUEUED, REMOVED)) {
+                continue;
+            }
+
+            Entry promoted = newEntry(entry.getStreamKey(), entry.getJobRecord().getValue());
+            if (index.replace(entry.getJobRecord().getValue().getId(), entry, promoted)) {
+                addToStream(promoted);
+            }
+        }
+    }
+
+    private long getTimeUntilNextDueJob() {
+        Iterator<Entry> entries = delayed.iterator();
+        return entries.hasNext() ? Math.max(entries.next().getDueAt() - System.currentTimeMillis(), 1) : Long.MAX_VALUE;
+    }
+
+    private long getSequence(String recordId) {
+        try {
+            return RecordId.of(recordId).getSequence();
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(recordId);
+        }
+    }
+
+    // the submission options are not part of the record, like with Valkey
+    private JobDto copyOf(JobDto job) {
+        JobDto copy = new JobDto();
+        copy.setId(job.getId());
+        copy.setName(job.getName());
+        copy.setPartitionKey(job.getPartitionKey());
+        copy.setPriority(job.getPriority());
+        return copy;
+    }
+
+    private class StreamPoller implements Runnable {
+        private final List<String> streamKeys;
+        private final List<Integer> weights;
+        private final StreamListener<String, ObjectRecord<String, JobDto>> listener;
+        private final Semaphore wakeUp = new Semaphore(0);
+        private volatile boolean active = true;
+        private volatile boolean consuming;
+        private volatile long lastProgress = System.nanoTime();
+
+        private StreamPoller(List<String> streamKeys, List<Integer> weights, StreamListener<String, ObjectRecord<String, JobDto>> listener) {
+            this.streamKeys = streamKeys;
+            this.weights = weights;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active && !Thread.currentThread().isInterrupted()) {
+                    promoteDueJobs();
+
+                    // each lane gets a share of the jobs proportional to its weight while they all have a backlog
+                    int processed = 0;
+                    for (int lane = 0; lane < streamKeys.size() && active; lane++) {
+                        processed += process(streamKeys.get(lane), weights.get(lane));
+                    }
+
+                    if (processed == 0) {
+                        wakeUp.tryAcquire(Math.min(maxPollTimeout.toMillis(), getTimeUntilNextDueJob()), TimeUnit.MILLISECONDS);
+                        wakeUp.drainPermits();
+                    }
+                    lastProgress = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active = false;
+            }
+        }
+
+        private int process(String streamKey, int count) {
+            ConcurrentNavigableMap<Long, Entry> stream = streams.get(streamKey);
+            if (isNull(stream)) {
+                return 0;
+            }
+
+            int processed = 0;
+            for (Entry entry : stream.values()) {
+                if (processed >= count || !active) {
+                    break;
+                }
+                if (!entry.getState().compareAndSet(QUEUED, RUNNING)) {
+                    continue;
+                }
+
+                consuming = true;
+                try {
+                    if (!handOff(entry.getJobRecord())) {
+                        // a job turned down while shutting down is left in the queue
+                        entry.getState().compareAndSet(RUNNING, QUEUED);
+                        active = false;
+                        break;
+                    }
+                } catch (RuntimeException e) {
+                    log.error("processing record {} of in-memory stream {} failed, dropping it", entry.getJobRecord().getId(), streamKey, e);
+                    delete(entry.getJobRecord(), null);
+                } finally {
+                    consuming = false;
+                }
+                lastProgress = System.nanoTime();
+                processed++;
+            }
+            return processed;
+        }
+
+        private boolean handOff(ObjectRecord<String, JobDto> jobRecord) {
+            if (listener instanceof HandOffStreamListener<String, ObjectRecord<String, JobDto>> handOffListener) {
+                return handOffListener.handOff(jobRecord);
+            }
+            listener.onMessage(jobRecord);
+            return true;
+        }
+
+        private void cancel() {
+            active = false;
+            wakeUp.release();
+        }
+    }
+
+    private record ExpiringState(JobState jobState, long expiresAt) {
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final String streamKey;
+        private final long sequence;
+        // set for delayed jobs only
+        private final long dueAt;
+        private final ObjectRecord<String, JobDto> jobRecord;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        // delayed jobs get their record id once due, when they are added to their stream
+        private boolean isDelayed() {
+            return jobRecord.getId().shouldBeAutoGenerated();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.errors.TooManyJobsException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// admission reads the queue depth and lag cached by the metrics, so refusing or accepting jobs never costs a round trip
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobAdmission {
+    // the clients beyond the limit share a bucket, so the buckets stay bounded whatever the client ids sent
+    private static final String OTHER_CLIENTS = "";
+
+    private final JobMetrics jobMetrics;
+
+    @Value("${redis-stream-example.admission.enabled:false}")
+    private boolean enabled;
+    @Value("${redis-stream-example.admission.queue-depth.high-watermark:100000}")
+    private long queueDepthHighWatermark;
+    @Value("${redis-stream-example.admission.queue-depth.low-watermark:80000}")
+    private long queueDepthLowWatermark;
+    @Value("${redis-stream-example.admission.lag.high-watermark:10m}")
+    private Duration lagHighWatermark;
+    @Value("${redis-stream-example.admission.lag.low-watermark:5m}")
+    private Duration lagLowWatermark;
+    @Value("${redis-stream-example.admission.retry-after:5s}")
+    private Duration saturatedRetryAfter;
+    @Value("${redis-stream-example.admission.client-rate:0}")
+    private double clientRate;
+    @Value("${redis-stream-example.admission.client-burst:100}")
+    private int clientBurst;
+    @Value("${redis-stream-example.admission.max-clients:10000}")
+    private int maxClients;
+
+    private final AtomicBoolean saturated = new AtomicBoolean();
+    private final Map<String, TokenBucket> tokenBuckets = new ConcurrentHashMap<>();
+
+    public void admit(String clientId, int jobCount) {
+        if (!enabled || jobCount <= 0) {
+            return;
+        }
+
+        if (isSaturated()) {
+            jobMetrics.recordRejected(JobMetrics.SATURATED, jobCount);
+            throw new TooManyJobsException("the queue is saturated", saturatedRetryAfter);
+        }
+
+        if (clientRate > 0) {
+            String bucketKey = tokenBuckets.size() < maxClients || tokenBuckets.containsKey(clientId) ? clientId : OTHER_CLIENTS;
+            long waitNanos = tokenBuckets.computeIfAbsent(bucketKey, key -> new TokenBucket(clientBurst, System.nanoTime()))
+                    .tryAcquire(jobCount, System.nanoTime(), clientRate, clientBurst);
+            if (waitNanos > 0) {
+                jobMetrics.recordRejected(JobMetrics.RATE_LIMITED, jobCount);
+                throw new TooManyJobsException("client " + clientId + " exceeded its rate of " + clientRate + " jobs per second", Duration.ofNanos(waitNanos));
+            }
+        }
+    }
+
+    // a bucket back to full behaves like a new one, so it can be dropped
+    @Scheduled(fixedDelayString = "${redis-stream-example.admission.sweep-interval:1m}")
+    public void sweepTokenBuckets() {
+        long now = System.nanoTime();
+        tokenBuckets.values().removeIf(tokenBucket -> tokenBucket.isFull(now, clientRate, clientBurst));
+    }
+
+    // the queue is saturated from the time a high watermark is reached until both are back under their low watermarks,
+    // so admission does not flap around a single threshold
+    private boolean isSaturated() {
+        long queueDepth = jobMetrics.getQueueDepth();
+        Duration lag = jobMetrics.getQueueLag();
+
+        if (saturated.get()) {
+            if (queueDepth <= queueDepthLowWatermark && lag.compareTo(lagLowWatermark) <= 0 && saturated.compareAndSet(true, false)) {
+                log.info("queue back under its low watermarks with {} jobs and a lag of {}, accepting jobs again", queueDepth, lag);
+            }
+        } else if ((queueDepth >= queueDepthHighWatermark || lag.compareTo(lagHighWatermark) >= 0) && saturated.compareAndSet(false, true)) {
+            log.warn("queue saturated with {} jobs and a lag of {}, refusing jobs until back under the low watermarks", queueDepth, lag);
+        }
+        return saturated.get();
+    }
+
+    private static class TokenBucket {
+        private double tokens;
+        private long refilledAt;
+
+        private TokenBucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+
+        // a batch larger than the burst is admitted once the bucket is full and leaves it in debt,
+        // so it is paid back by the following calls rather than never admitted
+        private synchronized long tryAcquire(int count, long now, double rate, int burst) {
+            refill(now, rate, burst);
+            double required = Math.min(count, burst);
+            if (tokens >= required) {
+                tokens -= count;
+                return 0;
+            }
+            return (long) Math.ceil((required - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+        private synchronized boolean isFull(long now, double rate, int burst) {
+            refill(now, rate, burst);
+            return tokens >= burst;
+        }
+
+        private void refill(long now, double rate, int burst) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.isNull;
+
+// a cancellation is published to every instance, the one running the job interrupting the thread processing it
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobCancellations {
+    private final JobQueueBackend jobQueueBackend;
+
+    @Value("${redis-stream-example.cancellation.channel:job_cancellations}")
+    private String channel;
+    private final Map<Long, RunningJob> runningJobs = new ConcurrentHashMap<>();
+
+    // only the instances consuming jobs can run them, so the consumer subscribes when it starts
+    public void subscribeCancellations() {
+        jobQueueBackend.subscribeEvents(channel, this::onMessage);
+    }
+
+    public void requestCancel(Long jobId) {
+        jobQueueBackend.publishEvent(channel, String.valueOf(jobId));
+    }
+
+    // the job can be cancelled until it is finished, by interrupting the current thread
+    public void start(Long jobId) {
+        runningJobs.put(jobId, new RunningJob(Thread.currentThread(), new AtomicBoolean()));
+    }
+
+    // returns whether the job was cancelled, the interruption being cleared so it doesn't reach the next calls of the thread
+    public boolean finish(Long jobId) {
+        RunningJob runningJob = runningJobs.remove(jobId);
+        if (isNull(runningJob) || !runningJob.cancelled().get()) {
+            return false;
+        }
+        Thread.interrupted();
+        return true;
+    }
+
+    // the job is interrupted while its entry is locked, so never after it is finished
+    private void onMessage(String message) {
+        Long jobId;
+        try {
+            jobId = Long.valueOf(message);
+        } catch (NumberFormatException e) {
+            log.warn("invalid job cancellation {}", message);
+            return;
+        }
+
+        runningJobs.computeIfPresent(jobId, (id, runningJob) -> {
+            if (runningJob.cancelled().compareAndSet(false, true)) {
+                log.info("cancelling job {}", id);
+                runningJob.thread().interrupt();
+            }
+            return runningJob;
+        });
+    }
+
+    private record RunningJob(Thread thread, AtomicBoolean cancelled) {
+    }
+}
@@ -1,40 +1,225 @@
 package com.jonathanfoucher.redisstreamexample.services;
 
+import com.jonathanfoucher.redisstreamexample.common.executors.KeyedSerialExecutor;
+import com.jonathanfoucher.redisstreamexample.common.streams.CompletionWatermark;
+import com.jonathanfoucher.redisstreamexample.common.streams.HandOffStreamListener;
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.errors.JobProcessingException;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.redis.connection.stream.ObjectRecord;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.stream.StreamListener;
+import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
 @Service
+@Profile("!reactive")
 @RequiredArgsConstructor
 @Slf4j
-public class JobConsumer implements StreamListener<String, ObjectRecord<String, JobDto>> {
-    private final RedisTemplate<String, String> redisTemplate;
+public class JobConsumer implements HandOffStreamListener<String, ObjectRecord<String, JobDto>> {
+    private static final Duration DISPATCHER_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final JobQueueBackend jobQueueBackend;
+    private final JobRetries jobRetries;
+    private final JobMetrics jobMetrics;
+    private final JobEventBroadcaster jobEventBroadcaster;
+    private final QueuedJobIdsCache queuedJobIdsCache;
+    private final JobCancellations jobCancellations;
+
+    @Value("${redis-stream-example.job-duration-ms:10000}")
+    private long jobDurationMs;
+    @Value("${redis-stream-example.executor.max-in-flight-jobs:0}")
+    private int maxInFlightJobs;
+    @Value("${redis-stream-example.executor.virtual-threads:false}")
+    private boolean virtualThreads;
+    @Value("${redis-stream-example.executor.dispatcher.enabled:false}")
+    private boolean dispatcherEnabled;
+    @Value("${redis-stream-example.executor.dispatcher.parallelism:4}")
+    private int dispatcherParallelism;
+    @Value("${redis-stream-example.executor.dispatcher.stripes:64}")
+    private int dispatcherStripes;
+    @Value("${redis-stream-example.executor.dispatcher.max-pending-jobs:256}")
+    private int dispatcherMaxPendingJobs;
+    private Semaphore inFlightJobs;
+    private KeyedSerialExecutor dispatcher;
+    private final Map<String, CompletionWatermark> watermarks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void initInFlightJobs() {
+        inFlightJobs = maxInFlightJobs > 0 ? new Semaphore(maxInFlightJobs, true) : null;
+    }
+
+    @PostConstruct
+    void initDispatcher() {
+        ThreadFactory threadFactory = (virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform()).name("job-dispatcher-", 0).factory();
+        dispatcher = dispatcherEnabled ? new KeyedSerialExecutor(dispatcherParallelism, dispatcherStripes, dispatcherMaxPendingJobs, threadFactory) : null;
+    }
+
+    @PostConstruct
+    void subscribeCancellations() {
+        jobCancellations.subscribeCancellations();
+    }
+
+    @PreDestroy
+    void closeDispatcher() {
+        if (nonNull(dispatcher)) {
+            dispatcher.close(DISPATCHER_SHUTDOWN_TIMEOUT);
+        }
+    }
 
+    // with the dispatcher, jobs sharing a partition key are run one after the other while the others run in parallel,
+    // the records being read ahead only up to the max pending jobs, and a job left out is read again by the next subscription
     @Override
-    public void onMessage(ObjectRecord<String, JobDto> jobRecord) {
+    public boolean handOff(ObjectRecord<String, JobDto> jobRecord) {
+        // the permit is taken before the job is handed over, so a job left out is never part of the watermark
+        if (!acquireInFlightPermit(jobRecord.getValue())) {
+            return false;
+        }
+        if (isNull(dispatcher)) {
+            consume(jobRecord, null);
+            return true;
+        }
+
+        // the record is tracked before it is handed over, since it may complete before execute returns
+        CompletionWatermark watermark = watermarks.computeIfAbsent(jobRecord.getStream(), streamKey -> new CompletionWatermark());
+        watermark.dispatch(jobRecord.getId());
+        boolean dispatched = false;
+        try {
+            dispatched = dispatcher.execute(JobStreams.getPartitionKey(jobRecord.getValue()), () -> consume(jobRecord, watermark));
+            if (!dispatched) {
+                log.info("dispatcher closed, job {} is left in the queue", jobRecord.getValue());
+            }
+        } catch (InterruptedException e) {
+            log.warn("interrupted while waiting to dispatch job {}", jobRecord.getValue());
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!dispatched) {
+                // no newer record of the stream is dispatched afterwards, so the ones already dispatched can still move the watermark
+                watermark.discard(jobRecord.getId());
+                releaseInFlightPermit();
+            }
+        }
+        return dispatched;
+    }
+
+    // without watermark, jobs are consumed one at a time in stream order, so the record is its own checkpoint
+    private void consume(ObjectRecord<String, JobDto> jobRecord, CompletionWatermark watermark) {
         JobDto jobMessage = jobRecord.getValue();
-        processJob(jobMessage);
+        // a job may have been removed from the queue while waiting for its turn, e.g. by clearing the queue,
+        // its record being skipped like a completed one
+        if (!jobQueueBackend.start(jobRecord)) {
+            releaseInFlightPermit();
+            jobQueueBackend.delete(jobRecord, complete(jobRecord, watermark));
+            log.info("job {} was removed from the queue before it started", jobMessage);
+            return;
+        }
+
+        jobMetrics.recordQueueWait(jobRecord.getId());
+        saveStatus(JobState.running(jobMessage.getId()));
+        Timer.Sample sample = jobMetrics.startTimer();
+        RuntimeException error = null;
+        jobCancellations.start(jobMessage.getId());
+        try {
+            processJob(jobMessage);
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            releaseInFlightPermit();
+        }
+        // a job done before its cancellation arrived completes as usual
+        boolean cancelled = jobCancellations.finish(jobMessage.getId()) && nonNull(error);
+        jobMetrics.recordProcess(sample, isNull(error));
+
+        if (cancelled) {
+            // the record is skipped like a completed one, so the job is neither retried nor run again
+            jobQueueBackend.delete(jobRecord, complete(jobRecord, watermark));
+            queuedJobIdsCache.remove(jobMessage.getId());
+            log.info("job {} was cancelled", jobMessage);
+            saveStatus(JobState.cancelled(jobMessage.getId()));
+            return;
+        }
+        if (nonNull(error)) {
+            long attempts = jobQueueBackend.retry(jobRecord, error, complete(jobRecord, watermark));
+            queuedJobIdsCache.remove(jobMessage.getId());
+            jobRetries.logRetry(jobMessage, attempts);
+            saveFailedStatus(jobMessage, attempts, error);
+            return;
+        }
+
+        jobQueueBackend.delete(jobRecord, complete(jobRecord, watermark));
+        queuedJobIdsCache.remove(jobMessage.getId());
+        saveStatus(JobState.succeeded(jobMessage.getId()));
+        jobMetrics.recordLag(jobRecord.getId());
+    }
+
+    private RecordId complete(ObjectRecord<String, JobDto> jobRecord, CompletionWatermark watermark) {
+        return isNull(watermark) ? jobRecord.getId() : watermark.complete(jobRecord.getId());
+    }
+
+    private void saveFailedStatus(JobDto job, long attempts, RuntimeException error) {
+        if (attempts == JobRetries.JOB_DEAD_LETTERED) {
+            saveStatus(JobState.failed(job.getId(), error.getMessage()));
+        } else if (attempts > 0) {
+            saveStatus(JobState.retried(job.getId(), attempts, error.getMessage()));
+        } else {
+            // the job was removed from the queue while running, e.g. by clearing the queue
+            jobQueueBackend.deleteStatus(job.getId());
+        }
+    }
 
-        redisTemplate.opsForStream()
-                .delete(jobRecord);
+    private void saveStatus(JobState jobState) {
+        jobQueueBackend.saveStatuses(List.of(jobState));
+        jobEventBroadcaster.publish(jobState);
+    }
+
+    private boolean acquireInFlightPermit(JobDto job) {
+        if (isNull(inFlightJobs)) {
+            return true;
+        }
+
+        try {
+            inFlightJobs.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            log.warn("interrupted while waiting to process job {}", job);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void releaseInFlightPermit() {
+        if (nonNull(inFlightJobs)) {
+            inFlightJobs.release();
+        }
     }
 
     private void processJob(JobDto job) {
         log.info("starting to process job {}", job);
         try {
             // simulate running job
-            TimeUnit.SECONDS.sleep(10);
+            TimeUnit.MILLISECONDS.sleep(jobDurationMs);
             log.info("successfully processed job {}", job);
         } catch (InterruptedException e) {
             log.error("failed to process job {}", job);
             log.error(e.getMessage());
             Thread.currentThread().interrupt();
+            throw new JobProcessingException(job.getId(), e);
         }
     }
 }
@@ -0,0 +1,50 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobsCursor;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidCursorException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobDeadLetters {
+    private final JobQueueBackend jobQueueBackend;
+    private final JobProducer jobProducer;
+
+    @Value("${redis-stream-example.queued-jobs-page-size:500}")
+    private int queuedJobsPageSize;
+
+    // the cursor is the record id of the last dead letter listed
+    public List<DeadLetterJob> getDeadLetters(String after, int limit) {
+        if (nonNull(after) && !QueuedJobsCursor.isRecordId(after)) {
+            throw new InvalidCursorException(after);
+        }
+        return jobQueueBackend.rangeDeadLetters(after, Limit.limit().count(Math.clamp(limit, 1, queuedJobsPageSize)));
+    }
+
+    // replayed jobs go through the regular enqueue, so jobs queued again meanwhile are reported as already queued
+    public List<JobEnqueueResult> replayDeadLetters() {
+        List<JobEnqueueResult> results = new ArrayList<>();
+        List<DeadLetterJob> deadLetters = jobQueueBackend.rangeDeadLetters(null, Limit.limit().count(queuedJobsPageSize));
+        while (!deadLetters.isEmpty()) {
+            results.addAll(jobProducer.produceAll(deadLetters.stream().map(DeadLetterJob::job).toList()));
+            jobQueueBackend.deleteDeadLetters(deadLetters.stream().map(DeadLetterJob::recordId).toList());
+
+            deadLetters = jobQueueBackend.rangeDeadLetters(null, Limit.limit().count(queuedJobsPageSize));
+        }
+
+        log.info("{} dead letter jobs were replayed", results.size());
+        return results;
+    }
+}
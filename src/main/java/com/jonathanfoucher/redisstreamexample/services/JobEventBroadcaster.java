@@ -0,0 +1,105 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Objects.isNull;
+
+@Service
+@Profile("!reactive")
+@RequiredArgsConstructor
+@Slf4j
+public class JobEventBroadcaster {
+    private final JobQueueBackend jobQueueBackend;
+    private final JobEvents jobEvents;
+
+    @Value("${redis-stream-example.events.emitter-timeout:30m}")
+    private Duration emitterTimeout;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // a slow client only delays the next events, never the subscription shared by every client of this instance
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("job-events").daemon().factory());
+
+    @PostConstruct
+    void subscribeEvents() {
+        jobQueueBackend.subscribeEvents(jobEvents.getChannel(), this::onMessage);
+    }
+
+    @PreDestroy
+    void closeSubscribers() {
+        dispatcher.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter().complete());
+    }
+
+    public SseEmitter subscribe(Long jobId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeout.toMillis());
+        Subscriber subscriber = new Subscriber(emitter, jobId);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    // the job is already saved, so a missed event must not fail the consumer
+    public void publish(JobState jobState) {
+        try {
+            jobQueueBackend.publishEvent(jobEvents.getChannel(), jobEvents.toMessage(jobState));
+        } catch (RuntimeException e) {
+            log.warn("failed to publish the event of job {}: {}", jobState.jobId(), e.getMessage());
+        }
+    }
+
+    private void onMessage(String message) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        dispatcher.execute(() -> dispatch(message));
+    }
+
+    private void dispatch(String message) {
+        JobState jobState;
+        try {
+            jobState = jobEvents.fromMessage(message);
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+            return;
+        }
+        String eventName = jobEvents.getEventName(jobState);
+        if (isNull(eventName)) {
+            return;
+        }
+
+        // the message is already the json of the state, so it is relayed as is to every client
+        for (Subscriber subscriber : subscribers) {
+            if (isNull(subscriber.jobId()) || subscriber.jobId().equals(jobState.jobId())) {
+                send(subscriber, eventName, message);
+            }
+        }
+    }
+
+    private void send(Subscriber subscriber, String eventName, String message) {
+        try {
+            subscriber.emitter().send(SseEmitter.event().name(eventName).data(message));
+        } catch (IOException | IllegalStateException e) {
+            // the client is gone, its emitter is completed with the error and removed
+            subscribers.remove(subscriber);
+        }
+    }
+
+    private record Subscriber(SseEmitter emitter, Long jobId) {
+    }
+}
@@ -0,0 +1,55 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import static java.util.Objects.nonNull;
+
+// an event is the status change saved by a consumer, encoded once as the json served to the clients of every instance
+@Service
+@RequiredArgsConstructor
+public class JobEvents {
+    public static final String STARTED = "started";
+    public static final String COMPLETED = "completed";
+    public static final String RETRIED = "retried";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    private final ObjectMapper objectMapper;
+
+    @Getter
+    @Value("${redis-stream-example.events.channel:job_events}")
+    private String channel;
+
+    public String toMessage(JobState jobState) {
+        try {
+            return objectMapper.writeValueAsString(jobState);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("failed to encode the event of job " + jobState.jobId(), e);
+        }
+    }
+
+    public JobState fromMessage(String message) {
+        try {
+            return objectMapper.readValue(message, JobState.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("invalid job event " + message, e);
+        }
+    }
+
+    public String getEventName(JobState jobState) {
+        return switch (jobState.status()) {
+            case RUNNING -> STARTED;
+            case SUCCEEDED -> COMPLETED;
+            case FAILED -> FAILED;
+            case CANCELLED -> CANCELLED;
+            // a job is only queued again by a consumer when it failed before its last attempt
+            case QUEUED -> nonNull(jobState.failedAttempts()) ? RETRIED : null;
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.INDEX_JOBS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+// the enqueue and remove scripts only look at the job index, so the records queued before it existed are indexed once at startup,
+// the marker key being set when every stream was read, so an interrupted rebuild starts over on the next start
+@Service
+@Profile("!memory")
+@RequiredArgsConstructor
+@Slf4j
+public class JobIndexRebuilder implements ApplicationRunner {
+    private final RedisTemplate<String, String> redisTemplate;
+    private final JobStreams jobStreams;
+    private final JobRecordMapper jobRecordMapper;
+
+    @Value("${redis-stream-example.index-key}")
+    private String indexKey;
+    @Value("${redis-stream-example.index-rebuilt-key:job_queue_index_rebuilt}")
+    private String indexRebuiltKey;
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.queued-jobs-page-size:500}")
+    private int queuedJobsPageSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            rebuildIndex();
+        } catch (DataAccessException e) {
+            log.warn("rebuilding the job index failed, it will be tried again on the next start", e);
+        }
+    }
+
+    void rebuildIndex() {
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(indexRebuiltKey))) {
+            return;
+        }
+
+        long indexed = 0;
+        for (String streamKey : jobStreams.getStreamKeys()) {
+            indexed += rebuildIndex(streamKey);
+        }
+        redisTemplate.opsForValue().set(indexRebuiltKey, Instant.now().toString());
+        log.info("job index rebuilt, {} queued jobs were not indexed yet", indexed);
+    }
+
+    // the records up to the checkpoint are completed, e.g. kept by the retention, so the queue starts after it
+    private long rebuildIndex(String streamKey) {
+        Object checkpoint = redisTemplate.opsForHash().get(checkpointKey, streamKey);
+        String afterRecordId = isNull(checkpoint) ? null : checkpoint.toString();
+        long indexed = 0;
+        List<ByteRecord> jobRecords = readJobRecords(streamKey, afterRecordId);
+        while (!jobRecords.isEmpty()) {
+            List<String> args = new ArrayList<>();
+            for (ByteRecord jobRecord : jobRecords) {
+                args.add(jobRecord.getId().getValue());
+                args.add(String.valueOf(jobRecordMapper.fromHash(jobRecord.getValue()).getId()));
+            }
+            Long batchIndexed = redisTemplate.execute(INDEX_JOBS, List.of(streamKey, indexKey), args.toArray());
+            indexed += nonNull(batchIndexed) ? batchIndexed : 0;
+
+            jobRecords = readJobRecords(streamKey, jobRecords.getLast().getId().getValue());
+        }
+        return indexed;
+    }
+
+    private List<ByteRecord> readJobRecords(String streamKey, String afterRecordId) {
+        Range<String> range = isNull(afterRecordId) ? Range.unbounded() : Range.of(Range.Bound.exclusive(afterRecordId), Range.Bound.unbounded());
+        List<ByteRecord> jobRecords = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands()
+                .xRange(streamKey.getBytes(UTF_8), range, Limit.limit().count(queuedJobsPageSize)));
+        return isNull(jobRecords) ? List.of() : jobRecords;
+    }
+}
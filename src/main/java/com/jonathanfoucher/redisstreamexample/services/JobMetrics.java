@@ -0,0 +1,197 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.services.JobQueueBackend.StreamStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNullElse;
+
+@Component
+public class JobMetrics {
+    public static final String REMOVED = "removed";
+    public static final String NOT_QUEUED = "not_queued";
+    public static final String RUNNING = "running";
+    public static final String SATURATED = "saturated";
+    public static final String RATE_LIMITED = "rate_limited";
+
+    private final MeterRegistry meterRegistry;
+    private final JobQueueBackend jobQueueBackend;
+    private final JobStreams jobStreams;
+    // meters are registered once, so recording them on the hot path is only a map lookup at most
+    private final Map<JobEnqueueStatus, Timer> enqueueTimers = new EnumMap<>(JobEnqueueStatus.class);
+    private final Map<JobEnqueueStatus, Counter> enqueuedCounters = new EnumMap<>(JobEnqueueStatus.class);
+    private final Map<String, Timer> removeTimers;
+    private final Timer processSuccessTimer;
+    private final Timer processFailureTimer;
+    private final Timer queueWaitTimer;
+    private final Timer lagTimer;
+    private final Map<String, Counter> rejectedCounters;
+    private final Map<String, AtomicLong> queueDepths = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> oldestRecordTimes = new ConcurrentHashMap<>();
+
+    public JobMetrics(MeterRegistry meterRegistry, JobQueueBackend jobQueueBackend, JobStreams jobStreams) {
+        this.meterRegistry = meterRegistry;
+        this.jobQueueBackend = jobQueueBackend;
+        this.jobStreams = jobStreams;
+
+        for (JobEnqueueStatus status : JobEnqueueStatus.values()) {
+            String tag = status.name().toLowerCase();
+            enqueueTimers.put(status, Timer.builder("jobs.enqueue")
+                    .description("time taken to add a job to the queue")
+                    .tag("status", tag)
+                    .register(meterRegistry));
+            enqueuedCounters.put(status, Counter.builder("jobs.enqueued")
+                    .description("jobs submitted to the queue, one by one or in batches")
+                    .tag("status", tag)
+                    .register(meterRegistry));
+        }
+        removeTimers = Map.of(
+                REMOVED, registerRemoveTimer(REMOVED),
+                NOT_QUEUED, registerRemoveTimer(NOT_QUEUED),
+                RUNNING, registerRemoveTimer(RUNNING)
+        );
+        processSuccessTimer = registerProcessTimer("success");
+        processFailureTimer = registerProcessTimer("failure");
+        queueWaitTimer = registerLatencyTimer("jobs.queue.wait", "time between a job record being added and its processing start");
+        lagTimer = registerLatencyTimer("jobs.lag", "time between a job record being added and its removal once processed");
+        rejectedCounters = Map.of(
+                SATURATED, registerRejectedCounter(SATURATED),
+                RATE_LIMITED, registerRejectedCounter(RATE_LIMITED)
+        );
+    }
+
+    public Timer.Sample startTimer() {
+        return Timer.start(meterRegistry);
+    }
+
+    public void recordEnqueue(Timer.Sample sample, JobEnqueueStatus status) {
+        sample.stop(enqueueTimers.get(status));
+        enqueuedCounters.get(status).increment();
+    }
+
+    public void recordEnqueued(List<JobEnqueueStatus> statuses) {
+        statuses.forEach(status -> enqueuedCounters.get(status).increment());
+    }
+
+    public void recordRemove(Timer.Sample sample, String result) {
+        sample.stop(removeTimers.get(result));
+    }
+
+    public void recordRejected(String reason, int jobCount) {
+        rejectedCounters.get(reason).increment(jobCount);
+    }
+
+    public void recordProcess(Timer.Sample sample, boolean succeeded) {
+        sample.stop(succeeded ? processSuccessTimer : processFailureTimer);
+    }
+
+    // record ids start with the time the record was added, so no extra field is needed to measure how long a job waited
+    public void recordQueueWait(RecordId recordId) {
+        recordSince(queueWaitTimer, recordId);
+    }
+
+    public void recordLag(RecordId recordId) {
+        recordSince(lagTimer, recordId);
+    }
+
+    // the depth and lag gauges read the values cached here, so scraping the metrics never reaches the queue backend
+    @Scheduled(fixedDelayString = "${redis-stream-example.metrics.queue-depth-interval:5s}")
+    public void refreshQueueStats() {
+        for (StreamStats streamStats : jobQueueBackend.getStreamStats(jobStreams.getStreamKeys())) {
+            queueDepths.computeIfAbsent(streamStats.streamKey(), this::registerQueueDepth).set(streamStats.length());
+            long oldestRecordTime = nonNull(streamStats.oldestRecordId())
+                    ? requireNonNullElse(streamStats.oldestRecordId().getTimestamp(), 0L)
+                    : 0L;
+            oldestRecordTimes.computeIfAbsent(streamStats.streamKey(), this::registerQueueLag).set(oldestRecordTime);
+        }
+    }
+
+    public long getQueueDepth() {
+        return queueDepths.values()
+                .stream()
+                .mapToLong(AtomicLong::get)
+                .sum();
+    }
+
+    // the age of the oldest record still in a stream, i.e. how far behind the consumers are
+    public Duration getQueueLag() {
+        return oldestRecordTimes.values()
+                .stream()
+                .map(oldestRecordTime -> Duration.ofMillis(getAge(oldestRecordTime.get())))
+                .max(Duration::compareTo)
+                .orElse(Duration.ZERO);
+    }
+
+    private void recordSince(Timer timer, RecordId recordId) {
+        Long timestamp = recordId.getTimestamp();
+        if (isNull(timestamp)) {
+            return;
+        }
+        timer.record(getAge(timestamp), TimeUnit.MILLISECONDS);
+    }
+
+    private long getAge(long timestamp) {
+        return timestamp > 0 ? Math.max(meterRegistry.config().clock().wallTime() - timestamp, 0) : 0;
+    }
+
+    private AtomicLong registerQueueDepth(String streamKey) {
+        return meterRegistry.gauge("jobs.queue.depth", Tags.of("stream", streamKey), new AtomicLong());
+    }
+
+    private AtomicLong registerQueueLag(String streamKey) {
+        AtomicLong oldestRecordTime = new AtomicLong();
+        Gauge.builder("jobs.queue.lag", oldestRecordTime, time -> getAge(time.get()) / 1000.0)
+                .description("age of the oldest record of the stream")
+                .tag("stream", streamKey)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        return oldestRecordTime;
+    }
+
+    private Timer registerRemoveTimer(String result) {
+        return Timer.builder("jobs.remove")
+                .description("time taken to remove a job from the queue")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter registerRejectedCounter(String reason) {
+        return Counter.builder("jobs.rejected")
+                .description("jobs refused by the admission control before reaching the queue")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private Timer registerProcessTimer(String result) {
+        return Timer.builder("jobs.process")
+                .description("time taken to process a job")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Timer registerLatencyTimer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofHours(1))
+                .register(meterRegistry);
+    }
+}
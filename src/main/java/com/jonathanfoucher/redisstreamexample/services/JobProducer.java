@@ -1,90 +1,202 @@
 package com.jonathanfoucher.redisstreamexample.services;
 
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.JobStatus;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobsCursor;
 import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundException;
 import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundInQueueException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotRunningException;
 import com.jonathanfoucher.redisstreamexample.errors.RemovingRunningJobException;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.connection.stream.Record;
-import org.springframework.data.redis.connection.stream.*;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class JobProducer {
-    private final RedisTemplate<String, String> redisTemplate;
+    private final JobQueueBackend jobQueueBackend;
+    private final JobStreams jobStreams;
+    private final JobRecordMapper jobRecordMapper;
+    private final JobMetrics jobMetrics;
+    private final QueuedJobIdsCache queuedJobIdsCache;
+    private final JobCancellations jobCancellations;
 
-    @Value("${redis-stream-example.stream-key}")
-    private String streamKey;
+    @Value("${redis-stream-example.queued-jobs-page-size:500}")
+    private int queuedJobsPageSize;
 
     public String produce(JobDto jobMessage) {
-        if (getQueuedJobsIds().contains(jobMessage.getId())) {
+        Timer.Sample sample = jobMetrics.startTimer();
+        // the enqueue script always decides, since the cache may still list a job whose removal event was lost
+        String recordId = jobQueueBackend.append(jobStreams.getStreamKey(jobMessage), jobMessage);
+
+        if (isNull(recordId)) {
+            jobMetrics.recordEnqueue(sample, JobEnqueueStatus.ALREADY_QUEUED);
             throw new JobAlreadyQueuedException(jobMessage.getId());
         }
 
-        ObjectRecord<String, JobDto> jobRecord = StreamRecords.newRecord()
-                .ofObject(jobMessage)
-                .withStreamKey(streamKey);
+        if (jobRecordMapper.isDelayed(jobMessage)) {
+            jobMetrics.recordEnqueue(sample, JobEnqueueStatus.DELAYED);
+            String dueAt = Instant.ofEpochMilli(Long.parseLong(recordId)).toString();
+            log.info("job {} was delayed until {}", jobMessage, dueAt);
+            return dueAt;
+        }
 
-        RecordId recordId = redisTemplate.opsForStream()
-                .add(jobRecord);
+        jobMetrics.recordEnqueue(sample, JobEnqueueStatus.QUEUED);
+        log.info("job {} was added to the queue with id {}", jobMessage, recordId);
+        return recordId;
+    }
 
-        if (isNull(recordId)) {
-            log.error("error producing message for job {}", jobMessage);
-            return null;
+    public List<JobEnqueueResult> produceAll(List<JobDto> jobMessages) {
+        if (jobMessages.isEmpty()) {
+            return List.of();
         }
 
-        log.info("job {} was added to the queue with id {}", jobMessage, recordId);
-        return recordId.getValue();
+        Map<String, List<Integer>> positionsByStreamKey = new LinkedHashMap<>();
+        for (int i = 0; i < jobMessages.size(); i++) {
+            positionsByStreamKey.computeIfAbsent(jobStreams.getStreamKey(jobMessages.get(i)), key -> new ArrayList<>())
+                    .add(i);
+        }
+
+        JobEnqueueResult[] results = new JobEnqueueResult[jobMessages.size()];
+        positionsByStreamKey.forEach((jobStreamKey, positions) -> {
+            List<String> recordIds = jobQueueBackend.appendAll(jobStreamKey, positions.stream().map(jobMessages::get).toList());
+            if (isNull(recordIds) || recordIds.size() != positions.size()) {
+                throw new IllegalStateException("unexpected result while producing " + positions.size() + " jobs: " + recordIds);
+            }
+
+            for (int i = 0; i < positions.size(); i++) {
+                JobDto job = jobMessages.get(positions.get(i));
+                String recordId = recordIds.get(i);
+                if (isNull(recordId)) {
+                    results[positions.get(i)] = new JobEnqueueResult(job.getId(), null, JobEnqueueStatus.ALREADY_QUEUED);
+                } else if (jobRecordMapper.isDelayed(job)) {
+                    results[positions.get(i)] = new JobEnqueueResult(job.getId(), null, JobEnqueueStatus.DELAYED);
+                } else {
+                    results[positions.get(i)] = new JobEnqueueResult(job.getId(), recordId, JobEnqueueStatus.QUEUED);
+                }
+            }
+        });
+
+        jobMetrics.recordEnqueued(Arrays.stream(results).map(JobEnqueueResult::status).toList());
+        log.info("{} jobs out of {} were added to the queue", Arrays.stream(results).filter(result -> result.status() != JobEnqueueStatus.ALREADY_QUEUED).count(), results.length);
+        return List.of(results);
     }
 
     public List<Long> getQueuedJobsIds() {
-        return redisTemplate.opsForStream()
-                .read(JobDto.class, StreamOffset.fromStart(streamKey))
+        long[] cachedJobIds = queuedJobIdsCache.getQueuedJobsIds();
+        if (nonNull(cachedJobIds)) {
+            return Arrays.stream(cachedJobIds).boxed().toList();
+        }
+
+        return jobStreams.getStreamKeys()
                 .stream()
-                .map(Record::getValue)
-                .map(JobDto::getId)
+                .flatMap(jobStreamKey -> jobQueueBackend.range(jobStreamKey, null, Limit.unlimited()).stream())
+                .map(this::getJobId)
                 .toList();
     }
 
+    public QueuedJobIdsPage getQueuedJobsIds(String after, int limit) {
+        int count = Math.clamp(limit, 1, queuedJobsPageSize);
+        List<String> streamKeys = jobStreams.getStreamKeys();
+
+        QueuedJobsCursor cursor = isNull(after) ? null : QueuedJobsCursor.parse(after, streamKeys.size());
+        int streamIndex = isNull(cursor) ? 0 : cursor.streamIndex();
+        String afterRecordId = isNull(cursor) ? null : cursor.recordId();
+
+        QueuedJobIdsPage cachedPage = queuedJobIdsCache.getQueuedJobsIds(streamIndex, afterRecordId, count);
+        if (nonNull(cachedPage)) {
+            return cachedPage;
+        }
+
+        List<Long> jobIds = new ArrayList<>(count);
+        String lastCursor = null;
+        for (; streamIndex < streamKeys.size() && jobIds.size() < count; streamIndex++, afterRecordId = null) {
+            List<ObjectRecord<String, JobDto>> jobRecords = jobQueueBackend.range(streamKeys.get(streamIndex), afterRecordId, Limit.limit().count(count - jobIds.size()));
+
+            jobRecords.stream()
+                    .map(this::getJobId)
+                    .forEach(jobIds::add);
+            if (!jobRecords.isEmpty()) {
+                lastCursor = new QueuedJobsCursor(streamIndex, jobRecords.getLast().getId().getValue()).toString();
+            }
+        }
+
+        String nextCursor = jobIds.size() < count ? null : lastCursor;
+        return new QueuedJobIdsPage(jobIds, nextCursor);
+    }
+
+    public void forEachQueuedJobIdsPage(Consumer<List<Long>> pageConsumer) {
+        String after = null;
+        do {
+            QueuedJobIdsPage page = getQueuedJobsIds(after, queuedJobsPageSize);
+            if (!page.jobIds().isEmpty()) {
+                pageConsumer.accept(page.jobIds());
+            }
+            after = page.nextCursor();
+        } while (nonNull(after));
+    }
+
     public void removeJobFromQueue(Long jobId) {
-        List<ObjectRecord<String, JobDto>> allqueuedJobs = redisTemplate.opsForStream()
-                .read(JobDto.class, StreamOffset.fromStart(streamKey));
+        Timer.Sample sample = jobMetrics.startTimer();
+        long result = jobQueueBackend.remove(jobId);
 
-        if (allqueuedJobs.isEmpty()) {
+        if (result == JobQueueBackend.JOB_NOT_QUEUED) {
+            jobMetrics.recordRemove(sample, JobMetrics.NOT_QUEUED);
             throw new JobNotFoundInQueueException(jobId);
         }
+        if (result == JobQueueBackend.JOB_RUNNING) {
+            jobMetrics.recordRemove(sample, JobMetrics.RUNNING);
+            throw new RemovingRunningJobException(jobId);
+        }
+        jobQueueBackend.deleteStatus(jobId);
+        queuedJobIdsCache.remove(jobId);
+        jobMetrics.recordRemove(sample, JobMetrics.REMOVED);
+    }
 
-        allqueuedJobs.stream()
-                .findFirst()
-                .map(Record::getValue)
-                .map(JobDto::getId)
-                .filter(jobId::equals)
-                .ifPresent(firstJobId -> {
-                    throw new RemovingRunningJobException(jobId);
-                });
-
-        allqueuedJobs.stream()
-                .skip(1)
-                .filter(jobRecord -> jobRecord.getValue().getId().equals(jobId))
-                .findFirst()
-                .ifPresentOrElse(jobRecord -> redisTemplate.opsForStream().delete(jobRecord),
-                        () -> {
-                            throw new JobNotFoundInQueueException(jobId);
-                        }
-                );
+    // the cancellation is only requested, the job being cancelled by the instance running it, if any
+    public void cancelRunningJob(Long jobId) {
+        JobState jobState = getJobState(jobId);
+        if (jobState.status() != JobStatus.RUNNING) {
+            throw new JobNotRunningException(jobId);
+        }
+        jobCancellations.requestCancel(jobId);
+    }
+
+    public JobState getJobState(Long jobId) {
+        JobState jobState = jobQueueBackend.getStatus(jobId);
+        if (isNull(jobState)) {
+            throw new JobNotFoundException(jobId);
+        }
+        return jobState;
     }
 
     public void clearJobQueue() {
-        redisTemplate.opsForStream()
-                .trim(streamKey, 0);
+        jobQueueBackend.trim();
+        queuedJobIdsCache.clear();
+    }
+
+    private Long getJobId(ObjectRecord<String, JobDto> jobRecord) {
+        return jobRecord.getValue().getId();
     }
 }
@@ -0,0 +1,70 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.configs.JobSubscriptions;
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.stream.StreamListener;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// where the queued jobs are kept, Valkey streams by default, with the same ordering, dedup and running job semantics on every backend
+public interface JobQueueBackend {
+    long JOB_REMOVED = 1;
+    long JOB_NOT_QUEUED = 0;
+    long JOB_RUNNING = -1;
+
+    // returns the record id, the due time in epoch ms when the job is delayed, or null when the job is already queued,
+    // the queued status of the job being saved along with it
+    String append(String streamKey, JobDto job);
+
+    List<String> appendAll(String streamKey, List<JobDto> jobs);
+
+    List<ObjectRecord<String, JobDto>> range(String streamKey, String afterRecordId, Limit limit);
+
+    // a job can't be removed while it is running, i.e. while it is the head of its stream, delivered to a consumer of the group
+    // or started by the dispatcher
+    long remove(Long jobId);
+
+    // marks a job handed over to the dispatcher as running, returns false when it was removed from the queue meanwhile
+    boolean start(ObjectRecord<String, JobDto> jobRecord);
+
+    // the checkpoint is the newest record of the stream with every older one completed, null while an older one is still running,
+    // so a crash never skips a job still running when a newer one completed first
+    void delete(ObjectRecord<String, JobDto> jobRecord, RecordId checkpoint);
+
+    // returns the number of failed attempts, -1 when the job was dead lettered and 0 when it was removed meanwhile
+    long retry(ObjectRecord<String, JobDto> jobRecord, Throwable error, RecordId checkpoint);
+
+    long trim();
+
+    // dead letters are listed oldest first, paged by record id like the queued jobs
+    List<DeadLetterJob> rangeDeadLetters(String afterRecordId, Limit limit);
+
+    void deleteDeadLetters(List<String> recordIds);
+
+    List<StreamStats> getStreamStats(List<String> streamKeys);
+
+    // each status is kept for redis-stream-example.status.ttl after its last change
+    void saveStatuses(List<JobState> jobStates);
+
+    // returns null when the job has no status
+    JobState getStatus(Long jobId);
+
+    void deleteStatus(Long jobId);
+
+    // events reach the listeners of every instance, each instance holding a single subscription whatever its number of clients
+    void publishEvent(String channel, String event);
+
+    void subscribeEvents(String channel, Consumer<String> listener);
+
+    JobSubscriptions subscribe(StreamListener<String, ObjectRecord<String, JobDto>> listener);
+
+    // the oldest record id is null when the stream is empty
+    record StreamStats(String streamKey, long length, RecordId oldestRecordId) {
+    }
+}
@@ -0,0 +1,98 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.codecs.JobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidJobScheduleException;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.hash.HashMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+@Component
+@RequiredArgsConstructor
+public class JobRecordMapper implements HashMapper<JobDto, byte[], byte[]> {
+    private static final byte[] EMPTY_ARG = new byte[0];
+
+    private final List<JobRecordCodec> jobRecordCodecs;
+
+    @Value("${redis-stream-example.record-codec:binary}")
+    private String recordCodec;
+    private JobRecordCodec writeCodec;
+
+    @PostConstruct
+    void initWriteCodec() {
+        writeCodec = jobRecordCodecs.stream()
+                .filter(codec -> codec.getName().equals(recordCodec))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("unknown record codec " + recordCodec));
+    }
+
+    @Override
+    public Map<byte[], byte[]> toHash(JobDto job) {
+        return writeCodec.encode(job);
+    }
+
+    @Override
+    public JobDto fromHash(Map<byte[], byte[]> fields) {
+        // records written with another codec, e.g. before switching codecs, stay readable
+        for (JobRecordCodec codec : jobRecordCodecs) {
+            if (codec.canDecode(fields)) {
+                return codec.decode(fields);
+            }
+        }
+        throw new IllegalArgumentException("no codec can decode the job record");
+    }
+
+    public List<byte[]> toEnqueueArgs(JobDto job) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(String.valueOf(job.getId()).getBytes(UTF_8));
+        addSchedule(args, job);
+        addRecordFields(args, toHash(job));
+        return args;
+    }
+
+    public List<byte[]> toBatchEnqueueArgs(List<JobDto> jobs) {
+        List<byte[]> args = new ArrayList<>();
+        for (JobDto job : jobs) {
+            Map<byte[], byte[]> fields = toHash(job);
+            args.add(String.valueOf(job.getId()).getBytes(UTF_8));
+            addSchedule(args, job);
+            args.add(String.valueOf(fields.size() * 2).getBytes(UTF_8));
+            addRecordFields(args, fields);
+        }
+        return args;
+    }
+
+    public boolean isDelayed(JobDto job) {
+        return nonNull(job.getRunAt()) || nonNull(job.getDelay());
+    }
+
+    public void checkSchedule(JobDto job) {
+        if ((nonNull(job.getRunAt()) && nonNull(job.getDelay())) || (nonNull(job.getDelay()) && job.getDelay().isNegative())) {
+            throw new InvalidJobScheduleException(job.getId());
+        }
+    }
+
+    // the due time of delayed jobs is computed from the Valkey clock, like the promoter checking it
+    private void addSchedule(List<byte[]> args, JobDto job) {
+        checkSchedule(job);
+        args.add(isNull(job.getRunAt()) ? EMPTY_ARG : String.valueOf(job.getRunAt().toEpochMilli()).getBytes(UTF_8));
+        args.add(isNull(job.getDelay()) ? EMPTY_ARG : String.valueOf(job.getDelay().toMillis()).getBytes(UTF_8));
+    }
+
+    private void addRecordFields(List<byte[]> args, Map<byte[], byte[]> fields) {
+        fields.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+    }
+}
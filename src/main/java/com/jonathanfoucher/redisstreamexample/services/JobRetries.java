@@ -0,0 +1,109 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNullElse;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobRetries {
+    public static final long JOB_DEAD_LETTERED = -1;
+    private static final long JOB_REMOVED = 0;
+
+    private final JobRecordMapper jobRecordMapper;
+
+    @Value("${redis-stream-example.index-key}")
+    private String indexKey;
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.delayed.key:job_queue_delayed}")
+    private String delayedKey;
+    @Value("${redis-stream-example.delayed.jobs-key:job_queue_delayed_jobs}")
+    private String delayedJobsKey;
+    @Value("${redis-stream-example.retry.attempts-key:job_queue_attempts}")
+    private String attemptsKey;
+    @Value("${redis-stream-example.retry.dead-letter-key:job_queue_dead_letters}")
+    private String deadLetterKey;
+    @Value("${redis-stream-example.retry.dead-letter-max-length:10000}")
+    private long deadLetterMaxLength;
+    @Value("${redis-stream-example.running-key:job_queue_running}")
+    private String runningKey;
+    @Value("${redis-stream-example.retry.max-attempts:5}")
+    private int maxAttempts;
+    @Value("${redis-stream-example.retry.initial-delay:1s}")
+    private Duration initialDelay;
+    @Value("${redis-stream-example.retry.max-delay:5m}")
+    private Duration maxDelay;
+    @Value("${redis-stream-example.consumer-group.enabled:false}")
+    private boolean consumerGroupEnabled;
+    @Value("${redis-stream-example.consumer-group.name:job-consumers}")
+    private String consumerGroupName;
+    @Value("${redis-stream-example.retention.enabled:false}")
+    private boolean retentionEnabled;
+
+    public int getMaxAttempts() {
+        return Math.max(maxAttempts, 1);
+    }
+
+    // 0 when the dead letters are unbounded
+    public long getDeadLetterMaxLength() {
+        return Math.max(deadLetterMaxLength, 0);
+    }
+
+    public String getError(Throwable error) {
+        return requireNonNullElse(error.getMessage(), error.getClass().getName());
+    }
+
+    // same backoff as retry_job.lua, doubling from the initial delay after each failed attempt
+    public Duration getDelay(long attempts) {
+        Duration delay = initialDelay.multipliedBy(1L << Math.clamp(attempts - 1, 0, 30));
+        return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+    }
+
+    public List<String> getRetryKeys(String streamKey) {
+        return List.of(streamKey, indexKey, checkpointKey, delayedKey, delayedJobsKey, attemptsKey, deadLetterKey, runningKey);
+    }
+
+    public List<byte[]> getRetryArgs(ObjectRecord<String, JobDto> jobRecord, Throwable error, RecordId checkpoint) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(jobRecord.getId().getValue().getBytes(UTF_8));
+        args.add(String.valueOf(jobRecord.getValue().getId()).getBytes(UTF_8));
+        args.add(String.valueOf(getMaxAttempts()).getBytes(UTF_8));
+        args.add(String.valueOf(initialDelay.toMillis()).getBytes(UTF_8));
+        args.add(String.valueOf(maxDelay.toMillis()).getBytes(UTF_8));
+        args.add(getError(error).getBytes(UTF_8));
+        args.add((consumerGroupEnabled ? consumerGroupName : "").getBytes(UTF_8));
+        args.add((retentionEnabled ? "1" : "").getBytes(UTF_8));
+        args.add((isNull(checkpoint) ? "" : checkpoint.getValue()).getBytes(UTF_8));
+        args.add(String.valueOf(getDeadLetterMaxLength()).getBytes(UTF_8));
+        for (Map.Entry<byte[], byte[]> field : jobRecordMapper.toHash(jobRecord.getValue()).entrySet()) {
+            args.add(field.getKey());
+            args.add(field.getValue());
+        }
+        return args;
+    }
+
+    public void logRetry(JobDto job, Long attempts) {
+        if (isNull(attempts) || attempts == JOB_REMOVED) {
+            log.info("job {} was removed from the queue while running, it won't be retried", job);
+        } else if (attempts == JOB_DEAD_LETTERED) {
+            log.warn("job {} failed {} times, it was moved to the dead letter stream", job, getMaxAttempts());
+        } else {
+            log.info("job {} failed {} times, it will be retried", job, attempts);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.JobStatus;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+// the status of each job is a small hash of its own, so looking it up is a single key read whatever the queue depth
+@Service
+public class JobStatuses {
+    private static final String STATUS_FIELD = "status";
+    private static final String QUEUED_AT_FIELD = "queued_at";
+    private static final String STARTED_AT_FIELD = "started_at";
+    private static final String FINISHED_AT_FIELD = "finished_at";
+    private static final String FAILED_ATTEMPTS_FIELD = "failed_attempts";
+    private static final String ERROR_FIELD = "error";
+
+    @Getter
+    @Value("${redis-stream-example.status.key-prefix:job_status:}")
+    private String keyPrefix;
+    @Getter
+    @Value("${redis-stream-example.status.ttl:1d}")
+    private Duration ttl;
+
+    public String getStatusKey(Long jobId) {
+        return keyPrefix + jobId;
+    }
+
+    // the enqueue scripts write the queued status of each job they add, so a consumer starting it right away can't be overwritten
+    public List<String> getEnqueueKeys(List<String> queueKeys, List<JobDto> jobs) {
+        List<String> keys = new ArrayList<>(queueKeys);
+        jobs.forEach(job -> keys.add(getStatusKey(job.getId())));
+        return keys;
+    }
+
+    // each clear moves the index to a key of its own, so concurrent clears never delete each other's jobs
+    public String getClearedKey(String indexKey) {
+        return indexKey + ":cleared:" + UUID.randomUUID();
+    }
+
+    // same layout as delete_cleared_jobs.lua: the keys of the queue, then the status key of each job
+    public List<String> getDeleteClearedKeys(List<String> clearKeys, List<String> jobIds) {
+        List<String> keys = new ArrayList<>(clearKeys);
+        jobIds.forEach(jobId -> keys.add(keyPrefix + jobId));
+        return keys;
+    }
+
+    public List<String> getDeleteClearedArgs(String consumerGroupName, List<String> jobIds) {
+        List<String> args = new ArrayList<>(jobIds.size() + 1);
+        args.add(consumerGroupName);
+        args.addAll(jobIds);
+        return args;
+    }
+
+    public List<byte[]> getEnqueueArgs(List<byte[]> jobArgs) {
+        List<byte[]> args = new ArrayList<>(jobArgs.size() + 1);
+        args.add(getTtlArg());
+        args.addAll(jobArgs);
+        return args;
+    }
+
+    public List<String> getSaveKeys(List<JobState> jobStates) {
+        return jobStates.stream()
+                .map(jobState -> getStatusKey(jobState.jobId()))
+                .toList();
+    }
+
+    // same layout as save_job_statuses.lua: the time to live, then whether each status replaces the previous one and its fields
+    public List<byte[]> getSaveArgs(List<JobState> jobStates) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(getTtlArg());
+        for (JobState jobState : jobStates) {
+            Map<byte[], byte[]> fields = toHash(jobState);
+            args.add((nonNull(jobState.queuedAt()) ? "1" : "").getBytes(UTF_8));
+            args.add(String.valueOf(fields.size()).getBytes(UTF_8));
+            fields.forEach((field, value) -> {
+                args.add(field);
+                args.add(value);
+            });
+        }
+        return args;
+    }
+
+    public Map<byte[], byte[]> toHash(JobState jobState) {
+        Map<byte[], byte[]> fields = new LinkedHashMap<>();
+        putField(fields, STATUS_FIELD, jobState.status());
+        putField(fields, QUEUED_AT_FIELD, isNull(jobState.queuedAt()) ? null : jobState.queuedAt().toEpochMilli());
+        putField(fields, STARTED_AT_FIELD, isNull(jobState.startedAt()) ? null : jobState.startedAt().toEpochMilli());
+        putField(fields, FINISHED_AT_FIELD, isNull(jobState.finishedAt()) ? null : jobState.finishedAt().toEpochMilli());
+        putField(fields, FAILED_ATTEMPTS_FIELD, jobState.failedAttempts());
+        putField(fields, ERROR_FIELD, jobState.error());
+        return fields;
+    }
+
+    // returns null when the job has no status, i.e. it was never submitted, it was removed or its status expired
+    public JobState fromHash(Long jobId, Map<String, String> values) {
+        if (isNull(values) || values.isEmpty()) {
+            return null;
+        }
+
+        String status = values.get(STATUS_FIELD);
+        String failedAttempts = values.get(FAILED_ATTEMPTS_FIELD);
+        return new JobState(jobId, isNull(status) ? null : JobStatus.valueOf(status), getInstant(values, QUEUED_AT_FIELD),
+                getInstant(values, STARTED_AT_FIELD), getInstant(values, FINISHED_AT_FIELD),
+                isNull(failedAttempts) ? null : Long.valueOf(failedAttempts), values.get(ERROR_FIELD));
+    }
+
+    // fields left out of a state are kept from the previous one, and there is nothing to merge into once the job was removed,
+    // in which case null is returned
+    public JobState merge(JobState previousState, JobState jobState) {
+        if (nonNull(jobState.queuedAt())) {
+            return jobState;
+        }
+        if (isNull(previousState)) {
+            return null;
+        }
+
+        return new JobState(jobState.jobId(),
+                nonNull(jobState.status()) ? jobState.status() : previousState.status(),
+                previousState.queuedAt(),
+                nonNull(jobState.startedAt()) ? jobState.startedAt() : previousState.startedAt(),
+                nonNull(jobState.finishedAt()) ? jobState.finishedAt() : previousState.finishedAt(),
+                nonNull(jobState.failedAttempts()) ? jobState.failedAttempts() : previousState.failedAttempts(),
+                nonNull(jobState.error()) ? jobState.error() : previousState.error());
+    }
+
+    private byte[] getTtlArg() {
+        return String.valueOf(ttl.toMillis()).getBytes(UTF_8);
+    }
+
+    private void putField(Map<byte[], byte[]> fields, String field, Object value) {
+        if (nonNull(value)) {
+            fields.put(field.getBytes(UTF_8), value.toString().getBytes(UTF_8));
+        }
+    }
+
+    private Instant getInstant(Map<String, String> values, String field) {
+        String value = values.get(field);
+        return isNull(value) ? null : Instant.ofEpochMilli(Long.parseLong(value));
+    }
+}
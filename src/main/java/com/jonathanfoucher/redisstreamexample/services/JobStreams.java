@@ -0,0 +1,100 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.Objects.isNull;
+import static org.springframework.util.StringUtils.hasText;
+
+@Component
+public class JobStreams {
+    @Value("${redis-stream-example.stream-key}")
+    private String streamKey;
+    @Value("${redis-stream-example.partitions:1}")
+    private int partitions;
+    @Value("${redis-stream-example.priority.high-weight:8}")
+    private int highWeight;
+    @Value("${redis-stream-example.priority.normal-weight:4}")
+    private int normalWeight;
+    @Value("${redis-stream-example.priority.low-weight:1}")
+    private int lowWeight;
+    @Value("${redis-stream-example.consumer-group.consumer-name:}")
+    private String consumerName;
+
+    // every partition has a stream per priority, listed from the highest priority
+    public List<String> getStreamKeys() {
+        return IntStream.range(0, getPartitions())
+                .boxed()
+                .flatMap(partition -> Arrays.stream(JobPriority.values()).map(priority -> getStreamKey(priority, partition)))
+                .toList();
+    }
+
+    public String getStreamKey(JobDto job) {
+        JobPriority priority = isNull(job.getPriority()) ? JobPriority.NORMAL : job.getPriority();
+        if (partitions <= 1) {
+            return getStreamKey(priority, 0);
+        }
+
+        return getStreamKey(priority, Math.floorMod(getPartitionKey(job).hashCode(), partitions));
+    }
+
+    // normal priority streams keep the keys used before priorities were added
+    public String getStreamKey(JobPriority priority, int partition) {
+        String priorityStreamKey = priority == JobPriority.NORMAL ? streamKey : streamKey + ":" + priority.name().toLowerCase();
+        return partitions <= 1 ? priorityStreamKey : priorityStreamKey + ":" + partition;
+    }
+
+    public int getPartitions() {
+        return Math.max(partitions, 1);
+    }
+
+    public int getWeight(JobPriority priority) {
+        int weight = switch (priority) {
+            case HIGH -> highWeight;
+            case NORMAL -> normalWeight;
+            case LOW -> lowWeight;
+        };
+        return Math.max(weight, 1);
+    }
+
+    // jobs without partition key only have to be ordered with themselves, so their id stands for it
+    public static String getPartitionKey(JobDto job) {
+        return hasText(job.getPartitionKey()) ? job.getPartitionKey() : String.valueOf(job.getId());
+    }
+
+    // record ids are ordered by their timestamp then their sequence, a null id comes before any other
+    public static String getLatestRecordId(String recordId, String otherRecordId) {
+        if (isNull(recordId) || isNull(otherRecordId)) {
+            return isNull(recordId) ? otherRecordId : recordId;
+        }
+
+        RecordId parsedRecordId = RecordId.of(recordId);
+        RecordId otherParsedRecordId = RecordId.of(otherRecordId);
+        int comparison = Long.compare(parsedRecordId.getTimestamp(), otherParsedRecordId.getTimestamp());
+        if (comparison == 0) {
+            comparison = Long.compare(parsedRecordId.getSequence(), otherParsedRecordId.getSequence());
+        }
+        return comparison >= 0 ? recordId : otherRecordId;
+    }
+
+    public String getConsumerName() {
+        if (hasText(consumerName)) {
+            return consumerName;
+        }
+
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        } catch (UnknownHostException e) {
+            return "consumer-" + ProcessHandle.current().pid();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.collections.LongLongHashMap;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobsCursor;
+import com.jonathanfoucher.redisstreamexample.services.JobQueueBackend.StreamStats;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+// a copy of the queued job ids of every stream, served without any round trip once synced,
+// kept current by reading the new records of the streams and the removals published by every instance,
+// and rebuilt from the streams after a failed read, since the removals published meanwhile may be lost too
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class QueuedJobIdsCache {
+    private static final long NOT_CACHED = -1;
+    private static final String REMOVED = "removed";
+    private static final String CLEARED = "cleared";
+    private static final String SEPARATOR = " ";
+
+    private final JobQueueBackend jobQueueBackend;
+    private final JobStreams jobStreams;
+
+    @Value("${redis-stream-example.queued-jobs-cache.enabled:false}")
+    private boolean enabled;
+    @Value("${redis-stream-example.queued-jobs-cache.channel:job_queue_changes}")
+    private String channel;
+    @Value("${redis-stream-example.queued-jobs-cache.max-size:100000}")
+    private int maxSize;
+    @Value("${redis-stream-example.queued-jobs-cache.read-batch-size:1000}")
+    private int readBatchSize;
+    @Value("${redis-stream-example.queued-jobs-cache.resync-interval:1m}")
+    private Duration resyncInterval;
+
+    // an instance ignores its own changes, already applied when they were published
+    private final String origin = UUID.randomUUID().toString();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // each entry of the streams is live while the serial of its job id is its own, so removing a job is a single map update
+    private final LongLongHashMap serials = new LongLongHashMap();
+    private StreamView[] views = new StreamView[0];
+    private long nextSerial;
+    private boolean synced;
+    private long nextResync = System.nanoTime();
+    // the changes received while the streams are read, applied again to the records read
+    private final LongLongHashMap removedDuringRead = new LongLongHashMap();
+    private boolean reading;
+    private boolean clearedDuringRead;
+
+    @PostConstruct
+    void subscribeChanges() {
+        if (enabled) {
+            jobQueueBackend.subscribeEvents(channel, this::onMessage);
+        }
+    }
+
+    // returns null when the cache is not synced, the streams being read instead
+    public long[] getQueuedJobsIds() {
+        lock.readLock().lock();
+        try {
+            if (!synced) {
+                return null;
+            }
+
+            long[] jobIds = new long[serials.size()];
+            int count = 0;
+            for (StreamView view : views) {
+                for (int i = 0; i < view.size; i++) {
+                    if (isLive(view, i)) {
+                        jobIds[count++] = view.jobIds[i];
+                    }
+                }
+            }
+            return jobIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // pages follow the cursors of the streams, so they can be continued whether the cache is synced or not
+    public QueuedJobIdsPage getQueuedJobsIds(int streamIndex, String afterRecordId, int count) {
+        RecordId after;
+        try {
+            after = isNull(afterRecordId) ? null : RecordId.of(afterRecordId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            if (!synced) {
+                return null;
+            }
+
+            List<Long> jobIds = new ArrayList<>(count);
+            String lastCursor = null;
+            for (; streamIndex < views.length && jobIds.size() < count; streamIndex++, after = null) {
+                StreamView view = views[streamIndex];
+                int lastIndex = -1;
+                for (int i = isNull(after) ? 0 : view.indexAfter(after); i < view.size && jobIds.size() < count; i++) {
+                    if (isLive(view, i)) {
+                        jobIds.add(view.jobIds[i]);
+                        lastIndex = i;
+                    }
+                }
+                if (lastIndex >= 0) {
+                    lastCursor = new QueuedJobsCursor(streamIndex, view.getRecordId(lastIndex)).toString();
+                }
+            }
+
+            String nextCursor = jobIds.size() < count ? null : lastCursor;
+            return new QueuedJobIdsPage(jobIds, nextCursor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // called once the record of the job left its stream, whether it completed, failed or was removed
+    public void remove(long jobId) {
+        if (enabled) {
+            removeJob(jobId);
+            publish(REMOVED + SEPARATOR + jobId);
+        }
+    }
+
+    public void clear() {
+        if (enabled) {
+            clearJobs();
+            publish(CLEARED);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${redis-stream-example.queued-jobs-cache.refresh-interval:1s}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            if (!isSynced() || System.nanoTime() - nextResync >= 0) {
+                resync();
+            } else {
+                readNewRecords();
+            }
+        } catch (RuntimeException e) {
+            log.warn("failed to refresh the queued job ids cache: {}", e.getMessage());
+            drop();
+        } finally {
+            endRead();
+        }
+    }
+
+    private void resync() {
+        nextResync = System.nanoTime() + resyncInterval.toNanos();
+        List<String> streamKeys = jobStreams.getStreamKeys();
+        long length = jobQueueBackend.getStreamStats(streamKeys).stream()
+                .mapToLong(StreamStats::length)
+                .sum();
+        if (length > maxSize) {
+            if (isSynced()) {
+                log.warn("{} queued jobs exceed the queued job ids cache size of {}, the streams are read instead", length, maxSize);
+            }
+            drop();
+            return;
+        }
+
+        startRead();
+        List<List<ObjectRecord<String, JobDto>>> jobRecords = new ArrayList<>(streamKeys.size());
+        int count = 0;
+        for (String streamKey : streamKeys) {
+            jobRecords.add(readRecords(streamKey, null));
+            count += jobRecords.getLast().size();
+            if (count > maxSize) {
+                drop();
+                return;
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (clearedDuringRead) {
+                return;
+            }
+            serials.clear();
+            views = new StreamView[streamKeys.size()];
+            for (int i = 0; i < views.length; i++) {
+                views[i] = new StreamView();
+                addRecords(views[i], jobRecords.get(i));
+            }
+            synced = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // new records are only ever added at the end of the streams, so each read goes on from the last record seen
+    private void readNewRecords() {
+        String[] lastRecordIds;
+        lock.readLock().lock();
+        try {
+            lastRecordIds = Arrays.stream(views).map(view -> view.lastRecordId).toArray(String[]::new);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        startRead();
+        List<String> streamKeys = jobStreams.getStreamKeys();
+        List<List<ObjectRecord<String, JobDto>>> jobRecords = new ArrayList<>(streamKeys.size());
+        for (int i = 0; i < streamKeys.size(); i++) {
+            jobRecords.add(readRecords(streamKeys.get(i), lastRecordIds[i]));
+        }
+
+        lock.writeLock().lock();
+        try {
+            // the records read before the queue was cleared are read again, minus the ones trimmed
+            if (!synced || clearedDuringRead) {
+                return;
+            }
+            for (int i = 0; i < views.length; i++) {
+                addRecords(views[i], jobRecords.get(i));
+            }
+            if (serials.size() > maxSize) {
+                log.warn("{} queued jobs exceed the queued job ids cache size of {}, the streams are read instead", serials.size(), maxSize);
+                dropViews();
+            } else {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<ObjectRecord<String, JobDto>> readRecords(String streamKey, String afterRecordId) {
+        List<ObjectRecord<String, JobDto>> jobRecords = new ArrayList<>();
+        List<ObjectRecord<String, JobDto>> page;
+        do {
+            page = jobQueueBackend.range(streamKey, afterRecordId, Limit.limit().count(readBatchSize));
+            jobRecords.addAll(page);
+            if (!page.isEmpty()) {
+                afterRecordId = page.getLast().getId().getValue();
+            }
+        } while (page.size() >= readBatchSize && jobRecords.size() <= maxSize);
+        return jobRecords;
+    }
+
+    private void addRecords(StreamView view, List<ObjectRecord<String, JobDto>> jobRecords) {
+        for (ObjectRecord<String, JobDto> jobRecord : jobRecords) {
+            long jobId = jobRecord.getValue().getId();
+            // the record is still added, so the view stays ordered and its next read starts after it
+            long serial = removedDuringRead.containsKey(jobId) ? NOT_CACHED : nextSerial++;
+            if (serial != NOT_CACHED) {
+                serials.put(jobId, serial);
+            }
+            view.add(jobRecord.getId(), jobId, serial);
+        }
+    }
+
+    private void removeJob(long jobId) {
+        lock.writeLock().lock();
+        try {
+            if (reading) {
+                removedDuringRead.put(jobId, NOT_CACHED);
+            }
+            serials.remove(jobId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void clearJobs() {
+        lock.writeLock().lock();
+        try {
+            clearedDuringRead |= reading;
+            serials.clear();
+            for (StreamView view : views) {
+                view.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void publish(String change) {
+        try {
+            jobQueueBackend.publishEvent(channel, origin + SEPARATOR + change);
+        } catch (RuntimeException e) {
+            log.warn("failed to publish the queued job ids change {}: {}", change, e.getMessage());
+        }
+    }
+
+    private void onMessage(String message) {
+        String[] parts = message.split(SEPARATOR);
+        if (parts[0].equals(origin)) {
+            return;
+        }
+
+        if (parts.length == 2 && parts[1].equals(CLEARED)) {
+            clearJobs();
+        } else if (parts.length == 3 && parts[1].equals(REMOVED)) {
+            try {
+                removeJob(Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                log.warn("invalid queued job ids change {}", message);
+            }
+        } else {
+            log.warn("invalid queued job ids change {}", message);
+        }
+    }
+
+    // the removed entries are dropped once they outnumber the live ones, so they never take more than half of the memory
+    private void compact() {
+        int size = Arrays.stream(views).mapToInt(view -> view.size).sum();
+        if (size > 2 * serials.size() + readBatchSize) {
+            for (StreamView view : views) {
+                view.compact(this);
+            }
+        }
+    }
+
+    private boolean isLive(StreamView view, int index) {
+        return view.serials[index] != NOT_CACHED && serials.get(view.jobIds[index], NOT_CACHED) == view.serials[index];
+    }
+
+    private boolean isSynced() {
+        lock.readLock().lock();
+        try {
+            return synced;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void drop() {
+        lock.writeLock().lock();
+        try {
+            dropViews();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void dropViews() {
+        synced = false;
+        serials.clear();
+        views = new StreamView[0];
+    }
+
+    private void startRead() {
+        lock.writeLock().lock();
+        try {
+            reading = true;
+            clearedDuringRead = false;
+            removedDuringRead.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void endRead() {
+        lock.writeLock().lock();
+        try {
+            reading = false;
+            removedDuringRead.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the entries of a stream in the order of their record ids, each record id being kept as its two numbers
+    private static class StreamView {
+        private long[] timestamps = new long[0];
+        private long[] sequences = new long[0];
+        private long[] jobIds = new long[0];
+        private long[] serials = new long[0];
+        private int size;
+        private String lastRecordId;
+
+        private void add(RecordId recordId, long jobId, long serial) {
+            if (size == jobIds.length) {
+                resize(Math.max(16, size * 2));
+            }
+            timestamps[size] = recordId.getTimestamp();
+            sequences[size] = recordId.getSequence();
+            jobIds[size] = jobId;
+            serials[size] = serial;
+            size++;
+            lastRecordId = recordId.getValue();
+        }
+
+        private int indexAfter(RecordId recordId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int comparison = Long.compare(timestamps[middle], recordId.getTimestamp());
+                if (comparison == 0) {
+                    comparison = Long.compare(sequences[middle], recordId.getSequence());
+                }
+                if (comparison <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private String getRecordId(int index) {
+            return timestamps[index] + "-" + sequences[index];
+        }
+
+        private void compact(QueuedJobIdsCache cache) {
+            int liveSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (cache.isLive(this, i)) {
+                    timestamps[liveSize] = timestamps[i];
+                    sequences[liveSize] = sequences[i];
+                    jobIds[liveSize] = jobIds[i];
+                    serials[liveSize] = serials[i];
+                    liveSize++;
+                }
+            }
+            size = liveSize;
+            resize(Math.max(16, size * 2));
+        }
+
+        private void clear() {
+            size = 0;
+            resize(0);
+        }
+
+        private void resize(int capacity) {
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            jobIds = Arrays.copyOf(jobIds, capacity);
+            serials = Arrays.copyOf(serials, capacity);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.errors.JobProcessingException;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
+
+@Service
+@Profile("reactive")
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveJobConsumer {
+    private final ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
+    private final JobRetries jobRetries;
+    private final JobMetrics jobMetrics;
+    private final JobStatuses jobStatuses;
+    private final ReactiveJobEventBroadcaster jobEventBroadcaster;
+
+    @Value("${redis-stream-example.job-duration-ms:10000}")
+    private long jobDurationMs;
+    @Value("${redis-stream-example.index-key}")
+    private String indexKey;
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.running-key:job_queue_running}")
+    private String runningKey;
+    @Value("${redis-stream-example.retry.attempts-key:job_queue_attempts}")
+    private String attemptsKey;
+    @Value("${redis-stream-example.consumer-group.enabled:false}")
+    private boolean consumerGroupEnabled;
+    @Value("${redis-stream-example.consumer-group.name:job-consumers}")
+    private String consumerGroupName;
+    @Value("${redis-stream-example.retention.enabled:false}")
+    private boolean retentionEnabled;
+    @Value("${redis-stream-example.retention.history-key:job_queue_history}")
+    private String historyKey;
+    @Value("${redis-stream-example.retention.history-max-length:0}")
+    private long historyMaxLength;
+
+    public Mono<Void> onMessage(ObjectRecord<String, JobDto> jobRecord) {
+        JobDto jobMessage = jobRecord.getValue();
+        // jobs are processed one at a time, so every older record is completed and the checkpoint is the record itself
+        List<String> args = List.of(jobRecord.getId().getValue(), String.valueOf(jobMessage.getId()), consumerGroupEnabled ? consumerGroupName : "",
+                retentionEnabled ? "1" : "", String.valueOf(historyMaxLength), jobRecord.getId().getValue());
+
+        List<String> deleteKeys = List.of(jobRecord.getStream(), indexKey, checkpointKey, attemptsKey, historyKey, runningKey);
+
+        // records are only requested once the previous job is done, so this is called when the job starts
+        return reactiveRedisTemplate.execute(START_JOB, List.of(indexKey, runningKey), List.of(jobRecord.getId().getValue(), String.valueOf(jobMessage.getId()), jobRecord.getStream()))
+                .next()
+                .flatMap(started -> {
+                    // the job was removed from the queue meanwhile, e.g. by clearing the queue, so its record is skipped like a completed one
+                    if (started == 0) {
+                        log.info("job {} was removed from the queue before it started", jobMessage);
+                        return reactiveRedisTemplate.execute(DELETE_JOB, deleteKeys, args).then();
+                    }
+
+                    jobMetrics.recordQueueWait(jobRecord.getId());
+                    Timer.Sample sample = jobMetrics.startTimer();
+                    return saveStatus(JobState.running(jobMessage.getId()))
+                            .then(processJob(jobMessage))
+                            .doOnSuccess(ignored -> jobMetrics.recordProcess(sample, true))
+                            .thenReturn(true)
+                            .onErrorResume(e -> {
+                                jobMetrics.recordProcess(sample, false);
+                                return retryJob(jobRecord, e).thenReturn(false);
+                            })
+                            .flatMap(processed -> processed
+                                    ? reactiveRedisTemplate.execute(DELETE_JOB, deleteKeys, args)
+                                    .then(saveStatus(JobState.succeeded(jobMessage.getId())))
+                                    .then(Mono.fromRunnable(() -> jobMetrics.recordLag(jobRecord.getId())))
+                                    : Mono.empty())
+                            .then();
+                });
+    }
+
+    private Mono<Void> retryJob(ObjectRecord<String, JobDto> jobRecord, Throwable error) {
+        return reactiveRedisTemplate.execute(RETRY_JOB, jobRetries.getRetryKeys(jobRecord.getStream()), jobRetries.getRetryArgs(jobRecord, error, jobRecord.getId()),
+                        RedisElementWriter.from(RECORD_ARGS_SERIALIZER), RedisElementReader.from(ATTEMPTS_SERIALIZER))
+                .next()
+                .doOnNext(attempts -> jobRetries.logRetry(jobRecord.getValue(), attempts))
+                .flatMap(attempts -> saveFailedStatus(jobRecord.getValue(), attempts, error));
+    }
+
+    private Mono<Void> saveFailedStatus(JobDto job, long attempts, Throwable error) {
+        if (attempts == JobRetries.JOB_DEAD_LETTERED) {
+            return saveStatus(JobState.failed(job.getId(), error.getMessage()));
+        }
+        if (attempts > 0) {
+            return saveStatus(JobState.retried(job.getId(), attempts, error.getMessage()));
+        }
+        // the job was removed from the queue while running, e.g. by clearing the queue
+        return reactiveRedisTemplate.delete(jobStatuses.getStatusKey(job.getId())).then();
+    }
+
+    private Mono<Void> saveStatus(JobState jobState) {
+        return reactiveRedisTemplate.execute(SAVE_JOB_STATUSES, jobStatuses.getSaveKeys(List.of(jobState)), jobStatuses.getSaveArgs(List.of(jobState)),
+                        RedisElementWriter.from(RECORD_ARGS_SERIALIZER), RedisElementReader.from(ATTEMPTS_SERIALIZER))
+                .then(jobEventBroadcaster.publish(jobState));
+    }
+
+    private Mono<Void> processJob(JobDto job) {
+        return Mono.fromRunnable(() -> log.info("starting to process job {}", job))
+                // simulate running job
+                .then(Mono.delay(Duration.ofMillis(jobDurationMs)))
+                .doOnNext(ignored -> log.info("successfully processed job {}", job))
+                .onErrorMap(e -> {
+                    log.error("failed to process job {}", job);
+                    log.error(e.getMessage());
+                    return new JobProcessingException(job.getId(), e);
+                })
+                .then();
+    }
+}
@@ -0,0 +1,60 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static java.util.Objects.isNull;
+
+@Service
+@Profile("reactive")
+@Slf4j
+public class ReactiveJobEventBroadcaster {
+    private final ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
+    private final JobEvents jobEvents;
+    // the channel is only listened to while at least one client is connected, once whatever their number
+    private final Flux<JobEvent> events;
+
+    public ReactiveJobEventBroadcaster(ReactiveRedisTemplate<String, String> reactiveRedisTemplate, JobEvents jobEvents) {
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.jobEvents = jobEvents;
+        this.events = reactiveRedisTemplate.listenToChannel(jobEvents.getChannel())
+                .mapNotNull(message -> toEvent(message.getMessage()))
+                .share();
+    }
+
+    public Flux<ServerSentEvent<String>> subscribe(Long jobId) {
+        return events.filter(event -> isNull(jobId) || jobId.equals(event.jobState().jobId()))
+                .map(event -> ServerSentEvent.builder(event.message())
+                        .event(event.name())
+                        .build());
+    }
+
+    // the job is already saved, so a missed event must not fail the consumer
+    public Mono<Void> publish(JobState jobState) {
+        return Mono.fromCallable(() -> jobEvents.toMessage(jobState))
+                .flatMap(message -> reactiveRedisTemplate.convertAndSend(jobEvents.getChannel(), message))
+                .doOnError(e -> log.warn("failed to publish the event of job {}: {}", jobState.jobId(), e.getMessage()))
+                .onErrorComplete()
+                .then();
+    }
+
+    private JobEvent toEvent(String message) {
+        try {
+            JobState jobState = jobEvents.fromMessage(message);
+            String name = jobEvents.getEventName(jobState);
+            return isNull(name) ? null : new JobEvent(jobState, name, message);
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+            return null;
+        }
+    }
+
+    private record JobEvent(JobState jobState, String name, String message) {
+    }
+}
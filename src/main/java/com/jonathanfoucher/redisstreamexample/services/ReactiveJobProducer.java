@@ -0,0 +1,260 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobsCursor;
+import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundInQueueException;
+import com.jonathanfoucher.redisstreamexample.errors.RemovingRunningJobException;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ByteBufferRecord;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+@Service
+@Profile("reactive")
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveJobProducer {
+    private static final long JOB_NOT_QUEUED = 0;
+    private static final long JOB_RUNNING = -1;
+
+    private final ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
+    private final JobStreams jobStreams;
+    private final JobRecordMapper jobRecordMapper;
+    private final JobMetrics jobMetrics;
+    private final JobStatuses jobStatuses;
+
+    @Value("${redis-stream-example.index-key}")
+    private String indexKey;
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.running-key:job_queue_running}")
+    private String runningKey;
+    @Value("${redis-stream-example.delayed.key:job_queue_delayed}")
+    private String delayedKey;
+    @Value("${redis-stream-example.delayed.jobs-key:job_queue_delayed_jobs}")
+    private String delayedJobsKey;
+    @Value("${redis-stream-example.retry.attempts-key:job_queue_attempts}")
+    private String attemptsKey;
+    @Value("${redis-stream-example.queued-jobs-page-size:500}")
+    private int queuedJobsPageSize;
+    @Value("${redis-stream-example.clear-batch-size:1000}")
+    private int clearBatchSize;
+    @Value("${redis-stream-example.consumer-group.enabled:false}")
+    private boolean consumerGroupEnabled;
+    @Value("${redis-stream-example.consumer-group.name:job-consumers}")
+    private String consumerGroupName;
+    @Value("${redis-stream-example.retention.enabled:false}")
+    private boolean retentionEnabled;
+
+    public Mono<String> produce(JobDto jobMessage) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = jobMetrics.startTimer();
+            return reactiveRedisTemplate.execute(ENQUEUE_JOB, jobStatuses.getEnqueueKeys(List.of(jobStreams.getStreamKey(jobMessage), indexKey, delayedKey, delayedJobsKey), List.of(jobMessage)),
+                            jobStatuses.getEnqueueArgs(jobRecordMapper.toEnqueueArgs(jobMessage)), RedisElementWriter.from(RECORD_ARGS_SERIALIZER), RedisElementReader.from(RedisSerializer.string()))
+                    .next()
+                    .switchIfEmpty(Mono.error(() -> {
+                        jobMetrics.recordEnqueue(sample, JobEnqueueStatus.ALREADY_QUEUED);
+                        return new JobAlreadyQueuedException(jobMessage.getId());
+                    }))
+                    .map(recordId -> {
+                        if (jobRecordMapper.isDelayed(jobMessage)) {
+                            jobMetrics.recordEnqueue(sample, JobEnqueueStatus.DELAYED);
+                            String dueAt = Instant.ofEpochMilli(Long.parseLong(recordId)).toString();
+                            log.info("job {} was delayed until {}", jobMessage, dueAt);
+                            return dueAt;
+                        }
+
+                        jobMetrics.recordEnqueue(sample, JobEnqueueStatus.QUEUED);
+                        log.info("job {} was added to the queue with id {}", jobMessage, recordId);
+                        return recordId;
+                    });
+        });
+    }
+
+    public Mono<List<JobEnqueueResult>> produceAll(List<JobDto> jobMessages) {
+        Map<String, List<Integer>> positionsByStreamKey = new LinkedHashMap<>();
+        for (int i = 0; i < jobMessages.size(); i++) {
+            positionsByStreamKey.computeIfAbsent(jobStreams.getStreamKey(jobMessages.get(i)), key -> new ArrayList<>())
+                    .add(i);
+        }
+
+        JobEnqueueResult[] results = new JobEnqueueResult[jobMessages.size()];
+        return Flux.fromIterable(positionsByStreamKey.entrySet())
+                .concatMap(positionsEntry -> {
+                    List<Integer> positions = positionsEntry.getValue();
+                    List<JobDto> partitionJobs = positions.stream().map(jobMessages::get).toList();
+                    List<byte[]> args = jobStatuses.getEnqueueArgs(jobRecordMapper.toBatchEnqueueArgs(partitionJobs));
+
+                    return reactiveRedisTemplate.execute(ENQUEUE_JOBS, jobStatuses.getEnqueueKeys(List.of(positionsEntry.getKey(), indexKey, delayedKey, delayedJobsKey), partitionJobs), args,
+                                    RedisElementWriter.from(RECORD_ARGS_SERIALIZER), RedisElementReader.from(RedisSerializer.string()))
+                            .next()
+                            .map(JobQueueScripts::toRecordIds)
+                            .filter(recordIds -> recordIds.size() == positions.size())
+                            .switchIfEmpty(Mono.error(() -> new IllegalStateException("unexpected result while producing " + positions.size() + " jobs")))
+                            .doOnNext(recordIds -> {
+                                for (int i = 0; i < positions.size(); i++) {
+                                    JobDto job = jobMessages.get(positions.get(i));
+                                    String recordId = recordIds.get(i);
+                                    if (isNull(recordId)) {
+                                        results[positions.get(i)] = new JobEnqueueResult(job.getId(), null, JobEnqueueStatus.ALREADY_QUEUED);
+                                    } else if (jobRecordMapper.isDelayed(job)) {
+                                        results[positions.get(i)] = new JobEnqueueResult(job.getId(), null, JobEnqueueStatus.DELAYED);
+                                    } else {
+                                        results[positions.get(i)] = new JobEnqueueResult(job.getId(), recordId, JobEnqueueStatus.QUEUED);
+                                    }
+                                }
+                            });
+                })
+                .then(Mono.fromSupplier(() -> {
+                    jobMetrics.recordEnqueued(Arrays.stream(results).map(JobEnqueueResult::status).toList());
+                    log.info("{} jobs out of {} were added to the queue", Arrays.stream(results).filter(result -> result.status() != JobEnqueueStatus.ALREADY_QUEUED).count(), results.length);
+                    return List.of(results);
+                }));
+    }
+
+    public Mono<QueuedJobIdsPage> getQueuedJobsIds(String after, int limit) {
+        return Mono.defer(() -> {
+            int count = Math.clamp(limit, 1, queuedJobsPageSize);
+            List<String> streamKeys = jobStreams.getStreamKeys();
+
+            QueuedJobsCursor cursor = isNull(after) ? null : QueuedJobsCursor.parse(after, streamKeys.size());
+            int firstStreamIndex = isNull(cursor) ? 0 : cursor.streamIndex();
+            String afterRecordId = isNull(cursor) ? null : cursor.recordId();
+
+            return Flux.range(firstStreamIndex, streamKeys.size() - firstStreamIndex)
+                    .concatMap(streamIndex -> {
+                        String streamAfterRecordId = streamIndex == firstStreamIndex ? afterRecordId : null;
+
+                        return getQueueStart(streamKeys.get(streamIndex), streamAfterRecordId)
+                                .map(queueStart -> Range.of(Range.Bound.exclusive(queueStart), Range.Bound.<String>unbounded()))
+                                .defaultIfEmpty(Range.unbounded())
+                                .flatMapMany(range -> readJobRecords(streamKeys.get(streamIndex), range, Limit.limit().count(count)))
+                                .map(jobRecord -> Tuples.of(new QueuedJobsCursor(streamIndex, jobRecord.getId().getValue()), getJobId(jobRecord)));
+                    })
+                    .take(count)
+                    .collectList()
+                    .map(queuedJobs -> new QueuedJobIdsPage(
+                            queuedJobs.stream().map(Tuple2::getT2).toList(),
+                            queuedJobs.size() < count ? null : queuedJobs.getLast().getT1().toString()
+                    ));
+        });
+    }
+
+    public Flux<Long> streamQueuedJobsIds() {
+        return getQueuedJobsIds(null, queuedJobsPageSize)
+                .expand(page -> nonNull(page.nextCursor()) ? getQueuedJobsIds(page.nextCursor(), queuedJobsPageSize) : Mono.empty())
+                .concatMapIterable(QueuedJobIdsPage::jobIds);
+    }
+
+    public Mono<Void> removeJobFromQueue(Long jobId) {
+        List<String> args = consumerGroupEnabled
+                ? List.of(String.valueOf(jobId), consumerGroupName)
+                : List.of(String.valueOf(jobId));
+
+        return Mono.defer(() -> {
+            Timer.Sample sample = jobMetrics.startTimer();
+            return reactiveRedisTemplate.execute(REMOVE_QUEUED_JOB, getQueueKeys(), args)
+                    .next()
+                    .defaultIfEmpty(JOB_NOT_QUEUED)
+                    .flatMap(result -> {
+                        if (result == JOB_NOT_QUEUED) {
+                            jobMetrics.recordRemove(sample, JobMetrics.NOT_QUEUED);
+                            return Mono.error(new JobNotFoundInQueueException(jobId));
+                        }
+                        if (result == JOB_RUNNING) {
+                            jobMetrics.recordRemove(sample, JobMetrics.RUNNING);
+                            return Mono.error(new RemovingRunningJobException(jobId));
+                        }
+                        jobMetrics.recordRemove(sample, JobMetrics.REMOVED);
+                        return reactiveRedisTemplate.delete(jobStatuses.getStatusKey(jobId)).then();
+                    });
+        });
+    }
+
+    public Mono<JobState> getJobState(Long jobId) {
+        return reactiveRedisTemplate.<String, String>opsForHash()
+                .entries(jobStatuses.getStatusKey(jobId))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .mapNotNull(fields -> jobStatuses.fromHash(jobId, fields))
+                .switchIfEmpty(Mono.error(() -> new JobNotFoundException(jobId)));
+    }
+
+    // like the blocking stack, the index is swapped in a single script, the cleared jobs being deleted a batch at a time afterwards
+    public Mono<Void> clearJobQueue() {
+        return Mono.defer(() -> {
+            String clearedKey = jobStatuses.getClearedKey(indexKey);
+            List<String> keys = new ArrayList<>(getQueueKeys());
+            keys.add(clearedKey);
+            return reactiveRedisTemplate.execute(CLEAR_JOB_QUEUE, keys, List.of(String.valueOf(jobStatuses.getTtl().toMillis())))
+                    .thenMany(reactiveRedisTemplate.<String, String>opsForHash().scan(clearedKey, ScanOptions.scanOptions().count(clearBatchSize).build()))
+                    .map(Map.Entry::getKey)
+                    .buffer(clearBatchSize)
+                    .concatMap(jobIds -> reactiveRedisTemplate.execute(DELETE_CLEARED_JOBS, jobStatuses.getDeleteClearedKeys(List.of(clearedKey, indexKey, delayedKey), jobIds),
+                            jobStatuses.getDeleteClearedArgs(consumerGroupEnabled ? consumerGroupName : "", jobIds)))
+                    .then(reactiveRedisTemplate.unlink(clearedKey))
+                    .then();
+        });
+    }
+
+    // with retention, completed records are kept until their node is trimmed, so the queue starts after the checkpoint
+    private Mono<String> getQueueStart(String jobStreamKey, String afterRecordId) {
+        if (!retentionEnabled) {
+            return Mono.justOrEmpty(afterRecordId);
+        }
+
+        return reactiveRedisTemplate.<String, String>opsForHash()
+                .get(checkpointKey, jobStreamKey)
+                .map(checkpoint -> JobStreams.getLatestRecordId(afterRecordId, checkpoint))
+                .switchIfEmpty(Mono.justOrEmpty(afterRecordId));
+    }
+
+    private Flux<ByteBufferRecord> readJobRecords(String jobStreamKey, Range<String> range, Limit limit) {
+        return reactiveRedisTemplate.execute(connection -> connection.streamCommands()
+                .xRange(ByteBuffer.wrap(jobStreamKey.getBytes(UTF_8)), range, limit));
+    }
+
+    private Long getJobId(ByteBufferRecord jobRecord) {
+        return jobRecordMapper.fromHash(jobRecord.deserialize(RedisSerializer.byteArray()).getValue()).getId();
+    }
+
+    // delayed jobs are still queued, so their keys come along with the streams
+    private List<String> getQueueKeys() {
+        List<String> keys = new ArrayList<>(jobStreams.getStreamKeys());
+        keys.addAll(List.of(runningKey, checkpointKey, delayedKey, delayedJobsKey, attemptsKey, indexKey));
+        return keys;
+    }
+}
@@ -0,0 +1,292 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.configs.JobSubscriptions;
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.stream.StreamListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+@Service
+@Profile("!memory")
+@RequiredArgsConstructor
+public class RedisJobQueueBackend implements JobQueueBackend {
+    private static final String STREAM_FIELD = "stream";
+    private static final String ATTEMPTS_FIELD = "attempts";
+    private static final String ERROR_FIELD = "error";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final JobStreams jobStreams;
+    private final JobRecordMapper jobRecordMapper;
+    private final JobRetries jobRetries;
+    private final JobStatuses jobStatuses;
+    private final RedisStreamSubscriber redisStreamSubscriber;
+
+    @Value("${redis-stream-example.index-key}")
+    private String indexKey;
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.running-key:job_queue_running}")
+    private String runningKey;
+    @Value("${redis-stream-example.delayed.key:job_queue_delayed}")
+    private String delayedKey;
+    @Value("${redis-stream-example.delayed.jobs-key:job_queue_delayed_jobs}")
+    private String delayedJobsKey;
+    @Value("${redis-stream-example.retry.attempts-key:job_queue_attempts}")
+    private String attemptsKey;
+    @Value("${redis-stream-example.retry.dead-letter-key:job_queue_dead_letters}")
+    private String deadLetterKey;
+    @Value("${redis-stream-example.clear-batch-size:1000}")
+    private int clearBatchSize;
+    @Value("${redis-stream-example.consumer-group.enabled:false}")
+    private boolean consumerGroupEnabled;
+    @Value("${redis-stream-example.consumer-group.name:job-consumers}")
+    private String consumerGroupName;
+    @Value("${redis-stream-example.retention.enabled:false}")
+    private boolean retentionEnabled;
+    @Value("${redis-stream-example.retention.history-key:job_queue_history}")
+    private String historyKey;
+    @Value("${redis-stream-example.retention.history-max-length:0}")
+    private long historyMaxLength;
+    private RedisMessageListenerContainer eventsListenerContainer;
+
+    @Override
+    public String append(String streamKey, JobDto job) {
+        return redisTemplate.execute(ENQUEUE_JOB, RECORD_ARGS_SERIALIZER, RedisSerializer.string(),
+                jobStatuses.getEnqueueKeys(List.of(streamKey, indexKey, delayedKey, delayedJobsKey), List.of(job)),
+                jobStatuses.getEnqueueArgs(jobRecordMapper.toEnqueueArgs(job)).toArray());
+    }
+
+    @Override
+    public List<String> appendAll(String streamKey, List<JobDto> jobs) {
+        List<byte[]> args = jobStatuses.getEnqueueArgs(jobRecordMapper.toBatchEnqueueArgs(jobs));
+        String results = redisTemplate.execute(ENQUEUE_JOBS, RECORD_ARGS_SERIALIZER, RedisSerializer.string(),
+                jobStatuses.getEnqueueKeys(List.of(streamKey, indexKey, delayedKey, delayedJobsKey), jobs), args.toArray());
+        return isNull(results) ? null : toRecordIds(results);
+    }
+
+    @Override
+    public List<ObjectRecord<String, JobDto>> range(String streamKey, String afterRecordId, Limit limit) {
+        // with retention, completed records are kept until their node is trimmed, so the queue starts after the checkpoint
+        if (retentionEnabled) {
+            Object checkpoint = redisTemplate.opsForHash().get(checkpointKey, streamKey);
+            afterRecordId = JobStreams.getLatestRecordId(afterRecordId, isNull(checkpoint) ? null : checkpoint.toString());
+        }
+
+        Range<String> range = isNull(afterRecordId) ? Range.unbounded() : Range.of(Range.Bound.exclusive(afterRecordId), Range.Bound.unbounded());
+        List<ByteRecord> jobRecords = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands()
+                .xRange(streamKey.getBytes(UTF_8), range, limit));
+        if (isNull(jobRecords)) {
+            return List.of();
+        }
+
+        return jobRecords.stream()
+                .map(jobRecord -> StreamRecords.newRecord()
+                        .in(streamKey)
+                        .withId(jobRecord.getId())
+                        .ofObject(jobRecordMapper.fromHash(jobRecord.getValue())))
+                .toList();
+    }
+
+    @Override
+    public long remove(Long jobId) {
+        Object[] args = consumerGroupEnabled
+                ? new Object[]{String.valueOf(jobId), consumerGroupName}
+                : new Object[]{String.valueOf(jobId)};
+        Long result = redisTemplate.execute(REMOVE_QUEUED_JOB, getQueueKeys(), args);
+        return isNull(result) ? JOB_NOT_QUEUED : result;
+    }
+
+    @Override
+    public boolean start(ObjectRecord<String, JobDto> jobRecord) {
+        Long started = redisTemplate.execute(START_JOB, List.of(indexKey, runningKey), jobRecord.getId().getValue(),
+                String.valueOf(jobRecord.getValue().getId()), jobRecord.getStream());
+        return nonNull(started) && started > 0;
+    }
+
+    @Override
+    public void delete(ObjectRecord<String, JobDto> jobRecord, RecordId checkpoint) {
+        redisTemplate.execute(DELETE_JOB, List.of(jobRecord.getStream(), indexKey, checkpointKey, attemptsKey, historyKey, runningKey),
+                jobRecord.getId().getValue(), String.valueOf(jobRecord.getValue().getId()), consumerGroupEnabled ? consumerGroupName : "",
+                retentionEnabled ? "1" : "", String.valueOf(historyMaxLength), isNull(checkpoint) ? "" : checkpoint.getValue());
+    }
+
+    @Override
+    public long retry(ObjectRecord<String, JobDto> jobRecord, Throwable error, RecordId checkpoint) {
+        Long attempts = redisTemplate.execute(RETRY_JOB, RECORD_ARGS_SERIALIZER, ATTEMPTS_SERIALIZER,
+                jobRetries.getRetryKeys(jobRecord.getStream()), jobRetries.getRetryArgs(jobRecord, error, checkpoint).toArray());
+        return isNull(attempts) ? JOB_NOT_QUEUED : attempts;
+    }
+
+    // the index is swapped in a single script, the records and statuses of the cleared jobs being deleted a batch at a time afterwards,
+    // so clearing a deep queue never blocks Valkey for long
+    @Override
+    public long trim() {
+        String clearedKey = jobStatuses.getClearedKey(indexKey);
+        List<String> keys = new ArrayList<>(getQueueKeys());
+        keys.add(clearedKey);
+        Long cleared = redisTemplate.execute(CLEAR_JOB_QUEUE, keys, String.valueOf(jobStatuses.getTtl().toMillis()));
+
+        List<String> jobIds = new ArrayList<>(clearBatchSize);
+        try (Cursor<Map.Entry<String, String>> cursor = redisTemplate.<String, String>opsForHash().scan(clearedKey, ScanOptions.scanOptions().count(clearBatchSize).build())) {
+            while (cursor.hasNext()) {
+                jobIds.add(cursor.next().getKey());
+                if (jobIds.size() >= clearBatchSize || !cursor.hasNext()) {
+                    deleteClearedJobs(clearedKey, jobIds);
+                    jobIds.clear();
+                }
+            }
+        }
+        redisTemplate.unlink(clearedKey);
+        return isNull(cleared) ? 0 : cleared;
+    }
+
+    @Override
+    public List<DeadLetterJob> rangeDeadLetters(String afterRecordId, Limit limit) {
+        Range<String> range = isNull(afterRecordId) ? Range.unbounded() : Range.of(Range.Bound.exclusive(afterRecordId), Range.Bound.unbounded());
+        List<ByteRecord> deadLetters = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands()
+                .xRange(deadLetterKey.getBytes(UTF_8), range, limit));
+        if (isNull(deadLetters)) {
+            return List.of();
+        }
+
+        return deadLetters.stream()
+                .map(this::toDeadLetterJob)
+                .toList();
+    }
+
+    @Override
+    public void deleteDeadLetters(List<String> recordIds) {
+        RecordId[] deadLetterIds = recordIds.stream().map(RecordId::of).toArray(RecordId[]::new);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.streamCommands()
+                .xDel(deadLetterKey.getBytes(UTF_8), deadLetterIds));
+    }
+
+    // the dead letter keeps the job fields along with the stream it came from, its attempts and its last error
+    private DeadLetterJob toDeadLetterJob(ByteRecord deadLetter) {
+        Map<String, String> details = new HashMap<>();
+        Map<byte[], byte[]> jobFields = new HashMap<>();
+        deadLetter.getValue().forEach((field, value) -> {
+            String name = new String(field, UTF_8);
+            if (name.equals(STREAM_FIELD) || name.equals(ATTEMPTS_FIELD) || name.equals(ERROR_FIELD)) {
+                details.put(name, new String(value, UTF_8));
+            } else {
+                jobFields.put(field, value);
+            }
+        });
+
+        String attempts = details.get(ATTEMPTS_FIELD);
+        return new DeadLetterJob(deadLetter.getId().getValue(), details.get(STREAM_FIELD), jobRecordMapper.fromHash(jobFields),
+                isNull(attempts) ? null : Long.valueOf(attempts), details.get(ERROR_FIELD));
+    }
+
+    private void deleteClearedJobs(String clearedKey, List<String> jobIds) {
+        redisTemplate.execute(DELETE_CLEARED_JOBS, jobStatuses.getDeleteClearedKeys(List.of(clearedKey, indexKey, delayedKey), jobIds),
+                jobStatuses.getDeleteClearedArgs(consumerGroupEnabled ? consumerGroupName : "", jobIds).toArray());
+    }
+
+    // a single round trip for the length and the oldest record of every stream, leaving out the completed records not trimmed yet
+    @Override
+    public List<StreamStats> getStreamStats(List<String> streamKeys) {
+        List<String> keys = new ArrayList<>(streamKeys);
+        keys.add(checkpointKey);
+        List<?> results = redisTemplate.execute(READ_STREAM_STATS, keys);
+        if (isNull(results)) {
+            return List.of();
+        }
+
+        List<StreamStats> streamStats = new ArrayList<>();
+        for (int i = 0; i < streamKeys.size() && 2 * i + 1 < results.size(); i++) {
+            if (results.get(2 * i) instanceof Long length) {
+                streamStats.add(new StreamStats(streamKeys.get(i), length,
+                        results.get(2 * i + 1) instanceof String oldestRecordId && !oldestRecordId.isEmpty()
+                                ? RecordId.of(oldestRecordId)
+                                : null));
+            }
+        }
+        return streamStats;
+    }
+
+    @Override
+    public void saveStatuses(List<JobState> jobStates) {
+        redisTemplate.execute(SAVE_JOB_STATUSES, RECORD_ARGS_SERIALIZER, ATTEMPTS_SERIALIZER,
+                jobStatuses.getSaveKeys(jobStates), jobStatuses.getSaveArgs(jobStates).toArray());
+    }
+
+    @Override
+    public JobState getStatus(Long jobId) {
+        return jobStatuses.fromHash(jobId, redisTemplate.<String, String>opsForHash().entries(jobStatuses.getStatusKey(jobId)));
+    }
+
+    @Override
+    public void deleteStatus(Long jobId) {
+        redisTemplate.delete(jobStatuses.getStatusKey(jobId));
+    }
+
+    @Override
+    public void publishEvent(String channel, String event) {
+        redisTemplate.convertAndSend(channel, event);
+    }
+
+    // the events are passed on in order from the thread of the subscription, so the listener should only hand them over
+    @Override
+    public synchronized void subscribeEvents(String channel, Consumer<String> listener) {
+        if (isNull(eventsListenerContainer)) {
+            eventsListenerContainer = new RedisMessageListenerContainer();
+            eventsListenerContainer.setConnectionFactory(redisTemplate.getRequiredConnectionFactory());
+            eventsListenerContainer.setTaskExecutor(new SyncTaskExecutor());
+            eventsListenerContainer.afterPropertiesSet();
+            eventsListenerContainer.start();
+        }
+        eventsListenerContainer.addMessageListener((message, pattern) -> listener.accept(new String(message.getBody(), UTF_8)),
+                new ChannelTopic(channel));
+    }
+
+    @PreDestroy
+    synchronized void closeEventsSubscription() throws Exception {
+        if (nonNull(eventsListenerContainer)) {
+            eventsListenerContainer.destroy();
+        }
+    }
+
+    @Override
+    public JobSubscriptions subscribe(StreamListener<String, ObjectRecord<String, JobDto>> listener) {
+        return redisStreamSubscriber.subscribe(listener);
+    }
+
+    // delayed jobs are still queued, so their keys come along with the streams
+    private List<String> getQueueKeys() {
+        List<String> keys = new ArrayList<>(jobStreams.getStreamKeys());
+        keys.addAll(List.of(runningKey, checkpointKey, delayedKey, delayedJobsKey, attemptsKey, indexKey));
+        return keys;
+    }
+}
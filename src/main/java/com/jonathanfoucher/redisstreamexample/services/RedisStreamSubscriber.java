@@ -0,0 +1,162 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.streams.AdaptiveStreamPoller;
+import com.jonathanfoucher.redisstreamexample.common.streams.AdaptiveStreamPoller.Lane;
+import com.jonathanfoucher.redisstreamexample.common.streams.AdaptiveStreamPoller.PollingOptions;
+import com.jonathanfoucher.redisstreamexample.common.streams.SupervisedSubscription;
+import com.jonathanfoucher.redisstreamexample.configs.JobSubscriptions;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.stream.StreamListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Objects.nonNull;
+
+@Service
+@Profile("!memory")
+@RequiredArgsConstructor
+@Slf4j
+public class RedisStreamSubscriber {
+    private final RedisTemplate<String, String> redisTemplate;
+    private final JobStreams jobStreams;
+    private final JobRecordMapper jobRecordMapper;
+
+    @Value("${redis-stream-example.checkpoint-key}")
+    private String checkpointKey;
+    @Value("${redis-stream-example.consumer-group.enabled:false}")
+    private boolean consumerGroupEnabled;
+    @Value("${redis-stream-example.consumer-group.name:job-consumers}")
+    private String consumerGroupName;
+    @Value("${redis-stream-example.consumer-group.claim-interval:30s}")
+    private Duration claimInterval;
+    @Value("${redis-stream-example.consumer-group.claim-min-idle:5m}")
+    private Duration claimMinIdle;
+    @Value("${redis-stream-example.executor.virtual-threads:false}")
+    private boolean virtualThreads;
+    @Value("${redis-stream-example.executor.polling-loops:1}")
+    private int pollingLoops;
+    @Value("${redis-stream-example.polling.max-batch-size:64}")
+    private int maxBatchSize;
+    @Value("${redis-stream-example.polling.min-poll-timeout:100ms}")
+    private Duration minPollTimeout;
+    @Value("${redis-stream-example.polling.max-poll-timeout:5s}")
+    private Duration maxPollTimeout;
+    @Value("${redis-stream-example.supervisor.min-backoff:1s}")
+    private Duration minBackoff;
+    @Value("${redis-stream-example.supervisor.max-backoff:1m}")
+    private Duration maxBackoff;
+    private final List<SupervisedSubscription<JobDto>> subscriptions = new CopyOnWriteArrayList<>();
+
+    public JobSubscriptions subscribe(StreamListener<String, ObjectRecord<String, JobDto>> listener) {
+        PollingOptions pollingOptions = new PollingOptions(maxBatchSize, minPollTimeout, maxPollTimeout, claimInterval, claimMinIdle);
+        SimpleAsyncTaskExecutor executor = createExecutor();
+
+        String consumerName = consumerGroupEnabled ? jobStreams.getConsumerName() : null;
+        // each partition is polled by its own subscriptions, reading the streams of every priority
+        for (int partition = 0; partition < jobStreams.getPartitions(); partition++) {
+            List<Lane> lanes = new ArrayList<>();
+            for (JobPriority priority : JobPriority.values()) {
+                String streamKey = jobStreams.getStreamKey(priority, partition);
+                ReadOffset offset;
+                if (consumerGroupEnabled) {
+                    createConsumerGroup(streamKey);
+                    offset = ReadOffset.lastConsumed();
+                } else {
+                    offset = readCheckpoint(streamKey);
+                    log.info("subscribing to stream {} from {}", streamKey, offset.getOffset());
+                }
+                lanes.add(new Lane(StreamOffset.create(streamKey, offset), jobStreams.getWeight(priority)));
+            }
+
+            if (consumerGroupEnabled) {
+                for (int loop = 0; loop < Math.max(pollingLoops, 1); loop++) {
+                    Consumer consumer = Consumer.from(consumerGroupName, pollingLoops > 1 ? consumerName + "-" + loop : consumerName);
+                    log.info("subscribing to streams {} as consumer {}", lanes.stream().map(lane -> lane.streamOffset().getKey()).toList(), consumer);
+
+                    // the consumer groups are lost along with the streams when Valkey restarts without persistence
+                    subscribe(executor, new AdaptiveStreamPoller<>(redisTemplate, jobRecordMapper, lanes, consumer, listener, pollingOptions),
+                            () -> lanes.forEach(lane -> createConsumerGroup(lane.streamOffset().getKey())));
+                }
+            } else {
+                subscribe(executor, new AdaptiveStreamPoller<>(redisTemplate, jobRecordMapper, lanes, null, listener, pollingOptions), () -> {
+                });
+            }
+        }
+
+        return new JobSubscriptions() {
+            @Override
+            public boolean isSubscriptionActive() {
+                return !subscriptions.isEmpty() && subscriptions.stream().allMatch(SupervisedSubscription::isActive);
+            }
+
+            @Override
+            public Duration getLongestStall() {
+                return subscriptions.stream()
+                        .map(SupervisedSubscription::getStalledFor)
+                        .max(Duration::compareTo)
+                        .orElse(Duration.ZERO);
+            }
+
+            @Override
+            public long getResubscriptions() {
+                return subscriptions.stream().mapToLong(SupervisedSubscription::getResubscriptions).sum();
+            }
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${redis-stream-example.supervisor.check-interval:1s}")
+    void superviseSubscriptions() {
+        subscriptions.forEach(SupervisedSubscription::supervise);
+    }
+
+    @PreDestroy
+    void cancelSubscriptions() {
+        subscriptions.forEach(SupervisedSubscription::cancel);
+    }
+
+    private void subscribe(SimpleAsyncTaskExecutor executor, AdaptiveStreamPoller<JobDto> poller, Runnable beforeResubscribe) {
+        SupervisedSubscription<JobDto> subscription = new SupervisedSubscription<>(poller, executor, beforeResubscribe, minBackoff, maxBackoff);
+        subscriptions.add(subscription);
+        subscription.start();
+    }
+
+    private SimpleAsyncTaskExecutor createExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("redis-stream-");
+        executor.setVirtualThreads(virtualThreads);
+        return executor;
+    }
+
+    private ReadOffset readCheckpoint(String streamKey) {
+        Object recordId = redisTemplate.opsForHash().get(checkpointKey, streamKey);
+        return nonNull(recordId) ? ReadOffset.from(recordId.toString()) : ReadOffset.from("0-0");
+    }
+
+    private void createConsumerGroup(String streamKey) {
+        try {
+            redisTemplate.opsForStream()
+                    .createGroup(streamKey, ReadOffset.from("0"), consumerGroupName);
+        } catch (DataAccessException e) {
+            if (!String.valueOf(e.getMostSpecificCause().getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+}
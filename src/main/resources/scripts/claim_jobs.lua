@@ -0,0 +1,17 @@
+-- KEYS[1]: stream key
+-- ARGV[1]: consumer group name, ARGV[2]: consumer name, ARGV[3]: min idle time in ms, ARGV[4]: max count
+local claimed = {}
+local pending = redis.call('XPENDING', KEYS[1], ARGV[1], 'IDLE', ARGV[3], '-', '+', ARGV[4])
+for _, entry in ipairs(pending) do
+    -- records of this consumer are either still in flight or read again from its pending list when it starts
+    if entry[2] ~= ARGV[2] then
+        local records = redis.call('XCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], entry[1])
+        if records[1] then
+            table.insert(claimed, entry[1])
+        else
+            -- the record was deleted while pending, so there is nothing left to process
+            redis.call('XACK', KEYS[1], ARGV[1], entry[1])
+        end
+    end
+end
+return claimed
@@ -0,0 +1,31 @@
+-- KEYS[1..n-7]: stream keys, KEYS[n-6]: running jobs key, KEYS[n-5]: consumer checkpoint key, KEYS[n-4]: delayed jobs schedule key, KEYS[n-3]: delayed jobs key,
+-- KEYS[n-2]: attempts key, KEYS[n-1]: job index key, KEYS[n]: cleared jobs key
+-- ARGV[1]: cleared jobs key time to live in ms
+-- returns the number of cleared jobs, whose index entries are moved to the cleared jobs key,
+-- their records and statuses being deleted afterwards by batches with delete_cleared_jobs.lua
+local runningKey, delayedKey, delayedJobsKey = KEYS[#KEYS - 6], KEYS[#KEYS - 4], KEYS[#KEYS - 3]
+local attemptsKey, indexKey, clearedKey = KEYS[#KEYS - 2], KEYS[#KEYS - 1], KEYS[#KEYS]
+if redis.call('EXISTS', indexKey) == 0 then
+    return 0
+end
+
+-- every job is marked as running when it starts, so only the started ones are kept, like remove_queued_job.lua refuses to remove them
+local running = redis.call('HGETALL', runningKey)
+local kept = {}
+for i = 1, #running, 2 do
+    if redis.call('HGET', indexKey, running[i]) == running[i + 1] then
+        table.insert(kept, { running[i], running[i + 1], redis.call('HGET', attemptsKey, running[i]) })
+    end
+end
+
+redis.call('RENAME', indexKey, clearedKey)
+redis.call('PEXPIRE', clearedKey, ARGV[1])
+redis.call('UNLINK', delayedKey, delayedJobsKey, attemptsKey)
+for _, job in ipairs(kept) do
+    redis.call('HDEL', clearedKey, job[1])
+    redis.call('HSET', indexKey, job[1], job[2])
+    if job[3] then
+        redis.call('HSET', attemptsKey, job[1], job[3])
+    end
+end
+return redis.call('HLEN', clearedKey)
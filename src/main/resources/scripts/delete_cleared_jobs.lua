@@ -0,0 +1,24 @@
+-- KEYS[1]: cleared jobs key, KEYS[2]: job index key, KEYS[3]: delayed jobs schedule key, KEYS[4..n]: job status keys
+-- ARGV[1]: consumer group name (empty when disabled), ARGV[2..n]: job ids, in the order of their status keys
+-- returns the number of deleted records
+local deleted = 0
+for i = 2, #ARGV do
+    local entry = redis.call('HGET', KEYS[1], ARGV[i])
+    if entry then
+        local streamKey, recordId = string.match(entry, '^(.*)|([^|]*)$')
+        -- delayed jobs have no record, their schedule being dropped along with the queue
+        if streamKey ~= KEYS[3] then
+            deleted = deleted + redis.call('XDEL', streamKey, recordId)
+            -- a record delivered to a consumer that didn't start it yet is acknowledged, since it is skipped once its turn comes
+            if ARGV[1] ~= '' then
+                redis.pcall('XACK', streamKey, ARGV[1], recordId)
+            end
+        end
+        -- the job may have been queued again since the queue was cleared, along with a new status
+        if redis.call('HEXISTS', KEYS[2], ARGV[i]) == 0 then
+            redis.call('UNLINK', KEYS[i + 2])
+        end
+        redis.call('HDEL', KEYS[1], ARGV[i])
+    end
+end
+return deleted
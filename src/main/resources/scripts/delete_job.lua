@@ -0,0 +1,58 @@
+-- KEYS[1]: stream key, KEYS[2]: job index key, KEYS[3]: consumer checkpoint key, KEYS[4]: attempts key, KEYS[5]: history stream key,
+-- KEYS[6]: running jobs key
+-- ARGV[1]: record id, ARGV[2]: job id, ARGV[3]: consumer group name (empty when disabled), ARGV[4]: retention ('1' when enabled),
+-- ARGV[5]: history max length (0 when disabled), ARGV[6]: checkpoint, the newest record id of the stream with every older one completed,
+-- empty while an older one is still running (without consumer group only)
+local function isBefore(recordId, otherRecordId)
+    local ms, seq = string.match(recordId, '^(%d+)-(%d+)$')
+    local otherMs, otherSeq = string.match(otherRecordId, '^(%d+)-(%d+)$')
+    return tonumber(ms) < tonumber(otherMs) or (ms == otherMs and tonumber(seq) < tonumber(otherSeq))
+end
+
+-- records completed by concurrent jobs can report their checkpoints out of order, so the checkpoint never moves back
+local function advanceCheckpoint(checkpoint)
+    local current = redis.call('HGET', KEYS[3], KEYS[1])
+    if not current or isBefore(current, checkpoint) then
+        redis.call('HSET', KEYS[3], KEYS[1], checkpoint)
+    end
+end
+
+local completed = redis.call('HGET', KEYS[2], ARGV[2]) == KEYS[1] .. '|' .. ARGV[1]
+if redis.call('HGET', KEYS[6], ARGV[2]) == KEYS[1] .. '|' .. ARGV[1] then
+    redis.call('HDEL', KEYS[6], ARGV[2])
+end
+local checkpoint = ARGV[1]
+local trimmable
+if ARGV[3] ~= '' then
+    redis.call('XACK', KEYS[1], ARGV[3], ARGV[1])
+    local pending = redis.call('XPENDING', KEYS[1], ARGV[3])
+    trimmable = not (pending[1] > 0 and isBefore(pending[2], ARGV[1]))
+else
+    -- without consumer group, the checkpoint only moves past the records completed out of order once every older one is completed
+    checkpoint = ARGV[6]
+    trimmable = checkpoint ~= '' and not isBefore(checkpoint, ARGV[1])
+end
+
+local deleted = 1
+if ARGV[4] ~= '' and trimmable then
+    -- completed records are trimmed along with whole nodes instead of leaving a tombstone each,
+    -- until then the checkpoint tells them apart from the queued ones
+    local ms, seq = string.match(checkpoint, '^(%d+)-(%d+)$')
+    advanceCheckpoint(checkpoint)
+    redis.call('XTRIM', KEYS[1], 'MINID', '~', ms .. '-' .. (tonumber(seq) + 1))
+else
+    -- a record completed while an older one is still running can't be trimmed, so it is deleted right away
+    if ARGV[3] == '' and checkpoint ~= '' then
+        advanceCheckpoint(checkpoint)
+    end
+    deleted = redis.call('XDEL', KEYS[1], ARGV[1])
+end
+
+if completed then
+    redis.call('HDEL', KEYS[2], ARGV[2])
+    redis.call('HDEL', KEYS[4], ARGV[2])
+    if tonumber(ARGV[5]) > 0 then
+        redis.call('XADD', KEYS[5], 'MAXLEN', '~', ARGV[5], '*', 'job_id', ARGV[2], 'stream', KEYS[1], 'record_id', ARGV[1])
+    end
+end
+return deleted
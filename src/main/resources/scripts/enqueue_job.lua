@@ -0,0 +1,30 @@
+-- KEYS[1]: stream key, KEYS[2]: job index key, KEYS[3]: delayed jobs schedule key, KEYS[4]: delayed jobs key, KEYS[5]: job status key
+-- ARGV[1]: status time to live in ms, ARGV[2]: job id, ARGV[3]: due time in epoch ms (empty when not set), ARGV[4]: delay in ms (empty when not set),
+-- ARGV[5..n]: record field / value pairs
+-- returns the record id, the due time in epoch ms when the job is delayed, or false when the job was already queued
+if redis.call('HEXISTS', KEYS[2], ARGV[2]) == 1 then
+    return false
+end
+
+-- the queued status is written along with the job, so it never overwrites the one of a consumer that already started it
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+redis.call('DEL', KEYS[5])
+redis.call('HSET', KEYS[5], 'status', 'QUEUED', 'queued_at', now)
+redis.call('PEXPIRE', KEYS[5], ARGV[1])
+
+if ARGV[3] ~= '' or ARGV[4] ~= '' then
+    local dueAt = tonumber(ARGV[3])
+    if not dueAt then
+        dueAt = now + tonumber(ARGV[4])
+    end
+
+    redis.call('ZADD', KEYS[3], dueAt, ARGV[2])
+    redis.call('HSET', KEYS[4], ARGV[2], cmsgpack.pack({ KEYS[1], unpack(ARGV, 5) }))
+    redis.call('HSET', KEYS[2], ARGV[2], KEYS[3] .. '|' .. ARGV[2])
+    return tostring(dueAt)
+end
+
+local recordId = redis.call('XADD', KEYS[1], '*', unpack(ARGV, 5))
+redis.call('HSET', KEYS[2], ARGV[2], KEYS[1] .. '|' .. recordId)
+return recordId
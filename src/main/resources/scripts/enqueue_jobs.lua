@@ -0,0 +1,44 @@
+-- KEYS[1]: stream key, KEYS[2]: job index key, KEYS[3]: delayed jobs schedule key, KEYS[4]: delayed jobs key,
+-- KEYS[5..n]: the status key of each job
+-- ARGV[1]: status time to live in ms, then for each job, its id, its due time in epoch ms and its delay in ms (empty when not set),
+-- its number of record fields then the record field / value pairs
+-- returns for each job its record id, its due time in epoch ms when delayed, or an empty value when it was already queued,
+-- joined by commas so the reply is a single string
+local results = {}
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local function saveQueuedStatus(statusKey)
+    redis.call('DEL', statusKey)
+    redis.call('HSET', statusKey, 'status', 'QUEUED', 'queued_at', now)
+    redis.call('PEXPIRE', statusKey, ARGV[1])
+end
+
+local i = 2
+while i <= #ARGV do
+    local jobId = ARGV[i]
+    local fieldCount = tonumber(ARGV[i + 3])
+
+    if redis.call('HEXISTS', KEYS[2], jobId) == 1 then
+        results[#results + 1] = ''
+    elseif ARGV[i + 1] ~= '' or ARGV[i + 2] ~= '' then
+        local dueAt = tonumber(ARGV[i + 1])
+        if not dueAt then
+            dueAt = now + tonumber(ARGV[i + 2])
+        end
+
+        redis.call('ZADD', KEYS[3], dueAt, jobId)
+        redis.call('HSET', KEYS[4], jobId, cmsgpack.pack({ KEYS[1], unpack(ARGV, i + 4, i + 3 + fieldCount) }))
+        redis.call('HSET', KEYS[2], jobId, KEYS[3] .. '|' .. jobId)
+        saveQueuedStatus(KEYS[5 + #results])
+        results[#results + 1] = tostring(dueAt)
+    else
+        local recordId = redis.call('XADD', KEYS[1], '*', unpack(ARGV, i + 4, i + 3 + fieldCount))
+        redis.call('HSET', KEYS[2], jobId, KEYS[1] .. '|' .. recordId)
+        saveQueuedStatus(KEYS[5 + #results])
+        results[#results + 1] = recordId
+    end
+
+    i = i + 4 + fieldCount
+end
+return table.concat(results, ',')
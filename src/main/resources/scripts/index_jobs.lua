@@ -0,0 +1,11 @@
+-- KEYS[1]: stream key, KEYS[2]: job index key
+-- ARGV[1..n]: record id / job id pairs
+-- returns the number of jobs indexed
+local indexed = 0
+for i = 1, #ARGV, 2 do
+    -- a record completed since it was read is left out, and a job queued again meanwhile keeps its entry
+    if redis.call('XRANGE', KEYS[1], ARGV[i], ARGV[i], 'COUNT', 1)[1] then
+        indexed = indexed + redis.call('HSETNX', KEYS[2], ARGV[i + 1], KEYS[1] .. '|' .. ARGV[i])
+    end
+end
+return indexed
@@ -0,0 +1,28 @@
+-- KEYS[1]: delayed jobs schedule key, KEYS[2]: delayed jobs key, KEYS[3]: job index key, KEYS[4]: default stream key, KEYS[5..n]: stream keys
+-- ARGV[1]: max count
+-- returns the number of jobs added to their stream
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local promoted = 0
+for _, jobId in ipairs(redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', now, 'LIMIT', 0, ARGV[1])) do
+    local payload = redis.call('HGET', KEYS[2], jobId)
+    redis.call('ZREM', KEYS[1], jobId)
+    redis.call('HDEL', KEYS[2], jobId)
+
+    if payload then
+        local record = cmsgpack.unpack(payload)
+        -- jobs of a stream that no longer exists, e.g. after changing the partitions, go to the default one
+        local streamKey = KEYS[4]
+        for i = 4, #KEYS do
+            if KEYS[i] == record[1] then
+                streamKey = record[1]
+            end
+        end
+
+        local recordId = redis.call('XADD', streamKey, '*', unpack(record, 2))
+        redis.call('HSET', KEYS[3], jobId, streamKey .. '|' .. recordId)
+        promoted = promoted + 1
+    end
+end
+return promoted
@@ -0,0 +1,18 @@
+-- KEYS[1..n-1]: stream keys, KEYS[n]: consumer checkpoint key
+-- returns the number of queued records of each stream followed by the id of the oldest one (empty when there is none)
+local stats = {}
+for i = 1, #KEYS - 1 do
+    -- completed records kept until their node is trimmed, at most a node worth of them, are not queued anymore
+    local checkpoint = redis.call('HGET', KEYS[#KEYS], KEYS[i])
+    local start, completed = '-', 0
+    if checkpoint then
+        local ms, seq = string.match(checkpoint, '^(%d+)-(%d+)$')
+        start = ms .. '-' .. (tonumber(seq) + 1)
+        completed = #redis.call('XRANGE', KEYS[i], '-', checkpoint)
+    end
+
+    local oldest = redis.call('XRANGE', KEYS[i], start, '+', 'COUNT', 1)
+    table.insert(stats, redis.call('XLEN', KEYS[i]) - completed)
+    table.insert(stats, oldest[1] and oldest[1][1] or '')
+end
+return stats
@@ -0,0 +1,56 @@
+-- KEYS[1..n-6]: stream keys, KEYS[n-5]: running jobs key, KEYS[n-4]: consumer checkpoint key, KEYS[n-3]: delayed jobs schedule key, KEYS[n-2]: delayed jobs key,
+-- KEYS[n-1]: attempts key, KEYS[n]: job index key
+-- ARGV[1]: job id, ARGV[2]: consumer group name (optional)
+-- returns 1 when the job was removed, 0 when it isn't queued and -1 when it is running
+local runningKey, checkpointKey = KEYS[#KEYS - 5], KEYS[#KEYS - 4]
+local delayedKey, delayedJobsKey, attemptsKey, indexKey = KEYS[#KEYS - 3], KEYS[#KEYS - 2], KEYS[#KEYS - 1], KEYS[#KEYS]
+local entry = redis.call('HGET', indexKey, ARGV[1])
+if not entry then
+    return 0
+end
+
+local streamKey, recordId = string.match(entry, '^(.*)|([^|]*)$')
+if streamKey == delayedKey then
+    redis.call('ZREM', delayedKey, ARGV[1])
+    redis.call('HDEL', delayedJobsKey, ARGV[1])
+    redis.call('HDEL', attemptsKey, ARGV[1])
+    return redis.call('HDEL', indexKey, ARGV[1])
+end
+
+local declared = false
+for i = 1, #KEYS - 6 do
+    if KEYS[i] == streamKey then
+        declared = true
+    end
+end
+if not declared then
+    return 0
+end
+
+-- jobs handed over to the dispatcher run out of stream order, so they are marked as running when they start
+if redis.call('HGET', runningKey, ARGV[1]) == entry then
+    return -1
+end
+
+if ARGV[2] then
+    -- with a consumer group, running jobs are the ones delivered to a consumer and not acknowledged yet
+    if #redis.call('XPENDING', streamKey, ARGV[2], recordId, recordId, 1) > 0 then
+        return -1
+    end
+else
+    -- completed records kept until their node is trimmed come before the checkpoint
+    local checkpoint = redis.call('HGET', checkpointKey, streamKey)
+    local start = '-'
+    if checkpoint then
+        local ms, seq = string.match(checkpoint, '^(%d+)-(%d+)$')
+        start = ms .. '-' .. (tonumber(seq) + 1)
+    end
+    local head = redis.call('XRANGE', streamKey, start, '+', 'COUNT', 1)
+    if head[1] and head[1][1] == recordId then
+        return -1
+    end
+end
+
+redis.call('HDEL', indexKey, ARGV[1])
+redis.call('HDEL', attemptsKey, ARGV[1])
+return redis.call('XDEL', streamKey, recordId)
@@ -0,0 +1,73 @@
+-- KEYS[1]: stream key, KEYS[2]: job index key, KEYS[3]: consumer checkpoint key, KEYS[4]: delayed jobs schedule key,
+-- KEYS[5]: delayed jobs key, KEYS[6]: attempts key, KEYS[7]: dead letter stream key,
+-- KEYS[8]: running jobs key
+-- ARGV[1]: record id, ARGV[2]: job id, ARGV[3]: max attempts, ARGV[4]: initial delay in ms, ARGV[5]: max delay in ms,
+-- ARGV[6]: error, ARGV[7]: consumer group name (empty when disabled), ARGV[8]: retention ('1' when enabled),
+-- ARGV[9]: checkpoint (empty while an older record is still running, see delete_job.lua), ARGV[10]: dead letter max length (0 when unbounded),
+-- ARGV[11..n]: record field / value pairs
+-- returns the number of failed attempts, -1 when the job was dead lettered and 0 when it was removed meanwhile
+local function isBefore(recordId, otherRecordId)
+    local ms, seq = string.match(recordId, '^(%d+)-(%d+)$')
+    local otherMs, otherSeq = string.match(otherRecordId, '^(%d+)-(%d+)$')
+    return tonumber(ms) < tonumber(otherMs) or (ms == otherMs and tonumber(seq) < tonumber(otherSeq))
+end
+
+local function advanceCheckpoint(checkpoint)
+    local current = redis.call('HGET', KEYS[3], KEYS[1])
+    if not current or isBefore(current, checkpoint) then
+        redis.call('HSET', KEYS[3], KEYS[1], checkpoint)
+    end
+end
+
+if redis.call('HGET', KEYS[8], ARGV[2]) == KEYS[1] .. '|' .. ARGV[1] then
+    redis.call('HDEL', KEYS[8], ARGV[2])
+end
+
+-- the failed record leaves its stream the same way as a completed one, see delete_job.lua
+local checkpoint = ARGV[1]
+local trimmable
+if ARGV[7] ~= '' then
+    redis.call('XACK', KEYS[1], ARGV[7], ARGV[1])
+    local pending = redis.call('XPENDING', KEYS[1], ARGV[7])
+    trimmable = not (pending[1] > 0 and isBefore(pending[2], ARGV[1]))
+else
+    checkpoint = ARGV[9]
+    trimmable = checkpoint ~= '' and not isBefore(checkpoint, ARGV[1])
+end
+
+if ARGV[8] ~= '' and trimmable then
+    local ms, seq = string.match(checkpoint, '^(%d+)-(%d+)$')
+    advanceCheckpoint(checkpoint)
+    redis.call('XTRIM', KEYS[1], 'MINID', '~', ms .. '-' .. (tonumber(seq) + 1))
+else
+    if ARGV[7] == '' and checkpoint ~= '' then
+        advanceCheckpoint(checkpoint)
+    end
+    redis.call('XDEL', KEYS[1], ARGV[1])
+end
+
+if redis.call('HGET', KEYS[2], ARGV[2]) ~= KEYS[1] .. '|' .. ARGV[1] then
+    return 0
+end
+
+local attempts = redis.call('HINCRBY', KEYS[6], ARGV[2], 1)
+if attempts >= tonumber(ARGV[3]) then
+    if tonumber(ARGV[10]) > 0 then
+        redis.call('XADD', KEYS[7], 'MAXLEN', '~', ARGV[10], '*', 'stream', KEYS[1], 'attempts', attempts, 'error', ARGV[6], unpack(ARGV, 11))
+    else
+        redis.call('XADD', KEYS[7], '*', 'stream', KEYS[1], 'attempts', attempts, 'error', ARGV[6], unpack(ARGV, 11))
+    end
+    redis.call('HDEL', KEYS[2], ARGV[2])
+    redis.call('HDEL', KEYS[6], ARGV[2])
+    return -1
+end
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local delay = math.min(tonumber(ARGV[4]) * 2 ^ (attempts - 1), tonumber(ARGV[5]))
+
+-- the job leaves its stream while waiting, so it doesn't hold back the jobs behind it
+redis.call('ZADD', KEYS[4], math.floor(now + delay), ARGV[2])
+redis.call('HSET', KEYS[5], ARGV[2], cmsgpack.pack({ KEYS[1], unpack(ARGV, 11) }))
+redis.call('HSET', KEYS[2], ARGV[2], KEYS[4] .. '|' .. ARGV[2])
+return attempts
@@ -0,0 +1,22 @@
+-- KEYS[1..n]: job status keys
+-- ARGV[1]: time to live in ms, then for each job: whether its status replaces the previous one ('1' or empty),
+-- its number of fields and its field / value pairs
+-- a status that doesn't replace the previous one is only merged into it, so the status of a job removed meanwhile isn't brought back
+-- returns the number of statuses saved
+local saved = 0
+local arg = 2
+for _, key in ipairs(KEYS) do
+    local replace, count = ARGV[arg], tonumber(ARGV[arg + 1])
+    if replace ~= '' then
+        redis.call('DEL', key)
+    end
+    if replace ~= '' or redis.call('EXISTS', key) == 1 then
+        if count > 0 then
+            redis.call('HSET', key, unpack(ARGV, arg + 2, arg + 1 + 2 * count))
+        end
+        redis.call('PEXPIRE', key, ARGV[1])
+        saved = saved + 1
+    end
+    arg = arg + 2 + 2 * count
+end
+return saved
@@ -0,0 +1,10 @@
+-- KEYS[1]: job index key, KEYS[2]: running jobs key
+-- ARGV[1]: record id, ARGV[2]: job id, ARGV[3]: stream key
+-- returns 1 when the job is marked as running and 0 when it was removed from the queue meanwhile
+local entry = ARGV[3] .. '|' .. ARGV[1]
+if redis.call('HGET', KEYS[1], ARGV[2]) ~= entry then
+    return 0
+end
+
+redis.call('HSET', KEYS[2], ARGV[2], entry)
+return 1
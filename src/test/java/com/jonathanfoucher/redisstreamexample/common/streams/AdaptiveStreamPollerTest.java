@@ -0,0 +1,279 @@
+package com.jonathanfoucher.redisstreamexample.common.streams;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.hash.HashMapper;
+import org.springframework.data.redis.stream.StreamListener;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// the reads are answered by a mocked template, so the poller runs on its own thread without Valkey
+class AdaptiveStreamPollerTest {
+    private RedisTemplate<String, String> redisTemplate;
+    private HashMapper<String, byte[], byte[]> hashMapper;
+    private ExecutorService executor;
+
+    private static final String HIGH_STREAM_NAME = "job_queue:high";
+    private static final String STREAM_NAME = "job_queue";
+    private static final String LOW_STREAM_NAME = "job_queue:low";
+    private static final String JOB = "some job";
+    private static final Consumer CONSUMER = Consumer.from("job_consumers", "consumer-1");
+    private static final AdaptiveStreamPoller.PollingOptions POLLING_OPTIONS = new AdaptiveStreamPoller.PollingOptions(
+            1, Duration.ofMillis(10), Duration.ofMillis(10), Duration.ZERO, Duration.ZERO);
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void beforeEach() {
+        redisTemplate = mock(RedisTemplate.class);
+        hashMapper = mock(HashMapper.class);
+        executor = Executors.newSingleThreadExecutor();
+        when(hashMapper.fromHash(any()))
+                .thenReturn(JOB);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void noStallWhileJobRunning() throws InterruptedException {
+        // GIVEN
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenReturn(List.of(initByteRecord(STREAM_NAME, 1)))
+                .thenReturn(null);
+        CountDownLatch jobStarted = new CountDownLatch(1);
+        CountDownLatch jobFinished = new CountDownLatch(1);
+        StreamListener<String, ObjectRecord<String, String>> listener = jobRecord -> {
+            jobStarted.countDown();
+            try {
+                jobFinished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        AdaptiveStreamPoller<String> poller = initPoller(listener, STREAM_NAME);
+
+        // WHEN
+        executor.execute(poller);
+
+        // THEN
+        assertTrue(jobStarted.await(1, TimeUnit.SECONDS));
+        // the job runs for longer than the poll timeout without the subscription being reported as stalled
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(Duration.ZERO, poller.getStalledFor());
+
+        jobFinished.countDown();
+        poller.cancel();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void stallWhileStuckOnRead() throws InterruptedException {
+        // GIVEN
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch readFinished = new CountDownLatch(1);
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> {
+                    readStarted.countDown();
+                    readFinished.await();
+                    return null;
+                });
+        AdaptiveStreamPoller<String> poller = initPoller(jobRecord -> {
+        }, STREAM_NAME);
+
+        // WHEN
+        executor.execute(poller);
+
+        // THEN
+        assertTrue(readStarted.await(1, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(poller.getStalledFor().compareTo(Duration.ofMillis(50)) > 0);
+
+        poller.cancel();
+        readFinished.countDown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void readLanesByWeightOneRecordAtATime() throws InterruptedException {
+        // GIVEN
+        // every lane has a backlog deeper than what is read, each read returning as many records as requested
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStreamCommands streamCommands = mock(RedisStreamCommands.class);
+        when(connection.streamCommands())
+                .thenReturn(streamCommands);
+        AtomicLong sequence = new AtomicLong();
+        when(streamCommands.xRead(any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenAnswer(invocation -> {
+                    StreamReadOptions options = invocation.getArgument(0);
+                    StreamOffset<byte[]> streamOffset = ((StreamOffset<byte[]>[]) invocation.getRawArguments()[1])[0];
+                    String streamKey = new String(streamOffset.getKey(), UTF_8);
+                    return LongStream.range(0, options.getCount())
+                            .mapToObj(ignored -> initByteRecord(streamKey, sequence.incrementAndGet()))
+                            .toList();
+                });
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+
+        int expectedRecords = 70;
+        List<String> consumedStreamKeys = new CopyOnWriteArrayList<>();
+        CountDownLatch consumed = new CountDownLatch(expectedRecords);
+        AdaptiveStreamPoller<String> poller = new AdaptiveStreamPoller<>(redisTemplate, hashMapper, List.of(
+                new AdaptiveStreamPoller.Lane(StreamOffset.fromStart(HIGH_STREAM_NAME), 4),
+                new AdaptiveStreamPoller.Lane(StreamOffset.fromStart(STREAM_NAME), 2),
+                new AdaptiveStreamPoller.Lane(StreamOffset.fromStart(LOW_STREAM_NAME), 1)
+        ), null, jobRecord -> {
+            consumedStreamKeys.add(jobRecord.getStream());
+            consumed.countDown();
+        }, POLLING_OPTIONS);
+
+        // WHEN
+        executor.execute(poller);
+
+        // THEN
+        assertTrue(consumed.await(1, TimeUnit.SECONDS));
+        poller.cancel();
+
+        // with a batch size of 1, the lanes still share the records by their weights
+        // the poller may still deliver a record after the cancel, so the list is copied before taking the first ones
+        List<String> firstStreamKeys = List.copyOf(consumedStreamKeys).subList(0, expectedRecords);
+        assertEquals(40, Collections.frequency(firstStreamKeys, HIGH_STREAM_NAME));
+        assertEquals(20, Collections.frequency(firstStreamKeys, STREAM_NAME));
+        assertEquals(10, Collections.frequency(firstStreamKeys, LOW_STREAM_NAME));
+        verify(streamCommands, atLeast(expectedRecords))
+                .xRead(argThat(options -> options.getCount() == 1), any(StreamOffset[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void readPendingRecordsOnce() throws InterruptedException {
+        // GIVEN
+        // the pending list holds the records read before a restart, which stay pending while their jobs are in flight
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStreamCommands streamCommands = mock(RedisStreamCommands.class);
+        when(connection.streamCommands())
+                .thenReturn(streamCommands);
+        List<ByteRecord> pendingRecords = List.of(initByteRecord(STREAM_NAME, 1), initByteRecord(STREAM_NAME, 2), initByteRecord(STREAM_NAME, 3));
+        when(streamCommands.xReadGroup(eq(CONSUMER), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenAnswer(invocation -> {
+                    StreamOffset<byte[]> streamOffset = ((StreamOffset<byte[]>[]) invocation.getRawArguments()[2])[0];
+                    return readAfter(pendingRecords, streamOffset.getOffset(), invocation.getArgument(1));
+                });
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+
+        // the jobs are dispatched to run in the background, so the listener returns without acknowledging them
+        List<RecordId> dispatchedIds = new CopyOnWriteArrayList<>();
+        HandOffStreamListener<String, ObjectRecord<String, String>> listener = jobRecord -> dispatchedIds.add(jobRecord.getId());
+        AdaptiveStreamPoller<String> poller = new AdaptiveStreamPoller<>(redisTemplate, hashMapper,
+                List.of(new AdaptiveStreamPoller.Lane(StreamOffset.create(STREAM_NAME, ReadOffset.lastConsumed()), 1)),
+                CONSUMER, listener, POLLING_OPTIONS);
+
+        // WHEN
+        executor.execute(poller);
+
+        // THEN
+        TimeUnit.MILLISECONDS.sleep(200);
+        poller.cancel();
+        assertEquals(pendingRecords.stream().map(ByteRecord::getId).toList(), dispatchedIds);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void readRecordAgainAfterHandOffDeclined() throws InterruptedException {
+        // GIVEN
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStreamCommands streamCommands = mock(RedisStreamCommands.class);
+        when(connection.streamCommands())
+                .thenReturn(streamCommands);
+        List<ByteRecord> records = List.of(initByteRecord(STREAM_NAME, 1), initByteRecord(STREAM_NAME, 2));
+        when(streamCommands.xRead(any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenAnswer(invocation -> {
+                    StreamOffset<byte[]> streamOffset = ((StreamOffset<byte[]>[]) invocation.getRawArguments()[1])[0];
+                    return readAfter(records, streamOffset.getOffset(), invocation.getArgument(0));
+                });
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+
+        // the first record is turned down, as if the dispatcher was closed
+        AtomicInteger handOffs = new AtomicInteger();
+        List<RecordId> handedOffIds = new CopyOnWriteArrayList<>();
+        HandOffStreamListener<String, ObjectRecord<String, String>> listener = jobRecord -> {
+            if (handOffs.getAndIncrement() == 0) {
+                return false;
+            }
+            handedOffIds.add(jobRecord.getId());
+            return true;
+        };
+        AdaptiveStreamPoller<String> poller = initPoller(listener, STREAM_NAME);
+
+        // WHEN
+        executor.execute(poller);
+        TimeUnit.MILLISECONDS.sleep(100);
+        boolean stopped = poller.isStopped();
+        AdaptiveStreamPoller<String> resubscribedPoller = poller.resubscribe();
+        executor.execute(resubscribedPoller);
+
+        // THEN
+        assertTrue(stopped);
+        TimeUnit.MILLISECONDS.sleep(100);
+        resubscribedPoller.cancel();
+        assertEquals(records.stream().map(ByteRecord::getId).toList(), handedOffIds);
+    }
+
+    private AdaptiveStreamPoller<String> initPoller(StreamListener<String, ObjectRecord<String, String>> listener, String... streamKeys) {
+        List<AdaptiveStreamPoller.Lane> lanes = Arrays.stream(streamKeys)
+                .map(streamKey -> new AdaptiveStreamPoller.Lane(StreamOffset.fromStart(streamKey), 1))
+                .toList();
+        return new AdaptiveStreamPoller<>(redisTemplate, hashMapper, lanes, null, listener, POLLING_OPTIONS);
+    }
+
+    // the records past the offset, or none for the new records of a consumer group
+    private List<ByteRecord> readAfter(List<ByteRecord> records, ReadOffset offset, StreamReadOptions options) {
+        if (ReadOffset.lastConsumed().equals(offset)) {
+            return null;
+        }
+        long sequence = RecordId.of(offset.getOffset()).getSequence();
+        return records.stream()
+                .filter(jobRecord -> jobRecord.getId().getSequence() > sequence)
+                .limit(options.getCount())
+                .toList();
+    }
+
+    private ByteRecord initByteRecord(String streamKey, long sequence) {
+        return StreamRecords.rawBytes(Map.of("job".getBytes(UTF_8), JOB.getBytes(UTF_8)))
+                .withStreamKey(streamKey.getBytes(UTF_8))
+                .withId(RecordId.of(1, sequence));
+    }
+}
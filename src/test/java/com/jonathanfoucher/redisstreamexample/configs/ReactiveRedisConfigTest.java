@@ -0,0 +1,154 @@
+package com.jonathanfoucher.redisstreamexample.configs;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.services.ReactiveJobConsumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// the subscriptions bean needs a live connection factory, so the pipeline of a stream is fed with records directly
+class ReactiveRedisConfigTest {
+    private ReactiveRedisConfig reactiveRedisConfig;
+    private ReactiveJobConsumer reactiveJobConsumer;
+
+    private static final String STREAM_NAME = "job_queue";
+    private static final String MIN_BACKOFF_VAR = "minBackoff";
+    private static final String MAX_BACKOFF_VAR = "maxBackoff";
+    private static final String SUBSCRIPTIONS_VAR = "subscriptions";
+    private static final long JOB_ID = 15L;
+    private static final long OTHER_JOB_ID = 16L;
+
+    @BeforeEach
+    void beforeEach() {
+        reactiveRedisConfig = new ReactiveRedisConfig();
+        reactiveJobConsumer = mock(ReactiveJobConsumer.class);
+        ReflectionTestUtils.setField(reactiveRedisConfig, MIN_BACKOFF_VAR, Duration.ofMillis(10));
+        ReflectionTestUtils.setField(reactiveRedisConfig, MAX_BACKOFF_VAR, Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    @SuppressWarnings("unchecked")
+    void afterEach() {
+        ((List<Disposable>) ReflectionTestUtils.getField(reactiveRedisConfig, SUBSCRIPTIONS_VAR))
+                .forEach(Disposable::dispose);
+    }
+
+    @Test
+    void consumeJobRecords() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = initJobRecord(JOB_ID, 0);
+        ObjectRecord<String, JobDto> otherJobRecord = initJobRecord(OTHER_JOB_ID, 1);
+        when(reactiveJobConsumer.onMessage(any()))
+                .thenReturn(Mono.empty());
+
+        // WHEN
+        reactiveRedisConfig.subscribe(STREAM_NAME, Flux.just(jobRecord, otherJobRecord).concatWith(Flux.never()), reactiveJobConsumer);
+
+        // THEN
+        InOrder inOrder = inOrder(reactiveJobConsumer);
+        inOrder.verify(reactiveJobConsumer, timeout(1000)).onMessage(jobRecord);
+        inOrder.verify(reactiveJobConsumer, timeout(1000)).onMessage(otherJobRecord);
+        assertTrue(reactiveRedisConfig.isSubscriptionActive());
+        assertEquals(0, reactiveRedisConfig.getResubscriptions());
+    }
+
+    @Test
+    void consumeJobRecordsOneAtATime() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = initJobRecord(JOB_ID, 0);
+        ObjectRecord<String, JobDto> otherJobRecord = initJobRecord(OTHER_JOB_ID, 1);
+        when(reactiveJobConsumer.onMessage(jobRecord))
+                .thenReturn(Mono.never());
+
+        // WHEN
+        reactiveRedisConfig.subscribe(STREAM_NAME, Flux.just(jobRecord, otherJobRecord), reactiveJobConsumer);
+
+        // THEN
+        verify(reactiveJobConsumer, timeout(1000)).onMessage(jobRecord);
+        verify(reactiveJobConsumer, after(100).never()).onMessage(otherJobRecord);
+    }
+
+    @Test
+    void resubscribeAfterReadFailure() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = initJobRecord(JOB_ID, 0);
+        when(reactiveJobConsumer.onMessage(any()))
+                .thenReturn(Mono.empty());
+        // the first read fails as if the connection to Valkey was lost
+        AtomicInteger reads = new AtomicInteger();
+        Flux<ObjectRecord<String, JobDto>> jobRecords = Flux.defer(() -> reads.getAndIncrement() == 0
+                ? Flux.error(new RedisConnectionFailureException("connection lost"))
+                : Flux.just(jobRecord).concatWith(Flux.never()));
+
+        // WHEN
+        reactiveRedisConfig.subscribe(STREAM_NAME, jobRecords, reactiveJobConsumer);
+
+        // THEN
+        verify(reactiveJobConsumer, timeout(1000)).onMessage(jobRecord);
+        assertEquals(1, reactiveRedisConfig.getResubscriptions());
+        assertTrue(reactiveRedisConfig.isSubscriptionActive());
+        assertEquals(Duration.ZERO, reactiveRedisConfig.getLongestStall());
+    }
+
+    @Test
+    void stallWhileReadsFail() {
+        // GIVEN
+        Flux<ObjectRecord<String, JobDto>> jobRecords = Flux.error(new RedisConnectionFailureException("connection lost"));
+
+        // WHEN
+        reactiveRedisConfig.subscribe(STREAM_NAME, jobRecords, reactiveJobConsumer);
+
+        // THEN
+        verify(reactiveJobConsumer, after(100).never()).onMessage(any());
+        assertTrue(reactiveRedisConfig.getResubscriptions() > 0);
+        assertTrue(reactiveRedisConfig.getLongestStall().compareTo(Duration.ofMillis(50)) > 0);
+    }
+
+    @Test
+    void noStallWhileJobRunning() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = initJobRecord(JOB_ID, 0);
+        // the job runs for longer than the records are polled
+        when(reactiveJobConsumer.onMessage(jobRecord))
+                .thenReturn(Mono.never());
+
+        // WHEN
+        reactiveRedisConfig.subscribe(STREAM_NAME, Flux.just(jobRecord).concatWith(Flux.never()), reactiveJobConsumer);
+
+        // THEN
+        verify(reactiveJobConsumer, timeout(1000)).onMessage(jobRecord);
+        verify(reactiveJobConsumer, after(100).times(1)).onMessage(any());
+        assertEquals(Duration.ZERO, reactiveRedisConfig.getLongestStall());
+    }
+
+    @Test
+    void subscriptionInactiveWithoutStreams() {
+        // WHEN / THEN
+        assertFalse(reactiveRedisConfig.isSubscriptionActive());
+        assertEquals(Duration.ZERO, reactiveRedisConfig.getLongestStall());
+    }
+
+    private ObjectRecord<String, JobDto> initJobRecord(long jobId, long sequence) {
+        JobDto job = new JobDto();
+        job.setId(jobId);
+        job.setName("some job name");
+        return ObjectRecord.create(STREAM_NAME, job)
+                .withId(RecordId.of(Instant.now().toEpochMilli(), sequence));
+    }
+}
@@ -2,8 +2,21 @@ package com.jonathanfoucher.redisstreamexample.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jonathanfoucher.redisstreamexample.controllers.advices.GlobalControllerExceptionHandler;
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.JobStatus;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobsCursor;
 import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotRunningException;
+import com.jonathanfoucher.redisstreamexample.errors.TooManyJobsException;
+import com.jonathanfoucher.redisstreamexample.services.JobAdmission;
+import com.jonathanfoucher.redisstreamexample.services.JobDeadLetters;
+import com.jonathanfoucher.redisstreamexample.services.JobEventBroadcaster;
 import com.jonathanfoucher.redisstreamexample.services.JobProducer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,21 +26,25 @@ import org.springframework.http.converter.json.MappingJackson2HttpMessageConvert
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringJUnitConfig({JobController.class, GlobalControllerExceptionHandler.class})
 class JobControllerTest {
@@ -38,15 +55,34 @@ class JobControllerTest {
     private GlobalControllerExceptionHandler globalControllerExceptionHandler;
     @MockitoBean
     private JobProducer jobProducer;
+    @MockitoBean
+    private JobDeadLetters jobDeadLetters;
+    @MockitoBean
+    private JobEventBroadcaster jobEventBroadcaster;
+    @MockitoBean
+    private JobAdmission jobAdmission;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private static final String START_JOB_PATH = "/v1/jobs/start";
+    private static final String START_JOBS_PATH = "/v1/jobs/start/batch";
     private static final String QUEUED_JOBS_PATH = "/v1/jobs/queued";
+    private static final String QUEUED_JOBS_STREAM_PATH = "/v1/jobs/queued/stream";
     private static final String QUEUED_JOB_PATH = "/v1/jobs/{job_id}/queued";
+    private static final String RUNNING_JOB_PATH = "/v1/jobs/{job_id}/running";
+    private static final String JOB_PATH = "/v1/jobs/{job_id}";
+    private static final String JOB_EVENTS_PATH = "/v1/jobs/events";
+    private static final String DEAD_LETTERS_PATH = "/v1/jobs/dead-letters";
+    private static final String REPLAY_DEAD_LETTERS_PATH = "/v1/jobs/dead-letters/replay";
+    private static final String JOB_ERROR = "job with id 15 failed: sleep interrupted";
     private static final Long JOB_ID = 15L;
     private static final String JOB_NAME = "some job name";
     private static final String MESSAGE_ID = Timestamp.valueOf(LocalDateTime.now()) + "-0";
+    private static final String NEXT_MESSAGE_ID = Timestamp.valueOf(LocalDateTime.now()) + "-1";
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+    private static final String CLIENT_ID = "some-client";
+    private static final String REMOTE_ADDRESS = "127.0.0.1";
 
     @BeforeEach
     void initEach() {
@@ -71,6 +107,8 @@ class JobControllerTest {
                 )
                 .andExpect(status().isOk());
 
+        verify(jobAdmission, times(1))
+                .admit(REMOTE_ADDRESS, 1);
         ArgumentCaptor<JobDto> capturedJob = ArgumentCaptor.forClass(JobDto.class);
         verify(jobProducer, times(1))
                 .produce(capturedJob.capture());
@@ -79,6 +117,28 @@ class JobControllerTest {
         checkJob(capturedJob.getValue());
     }
 
+    @Test
+    void startJobWhenQueueSaturated() throws Exception {
+        // GIVEN
+        JobDto job = initJobDto();
+
+        doThrow(new TooManyJobsException("the queue is saturated", Duration.ofMillis(4500)))
+                .when(jobAdmission).admit(CLIENT_ID, 1);
+
+        // WHEN / THEN
+        mockMvc.perform(post(START_JOB_PATH)
+                        .header(CLIENT_ID_HEADER, CLIENT_ID)
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(job))
+                )
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "5"))
+                .andExpect(content().string("\"the queue is saturated, retry in 5s\""));
+
+        verify(jobProducer, never())
+                .produce(any());
+    }
+
     @Test
     void startJobWhenJobAlreadyQueued() throws Exception {
         // GIVEN
@@ -103,6 +163,42 @@ class JobControllerTest {
         checkJob(capturedJob.getValue());
     }
 
+    @Test
+    void startJobs() throws Exception {
+        // GIVEN
+        JobDto job = initJobDto();
+        JobDto job2 = new JobDto();
+        job2.setId(JOB_ID + 5);
+        job2.setName("some other job");
+
+        List<JobEnqueueResult> results = List.of(
+                new JobEnqueueResult(JOB_ID, MESSAGE_ID, JobEnqueueStatus.QUEUED),
+                new JobEnqueueResult(JOB_ID + 5, null, JobEnqueueStatus.ALREADY_QUEUED)
+        );
+
+        when(jobProducer.produceAll(any()))
+                .thenReturn(results);
+
+        // WHEN / THEN
+        mockMvc.perform(post(START_JOBS_PATH)
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(job, job2)))
+                )
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(results)));
+
+        // a batch is admitted as a whole, each of its jobs taking a token of the client
+        verify(jobAdmission, times(1))
+                .admit(REMOTE_ADDRESS, 2);
+        ArgumentCaptor<List<JobDto>> capturedJobs = ArgumentCaptor.forClass(List.class);
+        verify(jobProducer, times(1))
+                .produceAll(capturedJobs.capture());
+
+        assertEquals(2, capturedJobs.getValue().size());
+        checkJob(capturedJobs.getValue().getFirst());
+        assertEquals(JOB_ID + 5, capturedJobs.getValue().get(1).getId());
+    }
+
     @Test
     void getQueuedJobsIds() throws Exception {
         // GIVEN
@@ -122,6 +218,139 @@ class JobControllerTest {
         verify(jobProducer, times(1)).getQueuedJobsIds();
     }
 
+    @Test
+    void getQueuedJobsIdsPage() throws Exception {
+        // GIVEN
+        List<Long> queuedJobIds = List.of(JOB_ID, JOB_ID + 5);
+
+        when(jobProducer.getQueuedJobsIds(MESSAGE_ID, 2))
+                .thenReturn(new QueuedJobIdsPage(queuedJobIds, NEXT_MESSAGE_ID));
+
+        // WHEN / THEN
+        mockMvc.perform(get(QUEUED_JOBS_PATH)
+                        .param("limit", "2")
+                        .param("after", MESSAGE_ID)
+                )
+                .andExpect(status().isOk())
+                .andExpect(header().string(NEXT_CURSOR_HEADER, NEXT_MESSAGE_ID))
+                .andExpect(content().string(objectMapper.writeValueAsString(queuedJobIds)));
+
+        verify(jobProducer, times(1)).getQueuedJobsIds(MESSAGE_ID, 2);
+        verify(jobProducer, never()).getQueuedJobsIds();
+    }
+
+    @Test
+    void getQueuedJobsIdsPageWithInvalidRecordId() throws Exception {
+        // GIVEN
+        String cursor = "0:0-garbage";
+        when(jobProducer.getQueuedJobsIds(cursor, 2))
+                .thenAnswer(invocation -> QueuedJobsCursor.parse(invocation.getArgument(0), 3));
+
+        // WHEN / THEN
+        mockMvc.perform(get(QUEUED_JOBS_PATH)
+                        .param("limit", "2")
+                        .param("after", cursor)
+                )
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("\"cursor " + cursor + " is not valid\""));
+    }
+
+    @Test
+    void getQueuedJobsIdsLastPage() throws Exception {
+        // GIVEN
+        List<Long> queuedJobIds = List.of(JOB_ID);
+
+        when(jobProducer.getQueuedJobsIds(null, 2))
+                .thenReturn(new QueuedJobIdsPage(queuedJobIds, null));
+
+        // WHEN / THEN
+        mockMvc.perform(get(QUEUED_JOBS_PATH)
+                        .param("limit", "2")
+                )
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(NEXT_CURSOR_HEADER))
+                .andExpect(content().string(objectMapper.writeValueAsString(queuedJobIds)));
+
+        verify(jobProducer, times(1)).getQueuedJobsIds(null, 2);
+    }
+
+    @Test
+    void streamQueuedJobsIds() throws Exception {
+        // GIVEN
+        doAnswer(invocation -> {
+            Consumer<List<Long>> pageConsumer = invocation.getArgument(0);
+            pageConsumer.accept(List.of(JOB_ID, JOB_ID + 5));
+            pageConsumer.accept(List.of(JOB_ID - 3));
+            return null;
+        }).when(jobProducer).forEachQueuedJobIdsPage(any());
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(get(QUEUED_JOBS_STREAM_PATH))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string(JOB_ID + "\n" + (JOB_ID + 5) + "\n" + (JOB_ID - 3) + "\n"));
+
+        verify(jobProducer, times(1)).forEachQueuedJobIdsPage(any());
+    }
+
+    @Test
+    void getJobState() throws Exception {
+        // GIVEN
+        when(jobProducer.getJobState(JOB_ID))
+                .thenReturn(new JobState(JOB_ID, JobStatus.QUEUED, Instant.now(), Instant.now(), null, 2L, JOB_ERROR));
+
+        // WHEN / THEN
+        mockMvc.perform(get(JOB_PATH, JOB_ID))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.jobId").value(JOB_ID))
+                .andExpect(jsonPath("$.status").value(JobStatus.QUEUED.name()))
+                .andExpect(jsonPath("$.failedAttempts").value(2))
+                .andExpect(jsonPath("$.error").value(JOB_ERROR));
+    }
+
+    @Test
+    void getJobStateWithUnknownJob() throws Exception {
+        // GIVEN
+        when(jobProducer.getJobState(JOB_ID))
+                .thenThrow(new JobNotFoundException(JOB_ID));
+
+        // WHEN / THEN
+        mockMvc.perform(get(JOB_PATH, JOB_ID))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string("\"job with id " + JOB_ID + " is not known or its status expired\""));
+    }
+
+    @Test
+    void streamJobEvents() throws Exception {
+        // GIVEN
+        when(jobEventBroadcaster.subscribe(JOB_ID))
+                .thenReturn(new SseEmitter());
+
+        // WHEN / THEN
+        mockMvc.perform(get(JOB_EVENTS_PATH)
+                        .param("job_id", JOB_ID.toString()))
+                .andExpect(status().isOk())
+                .andExpect(request().asyncStarted());
+        verify(jobEventBroadcaster, times(1))
+                .subscribe(JOB_ID);
+    }
+
+    @Test
+    void streamAllJobEvents() throws Exception {
+        // GIVEN
+        when(jobEventBroadcaster.subscribe(null))
+                .thenReturn(new SseEmitter());
+
+        // WHEN / THEN
+        mockMvc.perform(get(JOB_EVENTS_PATH))
+                .andExpect(request().asyncStarted());
+        verify(jobEventBroadcaster, times(1))
+                .subscribe(null);
+    }
+
     @Test
     void removeJobFromQueue() throws Exception {
         // WHEN / THEN
@@ -131,6 +360,27 @@ class JobControllerTest {
         verify(jobProducer, times(1)).removeJobFromQueue(JOB_ID);
     }
 
+    @Test
+    void cancelRunningJob() throws Exception {
+        // WHEN / THEN
+        mockMvc.perform(delete(RUNNING_JOB_PATH, JOB_ID))
+                .andExpect(status().isAccepted());
+
+        verify(jobProducer, times(1)).cancelRunningJob(JOB_ID);
+    }
+
+    @Test
+    void cancelRunningJobWhenJobNotRunning() throws Exception {
+        // GIVEN
+        doThrow(new JobNotRunningException(JOB_ID))
+                .when(jobProducer).cancelRunningJob(JOB_ID);
+
+        // WHEN / THEN
+        mockMvc.perform(delete(RUNNING_JOB_PATH, JOB_ID))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("\"job with id " + JOB_ID + " is not running and can't be cancelled\""));
+    }
+
     @Test
     void clearJobQueue() throws Exception {
         // WHEN / THEN
@@ -140,6 +390,40 @@ class JobControllerTest {
         verify(jobProducer, times(1)).clearJobQueue();
     }
 
+    @Test
+    void getDeadLetters() throws Exception {
+        // GIVEN
+        when(jobDeadLetters.getDeadLetters(MESSAGE_ID, 10))
+                .thenReturn(List.of(new DeadLetterJob(NEXT_MESSAGE_ID, "job_queue", initJobDto(), 5L, JOB_ERROR)));
+
+        // WHEN / THEN
+        mockMvc.perform(get(DEAD_LETTERS_PATH)
+                        .param("limit", "10")
+                        .param("after", MESSAGE_ID))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].recordId").value(NEXT_MESSAGE_ID))
+                .andExpect(jsonPath("$[0].job.id").value(JOB_ID))
+                .andExpect(jsonPath("$[0].attempts").value(5))
+                .andExpect(jsonPath("$[0].error").value(JOB_ERROR));
+
+        verify(jobDeadLetters, times(1)).getDeadLetters(MESSAGE_ID, 10);
+    }
+
+    @Test
+    void replayDeadLetters() throws Exception {
+        // GIVEN
+        when(jobDeadLetters.replayDeadLetters())
+                .thenReturn(List.of(new JobEnqueueResult(JOB_ID, MESSAGE_ID, JobEnqueueStatus.QUEUED)));
+
+        // WHEN / THEN
+        mockMvc.perform(post(REPLAY_DEAD_LETTERS_PATH))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].jobId").value(JOB_ID))
+                .andExpect(jsonPath("$[0].status").value(JobEnqueueStatus.QUEUED.name()));
+
+        verify(jobDeadLetters, times(1)).replayDeadLetters();
+    }
+
     private JobDto initJobDto() {
         JobDto job = new JobDto();
         job.setId(JOB_ID);
@@ -0,0 +1,205 @@
+package com.jonathanfoucher.redisstreamexample.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathanfoucher.redisstreamexample.controllers.advices.GlobalControllerExceptionHandler;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.RemovingRunningJobException;
+import com.jonathanfoucher.redisstreamexample.services.JobAdmission;
+import com.jonathanfoucher.redisstreamexample.services.JobDeadLetters;
+import com.jonathanfoucher.redisstreamexample.services.ReactiveJobEventBroadcaster;
+import com.jonathanfoucher.redisstreamexample.services.ReactiveJobProducer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ActiveProfiles("reactive")
+@SpringJUnitConfig({ReactiveJobController.class, GlobalControllerExceptionHandler.class})
+class ReactiveJobControllerTest {
+    private MockMvc mockMvc;
+    @Autowired
+    private ReactiveJobController reactiveJobController;
+    @Autowired
+    private GlobalControllerExceptionHandler globalControllerExceptionHandler;
+    @MockitoBean
+    private ReactiveJobProducer reactiveJobProducer;
+    @MockitoBean
+    private JobDeadLetters jobDeadLetters;
+    @MockitoBean
+    private ReactiveJobEventBroadcaster jobEventBroadcaster;
+    @MockitoBean
+    private JobAdmission jobAdmission;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String START_JOB_PATH = "/v1/jobs/start";
+    private static final String QUEUED_JOBS_PATH = "/v1/jobs/queued";
+    private static final String QUEUED_JOB_PATH = "/v1/jobs/{job_id}/queued";
+    private static final Long JOB_ID = 15L;
+    private static final String JOB_NAME = "some job name";
+    private static final String MESSAGE_ID = Timestamp.valueOf(LocalDateTime.now()) + "-0";
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String REMOTE_ADDRESS = "127.0.0.1";
+
+    @BeforeEach
+    void initEach() {
+        mockMvc = MockMvcBuilders.standaloneSetup(reactiveJobController)
+                .setControllerAdvice(globalControllerExceptionHandler)
+                .setMessageConverters(new StringHttpMessageConverter(), new MappingJackson2HttpMessageConverter())
+                .build();
+    }
+
+    @Test
+    void startJob() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.produce(any()))
+                .thenReturn(Mono.just(MESSAGE_ID));
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(post(START_JOB_PATH)
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(initJobDto()))
+                )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string(MESSAGE_ID));
+
+        verify(jobAdmission, times(1))
+                .admit(REMOTE_ADDRESS, 1);
+        verify(reactiveJobProducer, times(1))
+                .produce(any());
+    }
+
+    @Test
+    void startJobWhenJobAlreadyQueued() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.produce(any()))
+                .thenReturn(Mono.error(new JobAlreadyQueuedException(JOB_ID)));
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(post(START_JOB_PATH)
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(initJobDto()))
+                )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("job with id " + JOB_ID + " is already queued"));
+    }
+
+    @Test
+    void getQueuedJobsIds() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.streamQueuedJobsIds())
+                .thenReturn(Flux.just(JOB_ID, JOB_ID + 5));
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(get(QUEUED_JOBS_PATH))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string(objectMapper.writeValueAsString(List.of(JOB_ID, JOB_ID + 5))));
+    }
+
+    @Test
+    void getQueuedJobsIdsPage() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.getQueuedJobsIds(null, 2))
+                .thenReturn(Mono.just(new QueuedJobIdsPage(List.of(JOB_ID, JOB_ID + 5), MESSAGE_ID)));
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(get(QUEUED_JOBS_PATH)
+                        .param("limit", "2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(NEXT_CURSOR_HEADER, MESSAGE_ID))
+                .andExpect(content().string(objectMapper.writeValueAsString(List.of(JOB_ID, JOB_ID + 5))));
+    }
+
+    @Test
+    void removeJobFromQueue() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.removeJobFromQueue(JOB_ID))
+                .thenReturn(Mono.empty());
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(delete(QUEUED_JOB_PATH, JOB_ID))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+
+        verify(reactiveJobProducer, times(1)).removeJobFromQueue(JOB_ID);
+    }
+
+    @Test
+    void removeJobFromQueueWhenJobRunning() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.removeJobFromQueue(JOB_ID))
+                .thenReturn(Mono.error(new RemovingRunningJobException(JOB_ID)));
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(delete(QUEUED_JOB_PATH, JOB_ID))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("job with id " + JOB_ID + " is running and can't be removed from the queue"));
+    }
+
+    @Test
+    void clearJobQueue() throws Exception {
+        // GIVEN
+        when(reactiveJobProducer.clearJobQueue())
+                .thenReturn(Mono.empty());
+
+        // WHEN / THEN
+        MvcResult mvcResult = mockMvc.perform(delete(QUEUED_JOBS_PATH))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+
+        verify(reactiveJobProducer, times(1)).clearJobQueue();
+    }
+
+    private JobDto initJobDto() {
+        JobDto job = new JobDto();
+        job.setId(JOB_ID);
+        job.setName(JOB_NAME);
+        return job;
+    }
+}
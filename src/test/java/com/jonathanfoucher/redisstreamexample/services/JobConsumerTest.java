@@ -4,38 +4,118 @@ import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.read.ListAppender;
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.JobStatus;
+import com.jonathanfoucher.redisstreamexample.errors.JobProcessingException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.connection.stream.ObjectRecord;
 import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static ch.qos.logback.classic.Level.INFO;
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
-@SpringJUnitConfig(JobConsumer.class)
+@SpringJUnitConfig({JobConsumer.class, RedisJobQueueBackend.class})
 class JobConsumerTest {
     @Autowired
     private JobConsumer jobConsumer;
+    @Autowired
+    private RedisJobQueueBackend jobQueueBackend;
     @MockitoBean
     private RedisTemplate<String, String> redisTemplate;
     @MockitoBean
-    private StreamOperations<String, Object, Object> streamOperations;
+    private JobRetries jobRetries;
+    @MockitoBean
+    private RedisStreamSubscriber redisStreamSubscriber;
+    @MockitoBean
+    private JobMetrics jobMetrics;
+    @MockitoBean
+    private JobStreams jobStreams;
+    @MockitoBean
+    private JobRecordMapper jobRecordMapper;
+    @MockitoBean(answers = Answers.CALLS_REAL_METHODS)
+    private JobStatuses jobStatuses;
+    @MockitoBean
+    private JobEventBroadcaster jobEventBroadcaster;
+    @MockitoBean
+    private QueuedJobIdsCache queuedJobIdsCache;
+    @MockitoBean
+    private JobCancellations jobCancellations;
 
     private static final String STREAM_NAME = "job_queue";
+    private static final String INDEX_NAME = "job_queue_index";
+    private static final String INDEX_NAME_VAR = "indexKey";
+    private static final String CHECKPOINT_NAME = "job_queue_checkpoint";
+    private static final String CHECKPOINT_NAME_VAR = "checkpointKey";
+    private static final String ATTEMPTS_NAME = "job_queue_attempts";
+    private static final String ATTEMPTS_NAME_VAR = "attemptsKey";
+    private static final String RUNNING_NAME = "job_queue_running";
+    private static final String RUNNING_NAME_VAR = "runningKey";
+    private static final String CONSUMER_GROUP_ENABLED_VAR = "consumerGroupEnabled";
+    private static final String CONSUMER_GROUP_NAME_VAR = "consumerGroupName";
+    private static final String CONSUMER_GROUP_NAME = "job-consumers";
+    private static final String HISTORY_NAME = "job_queue_history";
+    private static final String HISTORY_NAME_VAR = "historyKey";
+    private static final String RETENTION_ENABLED_VAR = "retentionEnabled";
+    private static final String HISTORY_MAX_LENGTH_VAR = "historyMaxLength";
+    private static final String JOB_DURATION_MS_VAR = "jobDurationMs";
+    private static final String MAX_IN_FLIGHT_JOBS_VAR = "maxInFlightJobs";
+    private static final String IN_FLIGHT_JOBS_VAR = "inFlightJobs";
+    private static final String DISPATCHER_ENABLED_VAR = "dispatcherEnabled";
+    private static final String DISPATCHER_PARALLELISM_VAR = "dispatcherParallelism";
+    private static final String DISPATCHER_STRIPES_VAR = "dispatcherStripes";
+    private static final String DISPATCHER_MAX_PENDING_JOBS_VAR = "dispatcherMaxPendingJobs";
     private static final Long JOB_ID = 15L;
     private static final String JOB_NAME = "some job name";
+    private static final String STATUS_KEY_PREFIX = "job_status:";
+    private static final String STATUS_KEY_PREFIX_VAR = "keyPrefix";
+    private static final String STATUS_KEY = STATUS_KEY_PREFIX + JOB_ID;
+    private static final String STATUS_TTL_VAR = "ttl";
     private static final String RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-0";
+    private static final Long OTHER_JOB_ID = 16L;
+    private static final String OTHER_RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-1";
+
+    @BeforeEach
+    void beforeEach() {
+        ReflectionTestUtils.setField(jobQueueBackend, INDEX_NAME_VAR, INDEX_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, CHECKPOINT_NAME_VAR, CHECKPOINT_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, ATTEMPTS_NAME_VAR, ATTEMPTS_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, RUNNING_NAME_VAR, RUNNING_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(jobQueueBackend, HISTORY_NAME_VAR, HISTORY_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, RETENTION_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(jobQueueBackend, HISTORY_MAX_LENGTH_VAR, 0L);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_KEY_PREFIX_VAR, STATUS_KEY_PREFIX);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_TTL_VAR, Duration.ofDays(1));
+        ReflectionTestUtils.setField(jobConsumer, JOB_DURATION_MS_VAR, 100L);
+        ReflectionTestUtils.setField(jobConsumer, MAX_IN_FLIGHT_JOBS_VAR, 0);
+        jobConsumer.initInFlightJobs();
+        ReflectionTestUtils.setField(jobConsumer, DISPATCHER_ENABLED_VAR, false);
+        jobConsumer.initDispatcher();
+        when(redisTemplate.execute(eq(START_JOB), eq(List.of(INDEX_NAME, RUNNING_NAME)), any(Object[].class)))
+                .thenReturn(1L);
+    }
 
     @Test
     void onMessageReceived() {
@@ -50,18 +130,26 @@ class JobConsumerTest {
         ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, job)
                 .withId(recordId);
 
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-
         // WHEN
         jobConsumer.onMessage(jobRecord);
 
         // THEN
-        ArgumentCaptor<ObjectRecord<String, JobDto>> capturedJobRecord = ArgumentCaptor.forClass(ObjectRecord.class);
-        verify(streamOperations, times(1)).delete(capturedJobRecord.capture());
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID);
+        verify(jobMetrics, times(1))
+                .recordQueueWait(recordId);
+        verify(jobMetrics, times(1))
+                .recordProcess(any(), eq(true));
+        verify(jobMetrics, times(1))
+                .recordLag(recordId);
+        verify(queuedJobIdsCache, times(1))
+                .remove(JOB_ID);
 
-        assertEquals(recordId, capturedJobRecord.getValue().getId());
-        checkJob(capturedJobRecord.getValue().getValue());
+        List<JobState> savedStates = captureSavedStates(2);
+        assertEquals(JobStatus.RUNNING, savedStates.get(0).status());
+        assertNotNull(savedStates.get(0).startedAt());
+        assertEquals(JobStatus.SUCCEEDED, savedStates.get(1).status());
+        assertNotNull(savedStates.get(1).finishedAt());
 
         List<ILoggingEvent> logs = listAppender.list;
         assertEquals(2, logs.size());
@@ -73,16 +161,394 @@ class JobConsumerTest {
         assertEquals("successfully processed job " + job, logs.get(1).getFormattedMessage());
     }
 
+    @Test
+    void onMessageReceivedWithJobRemoved() {
+        // GIVEN
+        Logger log = (Logger) LoggerFactory.getLogger(JobConsumer.class);
+        ListAppender<ILoggingEvent> listAppender = new ListAppender<>();
+        listAppender.start();
+        log.addAppender(listAppender);
+
+        JobDto job = initJobDto();
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, job)
+                .withId(RecordId.of(RECORD_ID));
+        // the job was removed from the queue before its record was read, e.g. by clearing the queue
+        when(redisTemplate.execute(START_JOB, List.of(INDEX_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), STREAM_NAME))
+                .thenReturn(0L);
+
+        // WHEN
+        jobConsumer.onMessage(jobRecord);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID);
+        verify(jobMetrics, never())
+                .recordProcess(any(), anyBoolean());
+        verify(jobEventBroadcaster, never())
+                .publish(any());
+
+        List<ILoggingEvent> logs = listAppender.list;
+        assertEquals(1, logs.size());
+        assertEquals(INFO, logs.getFirst().getLevel());
+        assertEquals("job " + job + " was removed from the queue before it started", logs.getFirst().getFormattedMessage());
+    }
+
+    @Test
+    void onMessageReceivedWithConsumerGroup() {
+        // GIVEN
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_NAME_VAR, CONSUMER_GROUP_NAME);
+
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+
+        // WHEN
+        jobConsumer.onMessage(jobRecord);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), CONSUMER_GROUP_NAME, "", "0", RECORD_ID);
+    }
+
+    @Test
+    void onMessageReceivedWithRetention() {
+        // GIVEN
+        ReflectionTestUtils.setField(jobQueueBackend, RETENTION_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(jobQueueBackend, HISTORY_MAX_LENGTH_VAR, 1000L);
+
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+
+        // WHEN
+        jobConsumer.onMessage(jobRecord);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), "", "1", "1000", RECORD_ID);
+    }
+
+    @Test
+    void onMessageReceivedWithInFlightJobsLimit() {
+        // GIVEN
+        ReflectionTestUtils.setField(jobConsumer, MAX_IN_FLIGHT_JOBS_VAR, 1);
+        jobConsumer.initInFlightJobs();
+
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+
+        // WHEN
+        jobConsumer.onMessage(jobRecord);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID);
+
+        Semaphore inFlightJobs = (Semaphore) ReflectionTestUtils.getField(jobConsumer, IN_FLIGHT_JOBS_VAR);
+        assertNotNull(inFlightJobs);
+        assertEquals(1, inFlightJobs.availablePermits());
+    }
+
+    @Test
+    void onMessageReceivedWithDispatcher() throws InterruptedException {
+        // GIVEN
+        initDispatcher();
+        JobDto otherJob = initJobDto();
+        otherJob.setId(OTHER_JOB_ID);
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        ObjectRecord<String, JobDto> otherJobRecord = ObjectRecord.create(STREAM_NAME, otherJob)
+                .withId(RecordId.of(OTHER_RECORD_ID));
+        when(redisTemplate.execute(eq(START_JOB), eq(List.of(INDEX_NAME, RUNNING_NAME)), any(Object[].class)))
+                .thenReturn(1L);
+
+        // the first job only goes on once the other one is completed, which it can only be while both run at the same time
+        CountDownLatch otherJobCompleted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            otherJobCompleted.countDown();
+            return null;
+        }).when(queuedJobIdsCache).remove(OTHER_JOB_ID);
+        doAnswer(invocation -> otherJobCompleted.await(5, TimeUnit.SECONDS))
+                .when(jobCancellations).start(JOB_ID);
+
+        // WHEN
+        jobConsumer.onMessage(jobRecord);
+        jobConsumer.onMessage(otherJobRecord);
+
+        // THEN
+        ArgumentCaptor<Object[]> capturedArgs = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate, timeout(5_000).times(2))
+                .execute(eq(DELETE_JOB), anyList(), capturedArgs.capture());
+        jobConsumer.closeDispatcher();
+        assertEquals(0, otherJobCompleted.getCount());
+
+        // the checkpoint only moves past both records once the older one is completed too
+        List<Object[]> deleteArgs = capturedArgs.getAllValues();
+        assertEquals(OTHER_RECORD_ID, deleteArgs.get(0)[0]);
+        assertEquals("", deleteArgs.get(0)[5]);
+        assertEquals(RECORD_ID, deleteArgs.get(1)[0]);
+        assertEquals(OTHER_RECORD_ID, deleteArgs.get(1)[5]);
+        verify(redisTemplate, times(1))
+                .execute(START_JOB, List.of(INDEX_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), STREAM_NAME);
+        verify(queuedJobIdsCache, times(1))
+                .remove(JOB_ID);
+    }
+
+    @Test
+    void onMessageReceivedWithDispatcherAndJobRemoved() {
+        // GIVEN
+        initDispatcher();
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        JobDto otherJob = initJobDto();
+        otherJob.setId(OTHER_JOB_ID);
+        ObjectRecord<String, JobDto> otherJobRecord = ObjectRecord.create(STREAM_NAME, otherJob)
+                .withId(RecordId.of(OTHER_RECORD_ID));
+        // the first job was removed from the queue while waiting in the dispatcher
+        when(redisTemplate.execute(START_JOB, List.of(INDEX_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), STREAM_NAME))
+                .thenReturn(0L);
+        when(redisTemplate.execute(START_JOB, List.of(INDEX_NAME, RUNNING_NAME), OTHER_RECORD_ID, OTHER_JOB_ID.toString(), STREAM_NAME))
+                .thenReturn(1L);
+
+        // WHEN
+        jobConsumer.onMessage(jobRecord);
+        jobConsumer.onMessage(otherJobRecord);
+
+        // THEN
+        // the removed job is skipped like a completed one, without holding back the checkpoint
+        verify(redisTemplate, timeout(5_000).times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), OTHER_RECORD_ID, OTHER_JOB_ID.toString(), "", "", "0", OTHER_RECORD_ID);
+        jobConsumer.closeDispatcher();
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID);
+        verify(jobCancellations, never())
+                .start(JOB_ID);
+        verify(jobMetrics, never())
+                .recordQueueWait(RecordId.of(RECORD_ID));
+        verify(jobEventBroadcaster, never())
+                .publish(argThat(jobState -> JOB_ID.equals(jobState.jobId())));
+    }
+
+    @Test
+    void onMessageReceivedWithDispatcherClosed() {
+        // GIVEN
+        initDispatcher();
+        jobConsumer.closeDispatcher();
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        JobDto otherJob = initJobDto();
+        otherJob.setId(OTHER_JOB_ID);
+        ObjectRecord<String, JobDto> otherJobRecord = ObjectRecord.create(STREAM_NAME, otherJob)
+                .withId(RecordId.of(OTHER_RECORD_ID));
+        when(redisTemplate.execute(eq(START_JOB), eq(List.of(INDEX_NAME, RUNNING_NAME)), any(Object[].class)))
+                .thenReturn(1L);
+
+        // WHEN
+        boolean handedOff = jobConsumer.handOff(jobRecord);
+        jobConsumer.initDispatcher();
+        boolean otherHandedOff = jobConsumer.handOff(otherJobRecord);
+
+        // THEN
+        assertFalse(handedOff);
+        assertTrue(otherHandedOff);
+        // the job left in the queue doesn't hold back the checkpoint of the jobs dispatched afterwards
+        verify(redisTemplate, timeout(5_000).times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), OTHER_RECORD_ID, OTHER_JOB_ID.toString(), "", "", "0", OTHER_RECORD_ID);
+        jobConsumer.closeDispatcher();
+        verify(jobCancellations, never())
+                .start(JOB_ID);
+    }
+
+    @Test
+    void onMessageReceivedWithDispatcherInterrupted() {
+        // GIVEN
+        initDispatcher();
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        JobDto otherJob = initJobDto();
+        otherJob.setId(OTHER_JOB_ID);
+        ObjectRecord<String, JobDto> otherJobRecord = ObjectRecord.create(STREAM_NAME, otherJob)
+                .withId(RecordId.of(OTHER_RECORD_ID));
+        when(redisTemplate.execute(eq(START_JOB), eq(List.of(INDEX_NAME, RUNNING_NAME)), any(Object[].class)))
+                .thenReturn(1L);
+        Thread.currentThread().interrupt();
+
+        // WHEN
+        boolean handedOff;
+        try {
+            handedOff = jobConsumer.handOff(jobRecord);
+        } finally {
+            Thread.interrupted();
+        }
+        boolean otherHandedOff = jobConsumer.handOff(otherJobRecord);
+
+        // THEN
+        assertFalse(handedOff);
+        assertTrue(otherHandedOff);
+        verify(redisTemplate, timeout(5_000).times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), OTHER_RECORD_ID, OTHER_JOB_ID.toString(), "", "", "0", OTHER_RECORD_ID);
+        jobConsumer.closeDispatcher();
+        verify(jobCancellations, never())
+                .start(JOB_ID);
+    }
+
+    @Test
+    void onMessageReceivedWithFailingJob() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        Thread.currentThread().interrupt();
+
+        // WHEN
+        try {
+            jobConsumer.onMessage(jobRecord);
+        } finally {
+            Thread.interrupted();
+        }
+
+        // THEN
+        ArgumentCaptor<Throwable> capturedError = ArgumentCaptor.forClass(Throwable.class);
+        verify(jobRetries, times(1))
+                .getRetryArgs(eq(jobRecord), capturedError.capture(), eq(jobRecord.getId()));
+        assertInstanceOf(JobProcessingException.class, capturedError.getValue());
+        verify(redisTemplate, times(1))
+                .execute(eq(RETRY_JOB), eq(RECORD_ARGS_SERIALIZER), eq(ATTEMPTS_SERIALIZER), anyList(), any(Object[].class));
+        verify(jobRetries, times(1))
+                .logRetry(jobRecord.getValue(), 0L);
+        verify(redisTemplate, never())
+                .execute(eq(DELETE_JOB), anyList(), any(Object[].class));
+        verify(jobMetrics, times(1))
+                .recordProcess(any(), eq(false));
+        verify(jobMetrics, never())
+                .recordLag(any());
+        // the job was not queued anymore, so its status is dropped rather than left running
+        verify(redisTemplate, times(1))
+                .delete(STATUS_KEY);
+        verify(jobEventBroadcaster, times(1))
+                .publish(any());
+        // the failed record left its stream, whether the job is retried later or not
+        verify(queuedJobIdsCache, times(1))
+                .remove(JOB_ID);
+    }
+
+    @Test
+    void onMessageReceivedWithFailingJobRetried() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        when(redisTemplate.execute(eq(RETRY_JOB), eq(RECORD_ARGS_SERIALIZER), eq(ATTEMPTS_SERIALIZER), anyList(), any(Object[].class)))
+                .thenReturn(2L);
+        Thread.currentThread().interrupt();
+
+        // WHEN
+        try {
+            jobConsumer.onMessage(jobRecord);
+        } finally {
+            Thread.interrupted();
+        }
+
+        // THEN
+        verify(jobRetries, times(1))
+                .logRetry(jobRecord.getValue(), 2L);
+
+        List<JobState> savedStates = captureSavedStates(2);
+        assertEquals(JobStatus.RUNNING, savedStates.get(0).status());
+        assertEquals(JobStatus.QUEUED, savedStates.get(1).status());
+        assertEquals(2L, savedStates.get(1).failedAttempts());
+        assertNotNull(savedStates.get(1).error());
+    }
+
+    @Test
+    void onMessageReceivedWithFailingJobDeadLettered() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        when(redisTemplate.execute(eq(RETRY_JOB), eq(RECORD_ARGS_SERIALIZER), eq(ATTEMPTS_SERIALIZER), anyList(), any(Object[].class)))
+                .thenReturn(JobRetries.JOB_DEAD_LETTERED);
+        Thread.currentThread().interrupt();
+
+        // WHEN
+        try {
+            jobConsumer.onMessage(jobRecord);
+        } finally {
+            Thread.interrupted();
+        }
+
+        // THEN
+        List<JobState> savedStates = captureSavedStates(2);
+        assertEquals(JobStatus.FAILED, savedStates.get(1).status());
+        assertNotNull(savedStates.get(1).finishedAt());
+    }
+
+    @Test
+    void onMessageReceivedWithCancelledJob() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        when(jobCancellations.finish(JOB_ID))
+                .thenReturn(true);
+        Thread.currentThread().interrupt();
+
+        // WHEN
+        try {
+            jobConsumer.onMessage(jobRecord);
+        } finally {
+            Thread.interrupted();
+        }
+
+        // THEN
+        // the record is skipped rather than retried
+        verify(jobCancellations, times(1))
+                .start(JOB_ID);
+        verify(redisTemplate, times(1))
+                .execute(DELETE_JOB, List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME), RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID);
+        verify(redisTemplate, never())
+                .execute(eq(RETRY_JOB), eq(RECORD_ARGS_SERIALIZER), eq(ATTEMPTS_SERIALIZER), anyList(), any(Object[].class));
+        verify(jobRetries, never())
+                .logRetry(any(), any());
+        verify(queuedJobIdsCache, times(1))
+                .remove(JOB_ID);
+
+        List<JobState> savedStates = captureSavedStates(2);
+        assertEquals(JobStatus.RUNNING, savedStates.get(0).status());
+        assertEquals(JobStatus.CANCELLED, savedStates.get(1).status());
+        assertNotNull(savedStates.get(1).finishedAt());
+    }
+
+    @Test
+    void subscribeCancellations() {
+        // WHEN
+        jobConsumer.subscribeCancellations();
+
+        // THEN
+        verify(jobCancellations, times(1))
+                .subscribeCancellations();
+    }
+
+    private void initDispatcher() {
+        ReflectionTestUtils.setField(jobConsumer, DISPATCHER_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(jobConsumer, DISPATCHER_PARALLELISM_VAR, 2);
+        ReflectionTestUtils.setField(jobConsumer, DISPATCHER_STRIPES_VAR, 16);
+        ReflectionTestUtils.setField(jobConsumer, DISPATCHER_MAX_PENDING_JOBS_VAR, 16);
+        jobConsumer.initDispatcher();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<JobState> captureSavedStates(int count) {
+        ArgumentCaptor<List<JobState>> capturedStates = ArgumentCaptor.forClass(List.class);
+        verify(jobStatuses, times(count))
+                .getSaveArgs(capturedStates.capture());
+        List<JobState> savedStates = capturedStates.getAllValues().stream()
+                .map(List::getFirst)
+                .toList();
+        // every saved status is also published to the clients of every instance
+        savedStates.forEach(savedState -> verify(jobEventBroadcaster, times(1)).publish(savedState));
+        return savedStates;
+    }
+
     private JobDto initJobDto() {
         JobDto job = new JobDto();
         job.setId(JOB_ID);
         job.setName(JOB_NAME);
         return job;
     }
-
-    private void checkJob(JobDto job) {
-        assertNotNull(job);
-        assertEquals(JOB_ID, job.getId());
-        assertEquals(JOB_NAME, job.getName());
-    }
 }
@@ -0,0 +1,98 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.DeadLetterJob;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidCursorException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@SpringJUnitConfig(JobDeadLetters.class)
+class JobDeadLettersTest {
+    @Autowired
+    private JobDeadLetters jobDeadLetters;
+    @MockitoBean
+    private JobQueueBackend jobQueueBackend;
+    @MockitoBean
+    private JobProducer jobProducer;
+
+    private static final String STREAM_NAME = "job_queue";
+    private static final String PAGE_SIZE_VAR = "queuedJobsPageSize";
+    private static final Long JOB_ID = 15L;
+    private static final String JOB_NAME = "some job name";
+    private static final String RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-0";
+    private static final String JOB_ERROR = "sleep interrupted";
+
+    @BeforeEach
+    void beforeEach() {
+        ReflectionTestUtils.setField(jobDeadLetters, PAGE_SIZE_VAR, 2);
+    }
+
+    @Test
+    void getDeadLetters() {
+        // GIVEN
+        DeadLetterJob deadLetter = initDeadLetter();
+        when(jobQueueBackend.rangeDeadLetters(any(), any()))
+                .thenReturn(List.of(deadLetter));
+
+        // WHEN
+        List<DeadLetterJob> result = jobDeadLetters.getDeadLetters(RECORD_ID, 10);
+
+        // THEN
+        assertEquals(List.of(deadLetter), result);
+        // the limit is capped to the page size
+        verify(jobQueueBackend, times(1))
+                .rangeDeadLetters(eq(RECORD_ID), argThat(limit -> limit.getCount() == 2));
+    }
+
+    @Test
+    void getDeadLettersWithInvalidCursor() {
+        // WHEN / THEN
+        // the cursor is checked before it reaches Valkey
+        assertThatThrownBy(() -> jobDeadLetters.getDeadLetters("0-garbage", 10))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessage("cursor 0-garbage is not valid");
+
+        verifyNoInteractions(jobQueueBackend);
+    }
+
+    @Test
+    void replayDeadLetters() {
+        // GIVEN
+        DeadLetterJob deadLetter = initDeadLetter();
+        JobEnqueueResult enqueueResult = new JobEnqueueResult(JOB_ID, RECORD_ID, JobEnqueueStatus.QUEUED);
+        when(jobQueueBackend.rangeDeadLetters(eq(null), any(Limit.class)))
+                .thenReturn(List.of(deadLetter))
+                .thenReturn(List.of());
+        when(jobProducer.produceAll(List.of(deadLetter.job())))
+                .thenReturn(List.of(enqueueResult));
+
+        // WHEN
+        List<JobEnqueueResult> result = jobDeadLetters.replayDeadLetters();
+
+        // THEN
+        assertEquals(List.of(enqueueResult), result);
+        verify(jobQueueBackend, times(1))
+                .deleteDeadLetters(List.of(RECORD_ID));
+    }
+
+    private DeadLetterJob initDeadLetter() {
+        JobDto job = new JobDto();
+        job.setId(JOB_ID);
+        job.setName(JOB_NAME);
+        return new DeadLetterJob(RECORD_ID, STREAM_NAME, job, 5L, JOB_ERROR);
+    }
+}
@@ -0,0 +1,138 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.INDEX_JOBS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.*;
+
+@SpringJUnitConfig(JobIndexRebuilder.class)
+class JobIndexRebuilderTest {
+    @Autowired
+    private JobIndexRebuilder jobIndexRebuilder;
+    @MockitoBean
+    private RedisTemplate<String, String> redisTemplate;
+    @MockitoBean
+    private RedisConnection redisConnection;
+    @MockitoBean
+    private RedisStreamCommands streamCommands;
+    @MockitoBean
+    private HashOperations<String, Object, Object> hashOperations;
+    @MockitoBean
+    private ValueOperations<String, String> valueOperations;
+    @MockitoBean
+    private JobStreams jobStreams;
+    @MockitoBean
+    private JobRecordMapper jobRecordMapper;
+
+    private static final String STREAM_NAME = "job_queue";
+    private static final String LOW_STREAM_NAME = "job_queue:low";
+    private static final String INDEX_NAME = "job_queue_index";
+    private static final String INDEX_NAME_VAR = "indexKey";
+    private static final String INDEX_REBUILT_NAME = "job_queue_index_rebuilt";
+    private static final String INDEX_REBUILT_NAME_VAR = "indexRebuiltKey";
+    private static final String CHECKPOINT_NAME = "job_queue_checkpoint";
+    private static final String CHECKPOINT_NAME_VAR = "checkpointKey";
+    private static final String PAGE_SIZE_VAR = "queuedJobsPageSize";
+    private static final Long JOB_ID = 15L;
+    private static final Long OTHER_JOB_ID = 16L;
+    private static final String RECORD_ID = "1700000000000-0";
+    private static final String OTHER_RECORD_ID = "1700000000001-0";
+    private static final String CHECKPOINT = "1690000000000-0";
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void beforeEach() {
+        ReflectionTestUtils.setField(jobIndexRebuilder, INDEX_NAME_VAR, INDEX_NAME);
+        ReflectionTestUtils.setField(jobIndexRebuilder, INDEX_REBUILT_NAME_VAR, INDEX_REBUILT_NAME);
+        ReflectionTestUtils.setField(jobIndexRebuilder, CHECKPOINT_NAME_VAR, CHECKPOINT_NAME);
+        ReflectionTestUtils.setField(jobIndexRebuilder, PAGE_SIZE_VAR, 2);
+
+        when(redisTemplate.opsForHash())
+                .thenReturn((HashOperations) hashOperations);
+        when(redisTemplate.opsForValue())
+                .thenReturn(valueOperations);
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(redisConnection));
+        when(redisConnection.streamCommands())
+                .thenReturn(streamCommands);
+        when(jobStreams.getStreamKeys())
+                .thenReturn(List.of(STREAM_NAME, LOW_STREAM_NAME));
+    }
+
+    @Test
+    void rebuildIndex() {
+        // GIVEN
+        // the normal stream has completed records kept up to its checkpoint, the low one has none
+        List<ByteRecord> jobRecords = List.of(initByteRecord(RECORD_ID, JOB_ID), initByteRecord(OTHER_RECORD_ID, OTHER_JOB_ID));
+        when(hashOperations.get(CHECKPOINT_NAME, STREAM_NAME))
+                .thenReturn(CHECKPOINT);
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.of(Range.Bound.exclusive(CHECKPOINT), Range.Bound.unbounded())), any(Limit.class)))
+                .thenReturn(jobRecords);
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.of(Range.Bound.exclusive(OTHER_RECORD_ID), Range.Bound.unbounded())), any(Limit.class)))
+                .thenReturn(List.of());
+        when(streamCommands.xRange(eq(LOW_STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), any(Limit.class)))
+                .thenReturn(List.of());
+        when(redisTemplate.execute(eq(INDEX_JOBS), anyList(), any(Object[].class)))
+                .thenReturn(2L);
+
+        // WHEN
+        jobIndexRebuilder.rebuildIndex();
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(INDEX_JOBS, List.of(STREAM_NAME, INDEX_NAME), RECORD_ID, JOB_ID.toString(), OTHER_RECORD_ID, OTHER_JOB_ID.toString());
+        verify(redisTemplate, never())
+                .execute(eq(INDEX_JOBS), eq(List.of(LOW_STREAM_NAME, INDEX_NAME)), any(Object[].class));
+        verify(valueOperations, times(1))
+                .set(eq(INDEX_REBUILT_NAME), anyString());
+    }
+
+    @Test
+    void rebuildIndexAlreadyDone() {
+        // GIVEN
+        when(redisTemplate.hasKey(INDEX_REBUILT_NAME))
+                .thenReturn(true);
+
+        // WHEN
+        jobIndexRebuilder.rebuildIndex();
+
+        // THEN
+        verify(redisTemplate, never())
+                .execute(any(RedisCallback.class));
+        verify(redisTemplate, never())
+                .execute(eq(INDEX_JOBS), anyList(), any(Object[].class));
+        verifyNoInteractions(valueOperations);
+    }
+
+    private ByteRecord initByteRecord(String recordId, Long jobId) {
+        Map<byte[], byte[]> fields = Map.of("job".getBytes(UTF_8), jobId.toString().getBytes(UTF_8));
+        JobDto job = new JobDto();
+        job.setId(jobId);
+        when(jobRecordMapper.fromHash(fields))
+                .thenReturn(job);
+        return StreamRecords.rawBytes(fields)
+                .withStreamKey(STREAM_NAME.getBytes(UTF_8))
+                .withId(RecordId.of(recordId));
+    }
+}
@@ -3,52 +3,147 @@ package com.jonathanfoucher.redisstreamexample.services;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.read.ListAppender;
+import com.jonathanfoucher.redisstreamexample.common.codecs.BinaryJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.common.codecs.HashJobRecordCodec;
 import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.data.JobPriority;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.JobStatus;
+import com.jonathanfoucher.redisstreamexample.data.QueuedJobIdsPage;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidCursorException;
+import com.jonathanfoucher.redisstreamexample.errors.InvalidJobScheduleException;
 import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundException;
 import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundInQueueException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotRunningException;
 import com.jonathanfoucher.redisstreamexample.errors.RemovingRunningJobException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
 import org.springframework.data.redis.connection.stream.RecordId;
-import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.hash.ObjectHashMapper;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
-import static ch.qos.logback.classic.Level.ERROR;
 import static ch.qos.logback.classic.Level.INFO;
-import static java.util.Collections.emptyList;
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
-@SpringJUnitConfig(JobProducer.class)
+@SpringJUnitConfig({JobProducer.class, RedisJobQueueBackend.class, JobStreams.class, JobRecordMapper.class, BinaryJobRecordCodec.class, HashJobRecordCodec.class})
 class JobProducerTest {
     @Autowired
     private JobProducer jobProducer;
+    @Autowired
+    private RedisJobQueueBackend jobQueueBackend;
+    @Autowired
+    private JobStreams jobStreams;
+    @Autowired
+    private JobRecordMapper jobRecordMapper;
     @MockitoBean
     private RedisTemplate<String, String> redisTemplate;
     @MockitoBean
-    private StreamOperations<String, Object, Object> streamOperations;
+    private RedisConnection redisConnection;
+    @MockitoBean
+    private RedisStreamCommands streamCommands;
+    @MockitoBean
+    private HashOperations<String, Object, Object> hashOperations;
+    @MockitoBean
+    private JobRetries jobRetries;
+    @MockitoBean
+    private RedisStreamSubscriber redisStreamSubscriber;
+    @MockitoBean
+    private JobMetrics jobMetrics;
+    // its time to live can't be bound in this context, so the real methods run on a mock with its fields set by hand
+    @MockitoBean(answers = Answers.CALLS_REAL_METHODS)
+    private JobStatuses jobStatuses;
+    @MockitoBean
+    private QueuedJobIdsCache queuedJobIdsCache;
+    @MockitoBean
+    private JobCancellations jobCancellations;
 
     private static final String STREAM_NAME = "job_queue";
+    private static final String HIGH_STREAM_NAME = "job_queue:high";
+    private static final String LOW_STREAM_NAME = "job_queue:low";
     private static final String STREAM_NAME_VAR = "streamKey";
+    private static final String PARTITIONS_VAR = "partitions";
+    private static final String INDEX_NAME = "job_queue_index";
+    private static final String INDEX_NAME_VAR = "indexKey";
+    private static final String CHECKPOINT_NAME = "job_queue_checkpoint";
+    private static final String CHECKPOINT_NAME_VAR = "checkpointKey";
+    private static final String DELAYED_NAME = "job_queue_delayed";
+    private static final String DELAYED_NAME_VAR = "delayedKey";
+    private static final String DELAYED_JOBS_NAME = "job_queue_delayed_jobs";
+    private static final String DELAYED_JOBS_NAME_VAR = "delayedJobsKey";
+    private static final String ATTEMPTS_NAME = "job_queue_attempts";
+    private static final String ATTEMPTS_NAME_VAR = "attemptsKey";
+    private static final String RUNNING_NAME = "job_queue_running";
+    private static final String RUNNING_NAME_VAR = "runningKey";
+    private static final String PAGE_SIZE_VAR = "queuedJobsPageSize";
+    private static final String CONSUMER_GROUP_ENABLED_VAR = "consumerGroupEnabled";
+    private static final String CONSUMER_GROUP_NAME_VAR = "consumerGroupName";
+    private static final String CONSUMER_GROUP_NAME = "job-consumers";
+    private static final String RETENTION_ENABLED_VAR = "retentionEnabled";
+    private static final List<String> QUEUE_KEYS = List.of(HIGH_STREAM_NAME, STREAM_NAME, LOW_STREAM_NAME, RUNNING_NAME, CHECKPOINT_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, ATTEMPTS_NAME, INDEX_NAME);
     private static final Long JOB_ID = 15L;
     private static final String JOB_NAME = "some job name";
     private static final String RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-0";
+    private static final String OTHER_RECORD_ID = Instant.now().minusSeconds(300).toEpochMilli() + "-0";
+    private static final String STATUS_KEY_PREFIX = "job_status:";
+    private static final String CLEARED_NAME_PREFIX = "job_queue_index:cleared:";
+    private static final String CLEAR_BATCH_SIZE_VAR = "clearBatchSize";
+    private static final String STATUS_KEY_PREFIX_VAR = "keyPrefix";
+    private static final String STATUS_KEY = STATUS_KEY_PREFIX + JOB_ID;
+    private static final Duration STATUS_TTL = Duration.ofDays(1);
+    private static final String STATUS_TTL_VAR = "ttl";
+    private static final String CACHE_VAR = "queuedJobIdsCache";
+    private static final String CACHE_CHANNEL = "job_queue_changes";
 
     @BeforeEach
     void beforeEach() {
-        ReflectionTestUtils.setField(jobProducer, STREAM_NAME_VAR, STREAM_NAME);
+        ReflectionTestUtils.setField(jobStreams, STREAM_NAME_VAR, STREAM_NAME);
+        ReflectionTestUtils.setField(jobStreams, PARTITIONS_VAR, 1);
+        ReflectionTestUtils.setField(jobQueueBackend, INDEX_NAME_VAR, INDEX_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, CHECKPOINT_NAME_VAR, CHECKPOINT_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, DELAYED_NAME_VAR, DELAYED_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, DELAYED_JOBS_NAME_VAR, DELAYED_JOBS_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, ATTEMPTS_NAME_VAR, ATTEMPTS_NAME);
+        ReflectionTestUtils.setField(jobQueueBackend, RUNNING_NAME_VAR, RUNNING_NAME);
+        ReflectionTestUtils.setField(jobProducer, PAGE_SIZE_VAR, 500);
+        ReflectionTestUtils.setField(jobQueueBackend, CLEAR_BATCH_SIZE_VAR, 1000);
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(jobQueueBackend, RETENTION_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_KEY_PREFIX_VAR, STATUS_KEY_PREFIX);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_TTL_VAR, STATUS_TTL);
+        ReflectionTestUtils.setField(jobProducer, CACHE_VAR, queuedJobIdsCache);
     }
 
     @Test
@@ -60,41 +155,24 @@ class JobProducerTest {
         log.addAppender(listAppender);
 
         JobDto job = initJobDto();
-        RecordId recordId = RecordId.of(RECORD_ID);
 
-        JobDto queuedJob = new JobDto();
-        Long queuedJobId = JOB_ID + 10;
-        queuedJob.setId(queuedJobId);
-        queuedJob.setName("some other job");
-        ObjectRecord<String, JobDto> queuedJobRecord = ObjectRecord.create(STREAM_NAME, queuedJob);
-
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(List.of(queuedJobRecord));
-        when(streamOperations.add((ObjectRecord<String, JobDto>) any()))
-                .thenReturn(recordId);
+        when(redisTemplate.execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
+                .thenReturn(RECORD_ID);
 
         // WHEN
         String result = jobProducer.produce(job);
 
         // THEN
-        ArgumentCaptor<ObjectRecord<String, JobDto>> capturedRecord = ArgumentCaptor.forClass(ObjectRecord.class);
-        verify(redisTemplate, times(2))
+        ArgumentCaptor<Object[]> capturedArgs = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate, times(1))
+                .execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(STREAM_NAME, INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY)), capturedArgs.capture());
+        verify(redisTemplate, never())
                 .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, times(1))
-                .add(capturedRecord.capture());
 
         assertEquals(RECORD_ID, result);
-
-        assertEquals(1, capturedRecord.getAllValues().size());
-        ObjectRecord<String, JobDto> objectRecord = capturedRecord.getValue();
-        assertNotNull(objectRecord.getId());
-        assertNotNull(objectRecord.getId().getValue());
-        assertEquals("*", objectRecord.getId().getValue());
-        checkJob(objectRecord.getValue());
+        checkEnqueueArgs(capturedArgs.getValue());
+        verify(jobMetrics, times(1))
+                .recordEnqueue(any(), eq(JobEnqueueStatus.QUEUED));
 
         List<ILoggingEvent> logs = listAppender.list;
         assertEquals(1, logs.size());
@@ -103,7 +181,7 @@ class JobProducerTest {
     }
 
     @Test
-    void produceJobToTheQueueWithFailedToAddJob() {
+    void produceJobToTheQueueWithJobAlreadyQueued() {
         // GIVEN
         Logger log = (Logger) LoggerFactory.getLogger(JobProducer.class);
         ListAppender<ILoggingEvent> listAppender = new ListAppender<>();
@@ -112,114 +190,253 @@ class JobProducerTest {
 
         JobDto job = initJobDto();
 
-        JobDto queuedJob = new JobDto();
-        Long queuedJobId = JOB_ID + 10;
-        queuedJob.setId(queuedJobId);
-        queuedJob.setName("some other job");
-        ObjectRecord<String, JobDto> queuedJobRecord = ObjectRecord.create(STREAM_NAME, queuedJob);
-
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(List.of(queuedJobRecord));
-        when(streamOperations.add((ObjectRecord<String, JobDto>) any()))
+        when(redisTemplate.execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
                 .thenReturn(null);
 
         // WHEN
-        String result = jobProducer.produce(job);
+        assertThatThrownBy(() -> jobProducer.produce(job))
+                .isInstanceOf(JobAlreadyQueuedException.class)
+                .hasMessageContaining("job with id " + JOB_ID + " is already queued");
 
         // THEN
-        ArgumentCaptor<ObjectRecord<String, JobDto>> capturedRecord = ArgumentCaptor.forClass(ObjectRecord.class);
-        verify(redisTemplate, times(2))
+        ArgumentCaptor<Object[]> capturedArgs = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate, times(1))
+                .execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(STREAM_NAME, INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY)), capturedArgs.capture());
+        verify(redisTemplate, never())
                 .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, times(1))
-                .add(capturedRecord.capture());
-
-        assertNull(result);
+        verify(jobMetrics, times(1))
+                .recordEnqueue(any(), eq(JobEnqueueStatus.ALREADY_QUEUED));
 
-        assertEquals(1, capturedRecord.getAllValues().size());
-        ObjectRecord<String, JobDto> objectRecord = capturedRecord.getValue();
-        assertNotNull(objectRecord.getId());
-        assertNotNull(objectRecord.getId().getValue());
-        assertEquals("*", objectRecord.getId().getValue());
-        checkJob(objectRecord.getValue());
+        checkEnqueueArgs(capturedArgs.getValue());
 
         List<ILoggingEvent> logs = listAppender.list;
-        assertEquals(1, logs.size());
-        assertEquals(ERROR, logs.getFirst().getLevel());
-        assertEquals("error producing message for job " + job, logs.getFirst().getFormattedMessage());
+        assertEquals(0, logs.size());
     }
 
     @Test
-    void produceJobToTheQueueWithJobAlreadyQueued() {
+    void produceJobAlreadyQueuedInCache() {
         // GIVEN
-        Logger log = (Logger) LoggerFactory.getLogger(JobProducer.class);
-        ListAppender<ILoggingEvent> listAppender = new ListAppender<>();
-        listAppender.start();
-        log.addAppender(listAppender);
+        JobDto job = initJobDto();
+        initQueuedJobIdsCache(List.of(initJobRecord(STREAM_NAME, job, RECORD_ID)));
+        when(redisTemplate.execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
+                .thenReturn(null);
+
+        // WHEN
+        assertThatThrownBy(() -> jobProducer.produce(job))
+                .isInstanceOf(JobAlreadyQueuedException.class);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class));
+        verify(jobMetrics, times(1))
+                .recordEnqueue(any(), eq(JobEnqueueStatus.ALREADY_QUEUED));
+    }
+
+    @Test
+    void produceJobWithRemovalEventLost() {
+        // GIVEN
+        JobDto job = initJobDto();
+        QueuedJobIdsCache cache = initQueuedJobIdsCache(List.of(initJobRecord(STREAM_NAME, job, RECORD_ID)));
+        when(redisTemplate.execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
+                .thenReturn(OTHER_RECORD_ID);
+
+        // WHEN
+        String result = jobProducer.produce(job);
 
+        // THEN
+        // the job was removed by another instance whose event never came, so the cache still lists it
+        assertArrayEquals(new long[]{JOB_ID}, cache.getQueuedJobsIds());
+        assertEquals(OTHER_RECORD_ID, result);
+        verify(jobMetrics, times(1))
+                .recordEnqueue(any(), eq(JobEnqueueStatus.QUEUED));
+    }
+
+    @Test
+    void produceDelayedJobToTheQueue() {
+        // GIVEN
         JobDto job = initJobDto();
-        RecordId recordId = RecordId.of(RECORD_ID);
+        job.setDelay(Duration.ofMinutes(5));
+        Instant dueAt = Instant.now().plusSeconds(300).truncatedTo(ChronoUnit.MILLIS);
+
+        when(redisTemplate.execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
+                .thenReturn(String.valueOf(dueAt.toEpochMilli()));
+
+        // WHEN
+        String result = jobProducer.produce(job);
+
+        // THEN
+        ArgumentCaptor<Object[]> capturedArgs = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate, times(1))
+                .execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(STREAM_NAME, INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY)), capturedArgs.capture());
+
+        assertEquals(dueAt.toString(), result);
+
+        Object[] args = capturedArgs.getValue();
+        assertEquals(0, ((byte[]) args[2]).length);
+        assertArrayEquals("300000".getBytes(UTF_8), (byte[]) args[3]);
+        checkRecordFields(args, 4, args.length);
+    }
 
-        ObjectRecord<String, JobDto> queuedJobRecord = ObjectRecord.create(STREAM_NAME, initJobDto());
+    @Test
+    void produceHighPriorityJobToTheQueue() {
+        // GIVEN
+        JobDto job = initJobDto();
+        job.setPriority(JobPriority.HIGH);
 
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(List.of(queuedJobRecord));
-        when(streamOperations.add((ObjectRecord<String, JobDto>) any()))
-                .thenReturn(recordId);
+        when(redisTemplate.execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
+                .thenReturn(RECORD_ID);
 
         // WHEN
+        String result = jobProducer.produce(job);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(eq(ENQUEUE_JOB), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(HIGH_STREAM_NAME, INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY)), any(Object[].class));
+
+        assertEquals(RECORD_ID, result);
+    }
+
+    @Test
+    void produceJobWithInvalidSchedule() {
+        // GIVEN
+        JobDto job = initJobDto();
+        job.setRunAt(Instant.now().plusSeconds(60));
+        job.setDelay(Duration.ofMinutes(5));
+
+        // WHEN / THEN
         assertThatThrownBy(() -> jobProducer.produce(job))
-                .isInstanceOf(JobAlreadyQueuedException.class)
-                .hasMessageContaining("job with id " + JOB_ID + " is already queued");
+                .isInstanceOf(InvalidJobScheduleException.class)
+                .hasMessage("job with id " + JOB_ID + " must have either a run_at or a non negative delay");
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void produceJobsToTheQueue() {
+        // GIVEN
+        JobDto job = initJobDto();
+
+        JobDto job2 = new JobDto();
+        Long jobId2 = JOB_ID + 10;
+        job2.setId(jobId2);
+        job2.setName("some other job");
+
+        JobDto job3 = new JobDto();
+        Long jobId3 = JOB_ID + 20;
+        job3.setId(jobId3);
+        job3.setRunAt(Instant.now().plusSeconds(60));
+
+        // the second job is already queued, so its result is empty
+        when(redisTemplate.execute(eq(ENQUEUE_JOBS), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class)))
+                .thenReturn(RECORD_ID + ",," + job3.getRunAt().toEpochMilli());
+
+        // WHEN
+        List<JobEnqueueResult> results = jobProducer.produceAll(List.of(job, job2, job3));
 
         // THEN
+        ArgumentCaptor<Object[]> capturedArgs = ArgumentCaptor.forClass(Object[].class);
         verify(redisTemplate, times(1))
-                .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, never())
-                .add(any());
+                .execute(eq(ENQUEUE_JOBS), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(STREAM_NAME, INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY, STATUS_KEY_PREFIX + jobId2, STATUS_KEY_PREFIX + jobId3)),
+                        capturedArgs.capture());
+
+        Object[] args = capturedArgs.getValue();
+        assertArrayEquals(String.valueOf(STATUS_TTL.toMillis()).getBytes(UTF_8), (byte[]) args[0]);
+        int fieldCount = Integer.parseInt(new String((byte[]) args[4], UTF_8));
+        assertArrayEquals(JOB_ID.toString().getBytes(UTF_8), (byte[]) args[1]);
+        assertEquals(0, ((byte[]) args[2]).length);
+        assertEquals(0, ((byte[]) args[3]).length);
+        checkRecordFields(args, 5, 5 + fieldCount);
+
+        int secondJobIndex = 5 + fieldCount;
+        int secondFieldCount = Integer.parseInt(new String((byte[]) args[secondJobIndex + 3], UTF_8));
+        assertArrayEquals(jobId2.toString().getBytes(UTF_8), (byte[]) args[secondJobIndex]);
+
+        int thirdJobIndex = secondJobIndex + 4 + secondFieldCount;
+        int thirdFieldCount = Integer.parseInt(new String((byte[]) args[thirdJobIndex + 3], UTF_8));
+        assertArrayEquals(jobId3.toString().getBytes(UTF_8), (byte[]) args[thirdJobIndex]);
+        assertArrayEquals(String.valueOf(job3.getRunAt().toEpochMilli()).getBytes(UTF_8), (byte[]) args[thirdJobIndex + 1]);
+        assertEquals(0, ((byte[]) args[thirdJobIndex + 2]).length);
+        assertEquals(thirdJobIndex + 4 + thirdFieldCount, args.length);
 
-        List<ILoggingEvent> logs = listAppender.list;
-        assertEquals(0, logs.size());
+        assertEquals(3, results.size());
+        assertEquals(new JobEnqueueResult(JOB_ID, RECORD_ID, JobEnqueueStatus.QUEUED), results.get(0));
+        assertEquals(new JobEnqueueResult(jobId2, null, JobEnqueueStatus.ALREADY_QUEUED), results.get(1));
+        assertEquals(new JobEnqueueResult(jobId3, null, JobEnqueueStatus.DELAYED), results.get(2));
     }
 
     @Test
-    void getQueuedJobsIds() {
+    void produceJobsToPartitionedQueue() {
         // GIVEN
+        ReflectionTestUtils.setField(jobStreams, PARTITIONS_VAR, 2);
+
         JobDto job = initJobDto();
-        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, job);
+        job.setPartitionKey("a");
+
+        JobDto job2 = new JobDto();
+        Long jobId2 = JOB_ID + 10;
+        job2.setId(jobId2);
+        job2.setName("some other job");
+        job2.setPartitionKey("b");
+
+        String otherRecordId = Instant.now().minusSeconds(570).toEpochMilli() + "-0";
+
+        when(redisTemplate.execute(eq(ENQUEUE_JOBS), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(STREAM_NAME + ":1", INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY)), any(Object[].class)))
+                .thenReturn(RECORD_ID);
+        when(redisTemplate.execute(eq(ENQUEUE_JOBS), eq(RECORD_ARGS_SERIALIZER), any(), eq(List.of(STREAM_NAME + ":0", INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY_PREFIX + jobId2)), any(Object[].class)))
+                .thenReturn(otherRecordId);
+
+        // WHEN
+        List<JobEnqueueResult> results = jobProducer.produceAll(List.of(job, job2));
+
+        // THEN
+        verify(redisTemplate, times(2))
+                .execute(eq(ENQUEUE_JOBS), eq(RECORD_ARGS_SERIALIZER), any(), anyList(), any(Object[].class));
+
+        assertEquals(2, results.size());
+        assertEquals(new JobEnqueueResult(JOB_ID, RECORD_ID, JobEnqueueStatus.QUEUED), results.get(0));
+        assertEquals(new JobEnqueueResult(jobId2, otherRecordId, JobEnqueueStatus.QUEUED), results.get(1));
+    }
+
+    @Test
+    void produceEmptyJobsList() {
+        // WHEN
+        List<JobEnqueueResult> results = jobProducer.produceAll(List.of());
+
+        // THEN
+        verifyNoInteractions(redisTemplate);
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    void getQueuedJobsIds() {
+        // GIVEN
+        ByteRecord jobRecord = initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID);
 
         JobDto job2 = new JobDto();
         Long jobId2 = JOB_ID + 10;
         job2.setId(jobId2);
         job2.setName("some other job");
-        ObjectRecord<String, JobDto> jobRecord2 = ObjectRecord.create(STREAM_NAME, job2);
+        ByteRecord jobRecord2 = initJobRecord(STREAM_NAME, job2, Instant.now().minusSeconds(570).toEpochMilli() + "-0");
 
+        // record written with the hash encoding before switching to the binary one
         JobDto job3 = new JobDto();
         Long jobId3 = JOB_ID - 3;
         job3.setId(jobId3);
         job3.setName("some third job");
-        ObjectRecord<String, JobDto> jobRecord3 = ObjectRecord.create(STREAM_NAME, job3);
+        ByteRecord jobRecord3 = StreamRecords.rawBytes(ObjectHashMapper.getSharedInstance().toHash(job3))
+                .withStreamKey(STREAM_NAME.getBytes(UTF_8))
+                .withId(RecordId.of(Instant.now().minusSeconds(540).toEpochMilli() + "-0"));
 
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
+        mockStreamCommands();
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), eq(Limit.unlimited())))
                 .thenReturn(List.of(jobRecord, jobRecord2, jobRecord3));
 
         // WHEN
         List<Long> results = jobProducer.getQueuedJobsIds();
 
         // THEN
-        verify(redisTemplate, times(1))
-                .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
+        verify(streamCommands, times(1))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), eq(Limit.unlimited()));
 
         assertNotNull(results);
         assertEquals(3, results.size());
@@ -229,98 +446,259 @@ class JobProducerTest {
     }
 
     @Test
-    void removeJobFromQueue() {
+    void getQueuedJobsIdsFromCache() {
         // GIVEN
-        JobDto job = initJobDto();
-        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, job)
-                .withId(RecordId.of(RECORD_ID));
+        JobDto job2 = new JobDto();
+        Long jobId2 = JOB_ID + 10;
+        job2.setId(jobId2);
+        job2.setName("some other job");
+        String nextRecordId = Instant.now().minusSeconds(570).toEpochMilli() + "-0";
+        initQueuedJobIdsCache(List.of(initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID), initJobRecord(STREAM_NAME, job2, nextRecordId)));
+
+        // WHEN
+        List<Long> results = jobProducer.getQueuedJobsIds();
+        QueuedJobIdsPage firstPage = jobProducer.getQueuedJobsIds(null, 1);
+        QueuedJobIdsPage lastPage = jobProducer.getQueuedJobsIds(firstPage.nextCursor(), 2);
+
+        // THEN
+        // the streams are only read once, when the cache is synced
+        verify(streamCommands, times(1))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), any(), any(Limit.class));
+
+        assertEquals(List.of(JOB_ID, jobId2), results);
+        assertEquals(List.of(JOB_ID), firstPage.jobIds());
+        assertEquals("1:" + RECORD_ID, firstPage.nextCursor());
+        assertEquals(List.of(jobId2), lastPage.jobIds());
+        assertNull(lastPage.nextCursor());
+    }
+
+    @Test
+    void getQueuedJobsIdsWithCacheNotSynced() {
+        // GIVEN
+        QueuedJobIdsCache cache = initQueuedJobIdsCache(List.of(initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID)));
+        when(redisTemplate.execute(eq(READ_STREAM_STATS), anyList()))
+                .thenThrow(new RedisConnectionFailureException("connection lost"));
+        ReflectionTestUtils.setField(cache, "nextResync", System.nanoTime());
+        cache.refresh();
+
+        // WHEN
+        List<Long> results = jobProducer.getQueuedJobsIds();
+
+        // THEN
+        // removals may have been missed while disconnected, so the streams are read until the cache is synced again
+        verify(streamCommands, times(1))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), eq(Limit.unlimited()));
+        assertEquals(List.of(JOB_ID), results);
+        assertNull(cache.getQueuedJobsIds());
+    }
+
+    @Test
+    void getQueuedJobsIdsPage() {
+        // GIVEN
+        ByteRecord jobRecord = initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID);
 
         JobDto job2 = new JobDto();
         Long jobId2 = JOB_ID + 10;
         job2.setId(jobId2);
         job2.setName("some other job");
-        ObjectRecord<String, JobDto> jobRecord2 = ObjectRecord.create(STREAM_NAME, job2)
-                .withId(RecordId.of(Instant.now().minusSeconds(630).toEpochMilli() + "-0"));
+        String nextRecordId = Instant.now().minusSeconds(570).toEpochMilli() + "-0";
+        ByteRecord jobRecord2 = initJobRecord(STREAM_NAME, job2, nextRecordId);
 
-        JobDto job3 = new JobDto();
-        Long jobId3 = JOB_ID - 3;
-        job3.setId(jobId3);
-        job3.setName("some third job");
-        ObjectRecord<String, JobDto> jobRecord3 = ObjectRecord.create(STREAM_NAME, job3)
-                .withId(RecordId.of(Instant.now().minusSeconds(570).toEpochMilli() + "-0"));
+        Range<String> expectedRange = Range.of(Range.Bound.exclusive(RECORD_ID), Range.Bound.unbounded());
 
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(List.of(jobRecord2, jobRecord, jobRecord3));
+        mockStreamCommands();
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(expectedRange), any(Limit.class)))
+                .thenReturn(List.of(jobRecord, jobRecord2));
 
         // WHEN
-        jobProducer.removeJobFromQueue(JOB_ID);
+        QueuedJobIdsPage result = jobProducer.getQueuedJobsIds("1:" + RECORD_ID, 2);
 
         // THEN
-        ArgumentCaptor<ObjectRecord<String, JobDto>> capturedRecord = ArgumentCaptor.forClass(ObjectRecord.class);
-        verify(redisTemplate, times(2))
-                .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, times(1))
-                .delete(capturedRecord.capture());
+        ArgumentCaptor<Limit> capturedLimit = ArgumentCaptor.forClass(Limit.class);
+        verify(streamCommands, times(1))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(expectedRange), capturedLimit.capture());
+        assertEquals(2, capturedLimit.getValue().getCount());
 
-        ObjectRecord<String, JobDto> recordResult = capturedRecord.getValue();
-        assertNotNull(recordResult);
+        assertNotNull(result);
+        assertEquals(List.of(JOB_ID, jobId2), result.jobIds());
+        assertEquals("1:" + nextRecordId, result.nextCursor());
+    }
+
+    @Test
+    void getQueuedJobsIdsLastPage() {
+        // GIVEN
+        ByteRecord jobRecord = initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID);
+
+        mockStreamCommands();
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), any(Limit.class)))
+                .thenReturn(List.of(jobRecord));
+
+        // WHEN
+        QueuedJobIdsPage result = jobProducer.getQueuedJobsIds(null, 2);
+
+        // THEN
+        verify(streamCommands, times(1))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), any(Limit.class));
 
-        JobDto result = recordResult.getValue();
         assertNotNull(result);
-        assertEquals(JOB_ID, result.getId());
-        assertEquals(JOB_NAME, result.getName());
+        assertEquals(List.of(JOB_ID), result.jobIds());
+        assertNull(result.nextCursor());
     }
 
     @Test
-    void removeJobFromQueueWithEmptyQueue() {
+    void getQueuedJobsIdsPageWithRetention() {
         // GIVEN
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(emptyList());
+        ReflectionTestUtils.setField(jobQueueBackend, RETENTION_ENABLED_VAR, true);
 
-        // WHEN / THEN
-        assertThatThrownBy(() -> jobProducer.removeJobFromQueue(JOB_ID))
-                .isInstanceOf(JobNotFoundInQueueException.class)
-                .hasMessage("job with id " + JOB_ID + " is not queued");
+        String checkpoint = Instant.now().minusSeconds(900).toEpochMilli() + "-0";
+        ByteRecord jobRecord = initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID);
 
-        verify(redisTemplate, times(1))
-                .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, never())
-                .delete(any());
+        Range<String> expectedRange = Range.of(Range.Bound.exclusive(checkpoint), Range.Bound.unbounded());
+
+        mockStreamCommands();
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.get(CHECKPOINT_NAME, STREAM_NAME))
+                .thenReturn(checkpoint);
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(expectedRange), any(Limit.class)))
+                .thenReturn(List.of(jobRecord));
+
+        // WHEN
+        QueuedJobIdsPage result = jobProducer.getQueuedJobsIds(null, 2);
+
+        // THEN
+        verify(hashOperations, times(1))
+                .get(CHECKPOINT_NAME, STREAM_NAME);
+        verify(streamCommands, times(1))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(expectedRange), any(Limit.class));
+
+        assertNotNull(result);
+        assertEquals(List.of(JOB_ID), result.jobIds());
     }
 
     @Test
-    void removeRunningJobFromQueue() {
+    void getQueuedJobsIdsPageAcrossPartitions() {
         // GIVEN
-        JobDto job = initJobDto();
-        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, job)
-                .withId(RecordId.of(RECORD_ID));
+        ReflectionTestUtils.setField(jobStreams, PARTITIONS_VAR, 2);
 
         JobDto job2 = new JobDto();
         Long jobId2 = JOB_ID + 10;
         job2.setId(jobId2);
         job2.setName("some other job");
-        ObjectRecord<String, JobDto> jobRecord2 = ObjectRecord.create(STREAM_NAME, job2)
-                .withId(RecordId.of(Instant.now().minusSeconds(570).toEpochMilli() + "-0"));
+        ByteRecord jobRecord2 = initJobRecord(STREAM_NAME + ":1", job2, RECORD_ID);
 
-        JobDto job3 = new JobDto();
-        Long jobId3 = JOB_ID - 3;
-        job3.setId(jobId3);
-        job3.setName("some third job");
-        ObjectRecord<String, JobDto> jobRecord3 = ObjectRecord.create(STREAM_NAME, job3)
-                .withId(RecordId.of(Instant.now().minusSeconds(540).toEpochMilli() + "-0"));
+        Range<String> expectedRange = Range.of(Range.Bound.exclusive(RECORD_ID), Range.Bound.unbounded());
 
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(List.of(jobRecord, jobRecord2, jobRecord3));
+        mockStreamCommands();
+        when(streamCommands.xRange(eq((STREAM_NAME + ":0").getBytes(UTF_8)), eq(expectedRange), any(Limit.class)))
+                .thenReturn(List.of());
+        when(streamCommands.xRange(eq((STREAM_NAME + ":1").getBytes(UTF_8)), eq(Range.unbounded()), any(Limit.class)))
+                .thenReturn(List.of(jobRecord2));
+
+        // WHEN
+        QueuedJobIdsPage result = jobProducer.getQueuedJobsIds("1:" + RECORD_ID, 1);
+
+        // THEN
+        verify(streamCommands, times(1))
+                .xRange(eq((STREAM_NAME + ":0").getBytes(UTF_8)), eq(expectedRange), any(Limit.class));
+        verify(streamCommands, times(1))
+                .xRange(eq((STREAM_NAME + ":1").getBytes(UTF_8)), eq(Range.unbounded()), any(Limit.class));
+
+        assertNotNull(result);
+        assertEquals(List.of(jobId2), result.jobIds());
+        assertEquals("4:" + RECORD_ID, result.nextCursor());
+    }
+
+    @Test
+    void getQueuedJobsIdsPageWithInvalidCursor() {
+        // WHEN / THEN
+        assertThatThrownBy(() -> jobProducer.getQueuedJobsIds(RECORD_ID, 2))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessage("cursor " + RECORD_ID + " is not valid");
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void getQueuedJobsIdsPageWithInvalidRecordId() {
+        // WHEN / THEN
+        // the record id is checked before it reaches Valkey
+        assertThatThrownBy(() -> jobProducer.getQueuedJobsIds("0:0-garbage", 2))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessage("cursor 0:0-garbage is not valid");
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void forEachQueuedJobIdsPage() {
+        // GIVEN
+        ReflectionTestUtils.setField(jobProducer, PAGE_SIZE_VAR, 1);
+
+        ByteRecord jobRecord = initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID);
+        Range<String> nextRange = Range.of(Range.Bound.exclusive(RECORD_ID), Range.Bound.unbounded());
+
+        mockStreamCommands();
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(Range.unbounded()), any(Limit.class)))
+                .thenReturn(List.of(jobRecord));
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), eq(nextRange), any(Limit.class)))
+                .thenReturn(List.of());
+
+        // WHEN
+        List<List<Long>> pages = new ArrayList<>();
+        jobProducer.forEachQueuedJobIdsPage(pages::add);
+
+        // THEN
+        verify(streamCommands, times(2))
+                .xRange(eq(STREAM_NAME.getBytes(UTF_8)), any(), any(Limit.class));
+
+        assertEquals(List.of(List.of(JOB_ID)), pages);
+    }
+
+    @Test
+    void removeJobFromQueue() {
+        // GIVEN
+        when(redisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString()))
+                .thenReturn(1L);
+
+        // WHEN
+        jobProducer.removeJobFromQueue(JOB_ID);
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString());
+        verify(redisTemplate, never())
+                .opsForStream();
+        verify(jobMetrics, times(1))
+                .recordRemove(any(), eq(JobMetrics.REMOVED));
+        verify(redisTemplate, times(1))
+                .delete(STATUS_KEY);
+        verify(queuedJobIdsCache, times(1))
+                .remove(JOB_ID);
+    }
+
+    @Test
+    void removeJobFromQueueInCache() {
+        // GIVEN
+        QueuedJobIdsCache cache = initQueuedJobIdsCache(List.of(initJobRecord(STREAM_NAME, initJobDto(), RECORD_ID)));
+        when(redisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString()))
+                .thenReturn(1L);
+
+        // WHEN
+        jobProducer.removeJobFromQueue(JOB_ID);
+
+        // THEN
+        assertArrayEquals(new long[0], cache.getQueuedJobsIds());
+        // the other instances drop the job from their own cache
+        verify(redisTemplate, times(1))
+                .convertAndSend(eq(CACHE_CHANNEL), endsWith(" removed " + JOB_ID));
+    }
+
+    @Test
+    void removeRunningJobFromQueue() {
+        // GIVEN
+        when(redisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString()))
+                .thenReturn(-1L);
 
         // WHEN / THEN
         assertThatThrownBy(() -> jobProducer.removeJobFromQueue(JOB_ID))
@@ -328,34 +706,34 @@ class JobProducerTest {
                 .hasMessage("job with id " + JOB_ID + " is running and can't be removed from the queue");
 
         verify(redisTemplate, times(1))
+                .execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString());
+        verify(redisTemplate, never())
                 .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, never())
-                .delete(any());
     }
 
     @Test
-    void removeJobFromQueueWithJobAbsent() {
+    void removeJobFromQueueWithConsumerGroup() {
         // GIVEN
-        JobDto job2 = new JobDto();
-        Long jobId2 = JOB_ID + 10;
-        job2.setId(jobId2);
-        job2.setName("some other job");
-        ObjectRecord<String, JobDto> jobRecord2 = ObjectRecord.create(STREAM_NAME, job2)
-                .withId(RecordId.of(Instant.now().minusSeconds(570).toEpochMilli() + "-0"));
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_NAME_VAR, CONSUMER_GROUP_NAME);
 
-        JobDto job3 = new JobDto();
-        Long jobId3 = JOB_ID - 3;
-        job3.setId(jobId3);
-        job3.setName("some third job");
-        ObjectRecord<String, JobDto> jobRecord3 = ObjectRecord.create(STREAM_NAME, job3)
-                .withId(RecordId.of(Instant.now().minusSeconds(540).toEpochMilli() + "-0"));
+        when(redisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString(), CONSUMER_GROUP_NAME))
+                .thenReturn(-1L);
+
+        // WHEN / THEN
+        assertThatThrownBy(() -> jobProducer.removeJobFromQueue(JOB_ID))
+                .isInstanceOf(RemovingRunningJobException.class)
+                .hasMessage("job with id " + JOB_ID + " is running and can't be removed from the queue");
 
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
-        when(streamOperations.read(JobDto.class, StreamOffset.fromStart(STREAM_NAME)))
-                .thenReturn(List.of(jobRecord2, jobRecord3));
+        verify(redisTemplate, times(1))
+                .execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString(), CONSUMER_GROUP_NAME);
+    }
+
+    @Test
+    void removeJobFromQueueWithJobAbsent() {
+        // GIVEN
+        when(redisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString()))
+                .thenReturn(0L);
 
         // WHEN / THEN
         assertThatThrownBy(() -> jobProducer.removeJobFromQueue(JOB_ID))
@@ -363,27 +741,138 @@ class JobProducerTest {
                 .hasMessage("job with id " + JOB_ID + " is not queued");
 
         verify(redisTemplate, times(1))
+                .execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, JOB_ID.toString());
+        verify(redisTemplate, never())
                 .opsForStream();
-        verify(streamOperations, times(1))
-                .read(JobDto.class, StreamOffset.fromStart(STREAM_NAME));
-        verify(streamOperations, never())
-                .delete(any());
     }
 
     @Test
+    void getJobState() {
+        // GIVEN
+        Instant queuedAt = Instant.now().minusSeconds(60).truncatedTo(ChronoUnit.MILLIS);
+        Instant startedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.entries(STATUS_KEY))
+                .thenReturn(Map.<Object, Object>of("status", "RUNNING", "queued_at", String.valueOf(queuedAt.toEpochMilli()),
+                        "started_at", String.valueOf(startedAt.toEpochMilli()), "failed_attempts", "2", "error", "some error"));
+
+        // WHEN
+        JobState result = jobProducer.getJobState(JOB_ID);
+
+        // THEN
+        assertEquals(new JobState(JOB_ID, JobStatus.RUNNING, queuedAt, startedAt, null, 2L, "some error"), result);
+    }
+
+    @Test
+    void getJobStateWithUnknownJob() {
+        // GIVEN
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.entries(STATUS_KEY))
+                .thenReturn(Map.of());
+
+        // WHEN / THEN
+        assertThatThrownBy(() -> jobProducer.getJobState(JOB_ID))
+                .isInstanceOf(JobNotFoundException.class)
+                .hasMessage("job with id " + JOB_ID + " is not known or its status expired");
+    }
+
+    @Test
+    void cancelRunningJob() {
+        // GIVEN
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.entries(STATUS_KEY))
+                .thenReturn(Map.<Object, Object>of("status", "RUNNING"));
+
+        // WHEN
+        jobProducer.cancelRunningJob(JOB_ID);
+
+        // THEN
+        verify(jobCancellations, times(1))
+                .requestCancel(JOB_ID);
+    }
+
+    @Test
+    void cancelRunningJobWithJobQueued() {
+        // GIVEN
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.entries(STATUS_KEY))
+                .thenReturn(Map.<Object, Object>of("status", "QUEUED"));
+
+        // WHEN / THEN
+        assertThatThrownBy(() -> jobProducer.cancelRunningJob(JOB_ID))
+                .isInstanceOf(JobNotRunningException.class)
+                .hasMessage("job with id " + JOB_ID + " is not running and can't be cancelled");
+        verify(jobCancellations, never())
+                .requestCancel(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
     void clearJobQueue() {
         // GIVEN
-        when(redisTemplate.opsForStream())
-                .thenReturn(streamOperations);
+        ReflectionTestUtils.setField(jobQueueBackend, CLEAR_BATCH_SIZE_VAR, 2);
+        Iterator<Map.Entry<Object, Object>> clearedJobs = List.<Map.Entry<Object, Object>>of(Map.entry(JOB_ID.toString(), STREAM_NAME + "|" + RECORD_ID),
+                Map.entry("16", DELAYED_NAME + "|16"), Map.entry("17", STREAM_NAME + "|" + OTHER_RECORD_ID)).iterator();
+        Cursor<Map.Entry<Object, Object>> cursor = mock(Cursor.class);
+        when(cursor.hasNext())
+                .thenAnswer(invocation -> clearedJobs.hasNext());
+        when(cursor.next())
+                .thenAnswer(invocation -> clearedJobs.next());
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.scan(startsWith(CLEARED_NAME_PREFIX), any()))
+                .thenReturn(cursor);
 
         // WHEN
         jobProducer.clearJobQueue();
 
         // THEN
+        ArgumentCaptor<List<String>> capturedKeys = ArgumentCaptor.forClass(List.class);
         verify(redisTemplate, times(1))
-                .opsForStream();
-        verify(streamOperations, times(1))
-                .trim(STREAM_NAME, 0);
+                .execute(eq(CLEAR_JOB_QUEUE), capturedKeys.capture(), eq(String.valueOf(STATUS_TTL.toMillis())));
+        String clearedKey = capturedKeys.getValue().getLast();
+        assertEquals(QUEUE_KEYS, capturedKeys.getValue().subList(0, QUEUE_KEYS.size()));
+        assertTrue(clearedKey.startsWith(CLEARED_NAME_PREFIX));
+
+        // the records and statuses of the cleared jobs are deleted a batch at a time
+        verify(redisTemplate, times(1))
+                .execute(DELETE_CLEARED_JOBS, List.of(clearedKey, INDEX_NAME, DELAYED_NAME, STATUS_KEY, STATUS_KEY_PREFIX + 16), "", JOB_ID.toString(), "16");
+        verify(redisTemplate, times(1))
+                .execute(DELETE_CLEARED_JOBS, List.of(clearedKey, INDEX_NAME, DELAYED_NAME, STATUS_KEY_PREFIX + 17), "", "17");
+        verify(redisTemplate, times(1))
+                .unlink(clearedKey);
+        verify(queuedJobIdsCache, times(1))
+                .clear();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void clearEmptyJobQueueWithConsumerGroup() {
+        // GIVEN
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(jobQueueBackend, CONSUMER_GROUP_NAME_VAR, CONSUMER_GROUP_NAME);
+        Cursor<Map.Entry<Object, Object>> cursor = mock(Cursor.class);
+        when(redisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.scan(startsWith(CLEARED_NAME_PREFIX), any()))
+                .thenReturn(cursor);
+
+        // WHEN
+        jobProducer.clearJobQueue();
+
+        // THEN
+        verify(redisTemplate, times(1))
+                .execute(eq(CLEAR_JOB_QUEUE), anyList(), eq(String.valueOf(STATUS_TTL.toMillis())));
+        verify(redisTemplate, never())
+                .execute(eq(DELETE_CLEARED_JOBS), anyList(), any(Object[].class));
+        verify(redisTemplate, times(1))
+                .unlink(startsWith(CLEARED_NAME_PREFIX));
+        verify(cursor, times(1))
+                .close();
     }
 
     private JobDto initJobDto() {
@@ -393,8 +882,55 @@ class JobProducerTest {
         return job;
     }
 
-    private void checkJob(JobDto job) {
-        assertNotNull(job);
+    private ByteRecord initJobRecord(String streamKey, JobDto job, String recordId) {
+        return StreamRecords.rawBytes(jobRecordMapper.toHash(job))
+                .withStreamKey(streamKey.getBytes(UTF_8))
+                .withId(RecordId.of(recordId));
+    }
+
+    // a real cache replaces the mock of the context, synced with the given records of the normal priority stream
+    private QueuedJobIdsCache initQueuedJobIdsCache(List<ByteRecord> jobRecords) {
+        QueuedJobIdsCache cache = new QueuedJobIdsCache(jobQueueBackend, jobStreams);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "channel", CACHE_CHANNEL);
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "readBatchSize", 10);
+        ReflectionTestUtils.setField(cache, "resyncInterval", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(jobProducer, CACHE_VAR, cache);
+
+        mockStreamCommands();
+        when(redisTemplate.execute(eq(READ_STREAM_STATS), anyList()))
+                .thenReturn(List.of(0L, "", (long) jobRecords.size(), RECORD_ID, 0L, ""));
+        when(streamCommands.xRange(eq(STREAM_NAME.getBytes(UTF_8)), any(), any(Limit.class)))
+                .thenReturn(jobRecords);
+        cache.refresh();
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockStreamCommands() {
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0, RedisCallback.class).doInRedis(redisConnection));
+        when(redisConnection.streamCommands())
+                .thenReturn(streamCommands);
+    }
+
+    private void checkEnqueueArgs(Object[] args) {
+        assertNotNull(args);
+        assertArrayEquals(String.valueOf(STATUS_TTL.toMillis()).getBytes(UTF_8), (byte[]) args[0]);
+        assertArrayEquals(JOB_ID.toString().getBytes(UTF_8), (byte[]) args[1]);
+        assertEquals(0, ((byte[]) args[2]).length);
+        assertEquals(0, ((byte[]) args[3]).length);
+        checkRecordFields(args, 4, args.length);
+    }
+
+    private void checkRecordFields(Object[] args, int from, int to) {
+        // the binary encoding stores the whole job in a single field
+        assertEquals(2, to - from);
+
+        Map<byte[], byte[]> fields = new HashMap<>();
+        fields.put((byte[]) args[from], (byte[]) args[from + 1]);
+        JobDto job = jobRecordMapper.fromHash(fields);
         assertEquals(JOB_ID, job.getId());
         assertEquals(JOB_NAME, job.getName());
     }
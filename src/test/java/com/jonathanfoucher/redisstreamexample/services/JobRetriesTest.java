@@ -0,0 +1,121 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.jonathanfoucher.redisstreamexample.common.codecs.BinaryJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.common.codecs.HashJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static ch.qos.logback.classic.Level.WARN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// its delays can't be bound in a plain context, so it is built by hand with its fields set like in the benchmarks
+class JobRetriesTest {
+    private JobRetries jobRetries;
+
+    private static final String STREAM_NAME = "job_queue";
+    private static final String MAX_ATTEMPTS_VAR = "maxAttempts";
+    private static final String INITIAL_DELAY_VAR = "initialDelay";
+    private static final String MAX_DELAY_VAR = "maxDelay";
+    private static final String DEAD_LETTER_MAX_LENGTH_VAR = "deadLetterMaxLength";
+    private static final String RECORD_CODEC_VAR = "recordCodec";
+    private static final Long JOB_ID = 15L;
+    private static final String JOB_NAME = "some job name";
+    private static final String JOB_ERROR = "sleep interrupted";
+    private static final String RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-0";
+    private static final int RECORD_FIELDS_INDEX = 10;
+
+    @BeforeEach
+    void beforeEach() {
+        JobRecordMapper jobRecordMapper = new JobRecordMapper(List.of(new BinaryJobRecordCodec(), new HashJobRecordCodec()));
+        ReflectionTestUtils.setField(jobRecordMapper, RECORD_CODEC_VAR, "binary");
+        jobRecordMapper.initWriteCodec();
+
+        jobRetries = new JobRetries(jobRecordMapper);
+        ReflectionTestUtils.setField(jobRetries, MAX_ATTEMPTS_VAR, 5);
+        ReflectionTestUtils.setField(jobRetries, INITIAL_DELAY_VAR, Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(jobRetries, MAX_DELAY_VAR, Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(jobRetries, DEAD_LETTER_MAX_LENGTH_VAR, 10000L);
+    }
+
+    @Test
+    void getRetryArgs() {
+        // WHEN
+        List<String> args = getRetryArgs(RecordId.of(RECORD_ID));
+
+        // THEN
+        assertEquals(List.of(RECORD_ID, JOB_ID.toString(), "5", "1000", "300000", JOB_ERROR, "", "", RECORD_ID, "10000"),
+                args.subList(0, RECORD_FIELDS_INDEX));
+        // the record fields come last, as field / value pairs
+        assertEquals(0, (args.size() - RECORD_FIELDS_INDEX) % 2);
+    }
+
+    @Test
+    void getRetryArgsWithUnboundedDeadLetters() {
+        // GIVEN
+        ReflectionTestUtils.setField(jobRetries, DEAD_LETTER_MAX_LENGTH_VAR, -1L);
+
+        // WHEN
+        List<String> args = getRetryArgs(null);
+
+        // THEN
+        assertEquals("", args.get(8));
+        assertEquals("0", args.get(9));
+    }
+
+    @Test
+    void getDelay() {
+        // WHEN / THEN
+        assertEquals(Duration.ofSeconds(1), jobRetries.getDelay(1));
+        assertEquals(Duration.ofSeconds(8), jobRetries.getDelay(4));
+        assertEquals(Duration.ofMinutes(5), jobRetries.getDelay(20));
+    }
+
+    @Test
+    void logRetryDeadLettered() {
+        // GIVEN
+        Logger log = (Logger) LoggerFactory.getLogger(JobRetries.class);
+        ListAppender<ILoggingEvent> listAppender = new ListAppender<>();
+        listAppender.start();
+        log.addAppender(listAppender);
+        // a job is always given at least one attempt
+        ReflectionTestUtils.setField(jobRetries, MAX_ATTEMPTS_VAR, 0);
+        JobDto job = new JobDto();
+        job.setId(JOB_ID);
+        job.setName(JOB_NAME);
+
+        // WHEN
+        jobRetries.logRetry(job, JobRetries.JOB_DEAD_LETTERED);
+
+        // THEN
+        log.detachAppender(listAppender);
+        List<ILoggingEvent> logs = listAppender.list;
+        assertEquals(1, logs.size());
+        assertEquals(WARN, logs.getFirst().getLevel());
+        assertEquals("job " + job + " failed 1 times, it was moved to the dead letter stream", logs.getFirst().getFormattedMessage());
+    }
+
+    private List<String> getRetryArgs(RecordId checkpoint) {
+        JobDto job = new JobDto();
+        job.setId(JOB_ID);
+        job.setName(JOB_NAME);
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, job)
+                .withId(RecordId.of(RECORD_ID));
+
+        return jobRetries.getRetryArgs(jobRecord, new RuntimeException(JOB_ERROR), checkpoint).stream()
+                .map(arg -> new String(arg, UTF_8))
+                .toList();
+    }
+}
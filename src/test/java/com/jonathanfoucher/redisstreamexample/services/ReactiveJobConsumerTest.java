@@ -0,0 +1,179 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobState;
+import com.jonathanfoucher.redisstreamexample.data.JobStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.*;
+
+@ActiveProfiles("reactive")
+@SpringJUnitConfig(ReactiveJobConsumer.class)
+class ReactiveJobConsumerTest {
+    @Autowired
+    private ReactiveJobConsumer reactiveJobConsumer;
+    @MockitoBean
+    private ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
+    @MockitoBean
+    private JobRetries jobRetries;
+    @MockitoBean
+    private JobMetrics jobMetrics;
+    @MockitoBean(answers = Answers.CALLS_REAL_METHODS)
+    private JobStatuses jobStatuses;
+    @MockitoBean
+    private ReactiveJobEventBroadcaster jobEventBroadcaster;
+
+    private static final String STREAM_NAME = "job_queue";
+    private static final String INDEX_NAME = "job_queue_index";
+    private static final String INDEX_NAME_VAR = "indexKey";
+    private static final String CHECKPOINT_NAME = "job_queue_checkpoint";
+    private static final String CHECKPOINT_NAME_VAR = "checkpointKey";
+    private static final String ATTEMPTS_NAME = "job_queue_attempts";
+    private static final String ATTEMPTS_NAME_VAR = "attemptsKey";
+    private static final String RUNNING_NAME = "job_queue_running";
+    private static final String RUNNING_NAME_VAR = "runningKey";
+    private static final String HISTORY_NAME = "job_queue_history";
+    private static final String HISTORY_NAME_VAR = "historyKey";
+    private static final String CONSUMER_GROUP_ENABLED_VAR = "consumerGroupEnabled";
+    private static final String CONSUMER_GROUP_NAME_VAR = "consumerGroupName";
+    private static final String CONSUMER_GROUP_NAME = "job-consumers";
+    private static final String RETENTION_ENABLED_VAR = "retentionEnabled";
+    private static final String HISTORY_MAX_LENGTH_VAR = "historyMaxLength";
+    private static final String JOB_DURATION_MS_VAR = "jobDurationMs";
+    private static final List<String> DELETE_KEYS = List.of(STREAM_NAME, INDEX_NAME, CHECKPOINT_NAME, ATTEMPTS_NAME, HISTORY_NAME, RUNNING_NAME);
+    private static final Long JOB_ID = 15L;
+    private static final String JOB_NAME = "some job name";
+    private static final String STATUS_KEY_PREFIX = "job_status:";
+    private static final String STATUS_KEY_PREFIX_VAR = "keyPrefix";
+    private static final String STATUS_TTL_VAR = "ttl";
+    private static final String RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-0";
+
+    @BeforeEach
+    void beforeEach() {
+        ReflectionTestUtils.setField(reactiveJobConsumer, INDEX_NAME_VAR, INDEX_NAME);
+        ReflectionTestUtils.setField(reactiveJobConsumer, CHECKPOINT_NAME_VAR, CHECKPOINT_NAME);
+        ReflectionTestUtils.setField(reactiveJobConsumer, ATTEMPTS_NAME_VAR, ATTEMPTS_NAME);
+        ReflectionTestUtils.setField(reactiveJobConsumer, RUNNING_NAME_VAR, RUNNING_NAME);
+        ReflectionTestUtils.setField(reactiveJobConsumer, HISTORY_NAME_VAR, HISTORY_NAME);
+        ReflectionTestUtils.setField(reactiveJobConsumer, CONSUMER_GROUP_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(reactiveJobConsumer, RETENTION_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(reactiveJobConsumer, HISTORY_MAX_LENGTH_VAR, 0L);
+        ReflectionTestUtils.setField(reactiveJobConsumer, JOB_DURATION_MS_VAR, 10L);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_KEY_PREFIX_VAR, STATUS_KEY_PREFIX);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_TTL_VAR, Duration.ofDays(1));
+
+        when(reactiveRedisTemplate.execute(eq(SAVE_JOB_STATUSES), anyList(), anyList(), any(), any()))
+                .thenReturn(Flux.just(1L));
+        when(reactiveRedisTemplate.execute(eq(DELETE_JOB), anyList(), anyList()))
+                .thenReturn(Flux.just(1L));
+        when(jobEventBroadcaster.publish(any()))
+                .thenReturn(Mono.empty());
+    }
+
+    @Test
+    void onMessageReceived() {
+        // GIVEN
+        RecordId recordId = RecordId.of(RECORD_ID);
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(recordId);
+        when(reactiveRedisTemplate.execute(START_JOB, List.of(INDEX_NAME, RUNNING_NAME), List.of(RECORD_ID, JOB_ID.toString(), STREAM_NAME)))
+                .thenReturn(Flux.just(1L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobConsumer.onMessage(jobRecord))
+                .verifyComplete();
+
+        // jobs are processed one at a time, so the record is its own checkpoint
+        verify(reactiveRedisTemplate, times(1))
+                .execute(DELETE_JOB, DELETE_KEYS, List.of(RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID));
+        verify(jobMetrics, times(1))
+                .recordQueueWait(recordId);
+        verify(jobMetrics, times(1))
+                .recordProcess(any(), eq(true));
+        verify(jobMetrics, times(1))
+                .recordLag(recordId);
+
+        List<JobState> publishedStates = capturePublishedStates(2);
+        assertEquals(JobStatus.RUNNING, publishedStates.get(0).status());
+        assertNotNull(publishedStates.get(0).startedAt());
+        assertEquals(JobStatus.SUCCEEDED, publishedStates.get(1).status());
+        assertNotNull(publishedStates.get(1).finishedAt());
+    }
+
+    @Test
+    void onMessageReceivedWithConsumerGroup() {
+        // GIVEN
+        ReflectionTestUtils.setField(reactiveJobConsumer, CONSUMER_GROUP_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(reactiveJobConsumer, CONSUMER_GROUP_NAME_VAR, CONSUMER_GROUP_NAME);
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        when(reactiveRedisTemplate.execute(eq(START_JOB), anyList(), anyList()))
+                .thenReturn(Flux.just(1L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobConsumer.onMessage(jobRecord))
+                .verifyComplete();
+
+        verify(reactiveRedisTemplate, times(1))
+                .execute(DELETE_JOB, DELETE_KEYS, List.of(RECORD_ID, JOB_ID.toString(), CONSUMER_GROUP_NAME, "", "0", RECORD_ID));
+    }
+
+    @Test
+    void onMessageReceivedWithJobRemoved() {
+        // GIVEN
+        ObjectRecord<String, JobDto> jobRecord = ObjectRecord.create(STREAM_NAME, initJobDto())
+                .withId(RecordId.of(RECORD_ID));
+        // the job was removed from the queue before its record was read, e.g. by clearing the queue
+        when(reactiveRedisTemplate.execute(START_JOB, List.of(INDEX_NAME, RUNNING_NAME), List.of(RECORD_ID, JOB_ID.toString(), STREAM_NAME)))
+                .thenReturn(Flux.just(0L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobConsumer.onMessage(jobRecord))
+                .verifyComplete();
+
+        // the record is skipped like a completed one
+        verify(reactiveRedisTemplate, times(1))
+                .execute(DELETE_JOB, DELETE_KEYS, List.of(RECORD_ID, JOB_ID.toString(), "", "", "0", RECORD_ID));
+        verify(reactiveRedisTemplate, never())
+                .execute(eq(SAVE_JOB_STATUSES), anyList(), anyList(), any(), any());
+        verify(jobEventBroadcaster, never())
+                .publish(any());
+        verify(jobMetrics, never())
+                .recordProcess(any(), anyBoolean());
+    }
+
+    private JobDto initJobDto() {
+        JobDto job = new JobDto();
+        job.setId(JOB_ID);
+        job.setName(JOB_NAME);
+        return job;
+    }
+
+    private List<JobState> capturePublishedStates(int count) {
+        ArgumentCaptor<JobState> capturedStates = ArgumentCaptor.forClass(JobState.class);
+        verify(jobEventBroadcaster, times(count))
+                .publish(capturedStates.capture());
+        return capturedStates.getAllValues();
+    }
+}
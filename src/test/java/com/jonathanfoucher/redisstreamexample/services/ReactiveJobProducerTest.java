@@ -0,0 +1,277 @@
+package com.jonathanfoucher.redisstreamexample.services;
+
+import com.jonathanfoucher.redisstreamexample.common.codecs.BinaryJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.common.codecs.HashJobRecordCodec;
+import com.jonathanfoucher.redisstreamexample.data.JobDto;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueResult;
+import com.jonathanfoucher.redisstreamexample.data.JobEnqueueStatus;
+import com.jonathanfoucher.redisstreamexample.errors.JobAlreadyQueuedException;
+import com.jonathanfoucher.redisstreamexample.errors.JobNotFoundInQueueException;
+import com.jonathanfoucher.redisstreamexample.errors.RemovingRunningJobException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static com.jonathanfoucher.redisstreamexample.common.scripts.JobQueueScripts.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ActiveProfiles("reactive")
+@SpringJUnitConfig({ReactiveJobProducer.class, JobStreams.class, JobRecordMapper.class, BinaryJobRecordCodec.class, HashJobRecordCodec.class})
+class ReactiveJobProducerTest {
+    @Autowired
+    private ReactiveJobProducer reactiveJobProducer;
+    @Autowired
+    private JobStreams jobStreams;
+    @MockitoBean
+    private ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
+    @MockitoBean
+    private ReactiveHashOperations<String, Object, Object> hashOperations;
+    @MockitoBean
+    private JobMetrics jobMetrics;
+    // its time to live can't be bound in this context, so the real methods run on a mock with its fields set by hand
+    @MockitoBean(answers = Answers.CALLS_REAL_METHODS)
+    private JobStatuses jobStatuses;
+
+    private static final String STREAM_NAME = "job_queue";
+    private static final String STREAM_NAME_VAR = "streamKey";
+    private static final String HIGH_STREAM_NAME = "job_queue:high";
+    private static final String LOW_STREAM_NAME = "job_queue:low";
+    private static final String PARTITIONS_VAR = "partitions";
+    private static final String INDEX_NAME = "job_queue_index";
+    private static final String INDEX_NAME_VAR = "indexKey";
+    private static final String CHECKPOINT_NAME = "job_queue_checkpoint";
+    private static final String CHECKPOINT_NAME_VAR = "checkpointKey";
+    private static final String RUNNING_NAME = "job_queue_running";
+    private static final String RUNNING_NAME_VAR = "runningKey";
+    private static final String DELAYED_NAME = "job_queue_delayed";
+    private static final String DELAYED_NAME_VAR = "delayedKey";
+    private static final String DELAYED_JOBS_NAME = "job_queue_delayed_jobs";
+    private static final String DELAYED_JOBS_NAME_VAR = "delayedJobsKey";
+    private static final String ATTEMPTS_NAME = "job_queue_attempts";
+    private static final String ATTEMPTS_NAME_VAR = "attemptsKey";
+    private static final String CLEAR_BATCH_SIZE_VAR = "clearBatchSize";
+    private static final String CONSUMER_GROUP_ENABLED_VAR = "consumerGroupEnabled";
+    private static final String CONSUMER_GROUP_NAME_VAR = "consumerGroupName";
+    private static final String CONSUMER_GROUP_NAME = "job-consumers";
+    private static final List<String> QUEUE_KEYS = List.of(HIGH_STREAM_NAME, STREAM_NAME, LOW_STREAM_NAME, RUNNING_NAME, CHECKPOINT_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, ATTEMPTS_NAME, INDEX_NAME);
+    private static final Long JOB_ID = 15L;
+    private static final String JOB_NAME = "some job name";
+    private static final String RECORD_ID = Instant.now().minusSeconds(600).toEpochMilli() + "-0";
+    private static final String STATUS_KEY_PREFIX = "job_status:";
+    private static final String STATUS_KEY_PREFIX_VAR = "keyPrefix";
+    private static final String STATUS_KEY = STATUS_KEY_PREFIX + JOB_ID;
+    private static final Duration STATUS_TTL = Duration.ofDays(1);
+    private static final String STATUS_TTL_VAR = "ttl";
+    private static final String CLEARED_NAME_PREFIX = "job_queue_index:cleared:";
+
+    @BeforeEach
+    void beforeEach() {
+        ReflectionTestUtils.setField(jobStreams, STREAM_NAME_VAR, STREAM_NAME);
+        ReflectionTestUtils.setField(jobStreams, PARTITIONS_VAR, 1);
+        ReflectionTestUtils.setField(reactiveJobProducer, INDEX_NAME_VAR, INDEX_NAME);
+        ReflectionTestUtils.setField(reactiveJobProducer, CHECKPOINT_NAME_VAR, CHECKPOINT_NAME);
+        ReflectionTestUtils.setField(reactiveJobProducer, RUNNING_NAME_VAR, RUNNING_NAME);
+        ReflectionTestUtils.setField(reactiveJobProducer, DELAYED_NAME_VAR, DELAYED_NAME);
+        ReflectionTestUtils.setField(reactiveJobProducer, DELAYED_JOBS_NAME_VAR, DELAYED_JOBS_NAME);
+        ReflectionTestUtils.setField(reactiveJobProducer, ATTEMPTS_NAME_VAR, ATTEMPTS_NAME);
+        ReflectionTestUtils.setField(reactiveJobProducer, CLEAR_BATCH_SIZE_VAR, 1000);
+        ReflectionTestUtils.setField(reactiveJobProducer, CONSUMER_GROUP_ENABLED_VAR, false);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_KEY_PREFIX_VAR, STATUS_KEY_PREFIX);
+        ReflectionTestUtils.setField(jobStatuses, STATUS_TTL_VAR, STATUS_TTL);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void produceJobToTheQueue() {
+        // GIVEN
+        when(reactiveRedisTemplate.execute(eq(ENQUEUE_JOB), anyList(), anyList(), any(), any()))
+                .thenReturn(Flux.just(RECORD_ID));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.produce(initJobDto()))
+                .expectNext(RECORD_ID)
+                .verifyComplete();
+
+        ArgumentCaptor<List<String>> capturedKeys = ArgumentCaptor.forClass(List.class);
+        verify(reactiveRedisTemplate, times(1))
+                .execute(eq(ENQUEUE_JOB), capturedKeys.capture(), anyList(), any(), any());
+        assertEquals(List.of(STREAM_NAME, INDEX_NAME, DELAYED_NAME, DELAYED_JOBS_NAME, STATUS_KEY), capturedKeys.getValue());
+        verify(jobMetrics, times(1))
+                .recordEnqueue(any(), eq(JobEnqueueStatus.QUEUED));
+    }
+
+    @Test
+    void produceJobToTheQueueWithJobAlreadyQueued() {
+        // GIVEN
+        // the enqueue script returns nil for a job already queued, which the template completes without any value
+        when(reactiveRedisTemplate.execute(eq(ENQUEUE_JOB), anyList(), anyList(), any(), any()))
+                .thenReturn(Flux.empty());
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.produce(initJobDto()))
+                .expectErrorSatisfies(error -> {
+                    assertTrue(error instanceof JobAlreadyQueuedException);
+                    assertEquals("job with id " + JOB_ID + " is already queued", error.getMessage());
+                })
+                .verify();
+
+        verify(jobMetrics, times(1))
+                .recordEnqueue(any(), eq(JobEnqueueStatus.ALREADY_QUEUED));
+    }
+
+    @Test
+    void produceJobsToTheQueue() {
+        // GIVEN
+        JobDto job2 = new JobDto();
+        Long jobId2 = JOB_ID + 10;
+        job2.setId(jobId2);
+        job2.setName("some other job");
+
+        // the second job is already queued, so its result is empty
+        when(reactiveRedisTemplate.execute(eq(ENQUEUE_JOBS), anyList(), anyList(), any(), any()))
+                .thenReturn(Flux.just(RECORD_ID + ","));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.produceAll(List.of(initJobDto(), job2)))
+                .expectNext(List.of(
+                        new JobEnqueueResult(JOB_ID, RECORD_ID, JobEnqueueStatus.QUEUED),
+                        new JobEnqueueResult(jobId2, null, JobEnqueueStatus.ALREADY_QUEUED)
+                ))
+                .verifyComplete();
+    }
+
+    @Test
+    void removeJobFromQueue() {
+        // GIVEN
+        when(reactiveRedisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, List.of(JOB_ID.toString())))
+                .thenReturn(Flux.just(1L));
+        when(reactiveRedisTemplate.delete(STATUS_KEY))
+                .thenReturn(Mono.just(1L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.removeJobFromQueue(JOB_ID))
+                .verifyComplete();
+
+        verify(reactiveRedisTemplate, times(1))
+                .delete(STATUS_KEY);
+        verify(jobMetrics, times(1))
+                .recordRemove(any(), eq(JobMetrics.REMOVED));
+    }
+
+    @Test
+    void removeJobFromQueueWithConsumerGroup() {
+        // GIVEN
+        ReflectionTestUtils.setField(reactiveJobProducer, CONSUMER_GROUP_ENABLED_VAR, true);
+        ReflectionTestUtils.setField(reactiveJobProducer, CONSUMER_GROUP_NAME_VAR, CONSUMER_GROUP_NAME);
+        when(reactiveRedisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, List.of(JOB_ID.toString(), CONSUMER_GROUP_NAME)))
+                .thenReturn(Flux.just(1L));
+        when(reactiveRedisTemplate.delete(STATUS_KEY))
+                .thenReturn(Mono.just(1L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.removeJobFromQueue(JOB_ID))
+                .verifyComplete();
+
+        verify(reactiveRedisTemplate, times(1))
+                .execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, List.of(JOB_ID.toString(), CONSUMER_GROUP_NAME));
+    }
+
+    @Test
+    void removeJobFromQueueWithJobRunning() {
+        // GIVEN
+        when(reactiveRedisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, List.of(JOB_ID.toString())))
+                .thenReturn(Flux.just(-1L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.removeJobFromQueue(JOB_ID))
+                .expectErrorSatisfies(error -> {
+                    assertTrue(error instanceof RemovingRunningJobException);
+                    assertEquals("job with id " + JOB_ID + " is running and can't be removed from the queue", error.getMessage());
+                })
+                .verify();
+
+        verify(reactiveRedisTemplate, never())
+                .delete(anyString());
+        verify(jobMetrics, times(1))
+                .recordRemove(any(), eq(JobMetrics.RUNNING));
+    }
+
+    @Test
+    void removeJobFromQueueWithJobNotQueued() {
+        // GIVEN
+        when(reactiveRedisTemplate.execute(REMOVE_QUEUED_JOB, QUEUE_KEYS, List.of(JOB_ID.toString())))
+                .thenReturn(Flux.just(0L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.removeJobFromQueue(JOB_ID))
+                .expectError(JobNotFoundInQueueException.class)
+                .verify();
+
+        verify(reactiveRedisTemplate, never())
+                .delete(anyString());
+        verify(jobMetrics, times(1))
+                .recordRemove(any(), eq(JobMetrics.NOT_QUEUED));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void clearJobQueue() {
+        // GIVEN
+        ReflectionTestUtils.setField(reactiveJobProducer, CLEAR_BATCH_SIZE_VAR, 2);
+        when(reactiveRedisTemplate.execute(eq(CLEAR_JOB_QUEUE), anyList(), eq(List.of(String.valueOf(STATUS_TTL.toMillis())))))
+                .thenReturn(Flux.just(3L));
+        when(reactiveRedisTemplate.opsForHash())
+                .thenReturn(hashOperations);
+        when(hashOperations.scan(startsWith(CLEARED_NAME_PREFIX), any()))
+                .thenReturn(Flux.just(Map.entry(JOB_ID.toString(), STREAM_NAME + "|" + RECORD_ID), Map.entry("16", DELAYED_NAME + "|16"),
+                        Map.entry("17", STREAM_NAME + "|" + RECORD_ID)));
+        when(reactiveRedisTemplate.execute(eq(DELETE_CLEARED_JOBS), anyList(), anyList()))
+                .thenReturn(Flux.just(1L));
+        when(reactiveRedisTemplate.unlink(anyString()))
+                .thenReturn(Mono.just(1L));
+
+        // WHEN / THEN
+        StepVerifier.create(reactiveJobProducer.clearJobQueue())
+                .verifyComplete();
+
+        ArgumentCaptor<List<String>> capturedKeys = ArgumentCaptor.forClass(List.class);
+        verify(reactiveRedisTemplate, times(1))
+                .execute(eq(CLEAR_JOB_QUEUE), capturedKeys.capture(), anyList());
+        String clearedKey = capturedKeys.getValue().getLast();
+        assertEquals(QUEUE_KEYS, capturedKeys.getValue().subList(0, QUEUE_KEYS.size()));
+        assertTrue(clearedKey.startsWith(CLEARED_NAME_PREFIX));
+
+        // the records and statuses of the cleared jobs are deleted a batch at a time
+        verify(reactiveRedisTemplate, times(1))
+                .execute(DELETE_CLEARED_JOBS, List.of(clearedKey, INDEX_NAME, DELAYED_NAME, STATUS_KEY, STATUS_KEY_PREFIX + 16), List.of("", JOB_ID.toString(), "16"));
+        verify(reactiveRedisTemplate, times(1))
+                .execute(DELETE_CLEARED_JOBS, List.of(clearedKey, INDEX_NAME, DELAYED_NAME, STATUS_KEY_PREFIX + 17), List.of("", "17"));
+        verify(reactiveRedisTemplate, times(1))
+                .unlink(clearedKey);
+    }
+
+    private JobDto initJobDto() {
+        JobDto job = new JobDto();
+        job.setId(JOB_ID);
+        job.setName(JOB_NAME);
+        return job;
+    }
+}